@@ -0,0 +1,55 @@
+package main.java.benchmark;
+
+import main.java.core.featuredetection.ClassifierTechnique;
+import main.java.utils.OSUtils;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+
+/**
+ * Shared setup for benchmarks.
+ */
+public class BenchmarkSupport {
+
+    /**
+     * Classifier files of the project, relative to benchmarks directory.
+     */
+    public static final String CLASSIFIER_DIR = "../src/main/resources/facedetectionclassifiers/";
+
+    private static boolean openCVLoaded = false;
+
+    /**
+     * Loads the OPENCV native library from the directory set by system property opencv.lib.dir(defaults to ../libs,
+     * the project libs directory when run from benchmarks directory).
+     */
+    public static synchronized void loadOpenCV() {
+        if (openCVLoaded) {
+            return;
+        }
+        String nativeLibrarySuffix;
+        switch (OSUtils.getOS()) {
+            case WINDOWS:
+                nativeLibrarySuffix = ".dll";
+                break;
+            case MAC:
+                nativeLibrarySuffix = ".dylib";
+                break;
+            default:
+                nativeLibrarySuffix = ".so";
+        }
+        File libraryDir = new File(System.getProperty("opencv.lib.dir", "../libs"));
+        System.load(new File(libraryDir, "libopencv_java330" + nativeLibrarySuffix).getAbsolutePath());
+        openCVLoaded = true;
+    }
+
+    /**
+     * Loads classifier of given technique from {@link #CLASSIFIER_DIR}, without going through the classifier pool.
+     */
+    public static CascadeClassifier loadClassifier(ClassifierTechnique technique) {
+        CascadeClassifier classifier = new CascadeClassifier();
+        if (!classifier.load(CLASSIFIER_DIR + technique.getResourceUrl())) {
+            throw new IllegalStateException("Unable to load classifier " + technique.getResourceUrl());
+        }
+        return classifier;
+    }
+}
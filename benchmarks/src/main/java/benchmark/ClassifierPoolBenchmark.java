@@ -0,0 +1,97 @@
+package main.java.benchmark;
+
+import main.java.core.featuredetection.ClassifierTechnique;
+import main.java.core.featuredetection.DetectionMode;
+import main.java.core.featuredetection.ProminentFeatureDetector;
+import main.java.core.featuredetection.factory.BorrowPolicy;
+import main.java.core.featuredetection.factory.CascadeClassifierFactory;
+import main.java.core.featuredetection.factory.ClassifierLease;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start cost of the classifier pool, loading lazily on first lease against loading pool size classifiers of
+ * every technique up front as the pool used to, and steady state detection throughput over the shared pool.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dserverlesscv.classifier.dir=../src/main/resources/facedetectionclassifiers/")
+public class ClassifierPoolBenchmark {
+
+    private static final Set<ClassifierTechnique> ALL_TECHNIQUES = EnumSet.allOf(ClassifierTechnique.class);
+
+    @Param({"../test.jpeg"})
+    public String imagePath;
+
+    private int eagerPoolSize;
+
+    private byte[] imageBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.loadOpenCV();
+        eagerPoolSize = Runtime.getRuntime().availableProcessors();
+        imageBytes = Files.readAllBytes(new File(imagePath).toPath());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public ClassifierLease coldStartLazyAllTechniques() throws Exception {
+        CascadeClassifierFactory factory = new CascadeClassifierFactory(eagerPoolSize, 60 * 1000);
+        try (ClassifierLease lease = factory.lease(ALL_TECHNIQUES, 30, TimeUnit.SECONDS, BorrowPolicy.FAIL_FAST)) {
+            return lease;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public ClassifierLease coldStartLazyFrontalOnly() throws Exception {
+        CascadeClassifierFactory factory = new CascadeClassifierFactory(eagerPoolSize, 60 * 1000);
+        try (ClassifierLease lease = factory.lease(EnumSet.of(ClassifierTechnique.HAAR_FRONTAL_FACE), 30,
+                TimeUnit.SECONDS, BorrowPolicy.FAIL_FAST)) {
+            return lease;
+        }
+    }
+
+    /**
+     * Holds pool size leases at once, so that every technique loads pool size classifiers, as the eager pool did.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public int coldStartEager() throws Exception {
+        CascadeClassifierFactory factory = new CascadeClassifierFactory(eagerPoolSize, 60 * 1000);
+        List<ClassifierLease> leases = new ArrayList<>(eagerPoolSize);
+        try {
+            for (int i = 0; i < eagerPoolSize; i++) {
+                leases.add(factory.lease(ALL_TECHNIQUES, 30, TimeUnit.SECONDS, BorrowPolicy.FAIL_FAST));
+            }
+            return leases.size();
+        } finally {
+            for (ClassifierLease lease : leases) {
+                lease.close();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(4)
+    public Object steadyStateDetection() throws Exception {
+        return ProminentFeatureDetector.detectProminentFeatures(imageBytes, 1, DetectionMode.SEQUENTIAL);
+    }
+}
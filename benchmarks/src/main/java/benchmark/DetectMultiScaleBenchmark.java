@@ -0,0 +1,62 @@
+package main.java.benchmark;
+
+import main.java.core.featuredetection.ClassifierTechnique;
+import main.java.core.imageprocess.DetectionFrame;
+import main.java.core.imageprocess.PreprocessingPipeline;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * detectMultiScale of each classifier technique on a preprocessed frame, with parameters used by FaceDetector.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DetectMultiScaleBenchmark {
+
+    @Param({"HAAR_FRONTAL_FACE", "HAAR_PROFILE_FACE", "LBP_FACE_VISIONARY"})
+    public ClassifierTechnique technique;
+
+    @Param({"640x480", "1920x1080"})
+    public String resolution;
+
+    private CascadeClassifier classifier;
+
+    private DetectionFrame frame;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.loadOpenCV();
+        classifier = BenchmarkSupport.loadClassifier(technique);
+        byte[] imageBytes = Files.readAllBytes(new File(ImageCorpus.imagePath(resolution)).toPath());
+        String[] dimensions = resolution.split("x");
+        frame = new PreprocessingPipeline(new Size(700, 700), false, false).process(imageBytes, 1,
+                new java.awt.Dimension(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1])));
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.close();
+    }
+
+    @Benchmark
+    public int detectMultiScale() {
+        Mat image = frame.getImage();
+        MatOfRect faceDetected = new MatOfRect();
+        classifier.detectMultiScale(image, faceDetected, 1.05, 0, 1, technique.getMinimumObjectSize(),
+                image.size());
+        int numFaces = faceDetected.rows();
+        faceDetected.release();
+        return numFaces;
+    }
+}
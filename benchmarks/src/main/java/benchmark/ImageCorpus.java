@@ -0,0 +1,85 @@
+package main.java.benchmark;
+
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Fixed corpus of generated jpeg images for benchmarks, so that they run offline and give comparable numbers across
+ * machines. Images are a gradient with noise and a few face like ellipses, generated from a fixed seed into
+ * java.io.tmpdir/serverlesscv-benchmark-corpus on first use.
+ */
+public class ImageCorpus {
+
+    /**
+     * Resolutions in the corpus, from a web thumbnail to a 12 mega pixel phone photo.
+     */
+    public static final String[] RESOLUTIONS = {"640x480", "1920x1080", "4032x3024"};
+
+    private static final long SEED = 20171017L;
+
+    private static final int JPEG_QUALITY = 90;
+
+    private static final File CORPUS_DIR = new File(System.getProperty("java.io.tmpdir"),
+            "serverlesscv-benchmark-corpus");
+
+    /**
+     * @param resolution Image resolution as widthxheight, e.g. 1920x1080.
+     * @return Path of the corpus image of given resolution, generating it if missing.
+     */
+    public static synchronized String imagePath(String resolution) {
+        BenchmarkSupport.loadOpenCV();
+        File imageFile = new File(CORPUS_DIR, resolution + ".jpeg");
+        if (!imageFile.exists()) {
+            String[] dimensions = resolution.split("x");
+            generate(imageFile, Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        }
+        return imageFile.getAbsolutePath();
+    }
+
+    private static void generate(File imageFile, int width, int height) {
+        if (!CORPUS_DIR.isDirectory() && !CORPUS_DIR.mkdirs()) {
+            throw new IllegalStateException("Unable to create benchmark corpus directory " + CORPUS_DIR);
+        }
+        Random random = new Random(SEED + width * 31 + height);
+
+        Mat image = new Mat(height, width, CvType.CV_8UC3);
+        for (int row = 0; row < height; row++) {
+            double shade = 60 + 120.0 * row / height;
+            image.row(row).setTo(new Scalar(shade, shade * 0.9, shade * 0.8));
+        }
+        Mat noise = new Mat(height, width, CvType.CV_8UC3);
+        Core.setRNGSeed((int) SEED);
+        Core.randn(noise, 0, 12);
+        Core.add(image, noise, image);
+        noise.release();
+
+        // A few face like blobs of different sizes, so cascades have candidates at several scales.
+        int numFaces = 5;
+        for (int i = 0; i < numFaces; i++) {
+            int faceWidth = Math.max(24, (int) (Math.min(width, height) * (0.08 + 0.2 * random.nextDouble())));
+            int faceHeight = (int) (faceWidth * 1.3);
+            Point center = new Point(faceWidth + random.nextInt(Math.max(1, width - 2 * faceWidth)),
+                    faceHeight + random.nextInt(Math.max(1, height - 2 * faceHeight)));
+            Imgproc.ellipse(image, center, new Size(faceWidth / 2, faceHeight / 2), 0, 0, 360,
+                    new Scalar(140, 170, 210), -1);
+            Size eyeSize = new Size(faceWidth / 10, faceHeight / 16);
+            Imgproc.ellipse(image, new Point(center.x - faceWidth / 5, center.y - faceHeight / 8), eyeSize, 0, 0,
+                    360, new Scalar(40, 40, 40), -1);
+            Imgproc.ellipse(image, new Point(center.x + faceWidth / 5, center.y - faceHeight / 8), eyeSize, 0, 0,
+                    360, new Scalar(40, 40, 40), -1);
+            Imgproc.line(image, new Point(center.x - faceWidth / 6, center.y + faceHeight / 5),
+                    new Point(center.x + faceWidth / 6, center.y + faceHeight / 5), new Scalar(60, 60, 120),
+                    Math.max(1, faceWidth / 20));
+        }
+
+        if (!Imgcodecs.imwrite(imageFile.getAbsolutePath(), image,
+                new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, JPEG_QUALITY))) {
+            throw new IllegalStateException("Unable to write benchmark image " + imageFile);
+        }
+        image.release();
+    }
+}
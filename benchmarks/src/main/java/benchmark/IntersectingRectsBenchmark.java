@@ -0,0 +1,92 @@
+package main.java.benchmark;
+
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.utils.MathUtils;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MathUtils.findIntersectingRects over one rect list per classifier technique, with lists of growing size, against
+ * the all to all implementation it replaced. Rects are from a fixed seed in a 700x700 frame, either spread uniformly
+ * or as a dense crowd: many faces, each with a cluster of jittered detections at several scales, as detectMultiScale
+ * gives with minNeighbors 0.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IntersectingRectsBenchmark {
+
+    private static final int NUM_TECHNIQUES = 3;
+
+    private static final int FRAME_SIZE = 700;
+
+    @Param({"16", "64", "256", "1024"})
+    public int rectsPerList;
+
+    @Param({"uniform", "denseCrowd"})
+    public String layout;
+
+    private List<List<FeatureOfInterest>> rectsLists;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        rectsLists = new ArrayList<>(NUM_TECHNIQUES);
+        for (int i = 0; i < NUM_TECHNIQUES; i++) {
+            rectsLists.add("denseCrowd".equals(layout) ? denseCrowd(random) : uniform(random));
+        }
+    }
+
+    private List<FeatureOfInterest> uniform(Random random) {
+        List<FeatureOfInterest> rects = new ArrayList<>(rectsPerList);
+        for (int j = 0; j < rectsPerList; j++) {
+            int size = 20 + random.nextInt(200);
+            Rect rect = new Rect(random.nextInt(FRAME_SIZE - size), random.nextInt(FRAME_SIZE - size), size, size);
+            rects.add(new FeatureOfInterest(rect, FeatureOfInterest.FeatureType.FACE, random.nextInt(20)));
+        }
+        return rects;
+    }
+
+    private List<FeatureOfInterest> denseCrowd(Random random) {
+        // Same crowd for every technique, so that detections of different techniques agree.
+        Random crowdRandom = new Random(7);
+        int numFaces = Math.max(1, rectsPerList / 16);
+        int[] faceX = new int[numFaces];
+        int[] faceY = new int[numFaces];
+        int[] faceSize = new int[numFaces];
+        for (int f = 0; f < numFaces; f++) {
+            faceSize[f] = 20 + crowdRandom.nextInt(40);
+            faceX[f] = crowdRandom.nextInt(FRAME_SIZE - 2 * faceSize[f]);
+            faceY[f] = crowdRandom.nextInt(FRAME_SIZE - 2 * faceSize[f]);
+        }
+
+        List<FeatureOfInterest> rects = new ArrayList<>(rectsPerList);
+        for (int j = 0; j < rectsPerList; j++) {
+            int f = random.nextInt(numFaces);
+            int size = (int) (faceSize[f] * Math.pow(1.05, random.nextInt(8) - 4));
+            int jitter = Math.max(1, faceSize[f] / 8);
+            Rect rect = new Rect(Math.max(0, faceX[f] + random.nextInt(2 * jitter) - jitter),
+                    Math.max(0, faceY[f] + random.nextInt(2 * jitter) - jitter), size, size);
+            rects.add(new FeatureOfInterest(rect, FeatureOfInterest.FeatureType.FACE, random.nextInt(20)));
+        }
+        return rects;
+    }
+
+    @Benchmark
+    public List<FeatureOfInterest> findIntersectingRects() {
+        return MathUtils.findIntersectingRects(rectsLists);
+    }
+
+    @Benchmark
+    public List<FeatureOfInterest> legacyFindIntersectingRects() {
+        return LegacyRectVoting.findIntersectingRects(rectsLists);
+    }
+}
@@ -0,0 +1,83 @@
+package main.java.benchmark;
+
+import main.java.core.featuredetection.dataSorting.SortByScore;
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import org.opencv.core.Rect;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MathUtils.findIntersectingRects as it was before RectVotingEngine: all to all pair tests through
+ * java.awt.Rectangle, then an all to all suppression pass. Kept as the baseline for IntersectingRectsBenchmark.
+ */
+class LegacyRectVoting {
+
+    static List<FeatureOfInterest> findIntersectingRects(List<List<FeatureOfInterest>> rectsLists) {
+        List<FeatureOfInterest> output = new ArrayList<>();
+        if (rectsLists.size() >= 2) {
+            for (int i = 0; i < rectsLists.size() - 1; i++) {
+                for (int j = i + 1; j < rectsLists.size(); j++) {
+                    output.addAll(findIntersectingRects(rectsLists.get(i), rectsLists.get(j)));
+                }
+            }
+        }
+        return filterIntersectingRect(output);
+    }
+
+    private static Rect getIntersectionRect(Rect rect1, Rect rect2) {
+        Rectangle r1 = new Rectangle(rect1.x, rect1.y, rect1.width, rect1.height);
+        Rectangle r2 = new Rectangle(rect2.x, rect2.y, rect2.width, rect2.height);
+        if (!r1.intersects(r2))
+            return new Rect(0, 0, 0, 0);
+        Rectangle intersection = r1.intersection(r2);
+        return new Rect(intersection.x, intersection.y, intersection.width, intersection.height);
+    }
+
+    private static List<FeatureOfInterest> findIntersectingRects(List<FeatureOfInterest> rectList1,
+                                                                 List<FeatureOfInterest> rectList2) {
+        List<FeatureOfInterest> output = new ArrayList<>();
+        for (FeatureOfInterest featureOfInterest1 : rectList1) {
+            Rect rect1 = featureOfInterest1.getFeatureROI();
+            for (FeatureOfInterest featureOfInterest2 : rectList2) {
+                if (featureOfInterest1.getFeatureType() == featureOfInterest2.getFeatureType()) {
+                    Rect intersectRect = getIntersectionRect(rect1, featureOfInterest2.getFeatureROI());
+                    if (intersectRect.area() > 0) {
+                        output.add(new FeatureOfInterest(intersectRect, featureOfInterest1.getFeatureType(),
+                                featureOfInterest1.getFeatureScore() + featureOfInterest2.getFeatureScore()));
+                    }
+                }
+            }
+        }
+        return output;
+    }
+
+    private static List<FeatureOfInterest> filterIntersectingRect(List<FeatureOfInterest> rects) {
+        List<FeatureOfInterest> output = new ArrayList<>();
+        boolean[] discardFeature = new boolean[rects.size()];
+        Collections.sort(rects, new SortByScore());
+        for (int i = 0; i < rects.size() - 1; i++) {
+            if (discardFeature[i]) {
+                continue;
+            }
+            Rect rect1 = rects.get(i).getFeatureROI();
+            for (int j = i + 1; j < rects.size(); j++) {
+                if (discardFeature[j]) {
+                    continue;
+                }
+                if (rects.get(i).getFeatureType() == rects.get(j).getFeatureType() &&
+                        getIntersectionRect(rect1, rects.get(j).getFeatureROI()).area() > 0) {
+                    discardFeature[j] = true;
+                }
+            }
+        }
+        for (int i = 0; i < discardFeature.length; i++) {
+            if (!discardFeature[i]) {
+                output.add(rects.get(i));
+            }
+        }
+        return output;
+    }
+}
@@ -0,0 +1,59 @@
+package main.java.benchmark;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Metadata;
+import main.java.core.imagemetadataprocess.ImageMetadataAnalysisResult;
+import main.java.core.imagemetadataprocess.MetadataAnalyzer;
+import main.java.core.imageprocess.ImageProcessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metadata stages of feature detection event: reading metadata of the image and analyzing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetadataBenchmark {
+
+    @Param({"640x480", "1920x1080", "4032x3024"})
+    public String resolution;
+
+    private String imagePath;
+
+    private Metadata metadata;
+
+    @Setup
+    public void setup() {
+        imagePath = ImageCorpus.imagePath(resolution);
+        metadata = ImageProcessor.getMetadata(imagePath);
+    }
+
+    @Benchmark
+    public Metadata getMetadata() {
+        return ImageProcessor.getMetadata(imagePath);
+    }
+
+    /**
+     * Baseline for {@link #getMetadata()}: every reader metadata-extractor has, as used before header-only reading.
+     */
+    @Benchmark
+    public Metadata readAllMetadata() throws Exception {
+        return ImageMetadataReader.readMetadata(new File(imagePath));
+    }
+
+    @Benchmark
+    public ImageMetadataAnalysisResult analyzeMetadata() {
+        return MetadataAnalyzer.analyzeImage(metadata);
+    }
+
+    @Benchmark
+    public ImageMetadataAnalysisResult readAndAnalyzeImage() {
+        return MetadataAnalyzer.analyzeImage(imagePath, false);
+    }
+}
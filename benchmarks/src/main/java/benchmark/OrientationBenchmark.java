@@ -0,0 +1,89 @@
+package main.java.benchmark;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Metadata;
+import main.java.core.imageprocess.ImageProcessor;
+import main.java.utils.BashUtils;
+import main.java.utils.FileUtils;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares exif orientation handling through ImageMagick commands(identify, convert -auto-orient and re-reading the
+ * file) with reading orientation from parsed metadata and orienting the decoded Mat in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OrientationBenchmark {
+
+    @Param({"../test.jpeg"})
+    public String imagePath;
+
+    /**
+     * Orientation applied to the decoded image. Exif orientation of the file itself is used by ImageMagick.
+     */
+    @Param({"1", "3", "6"})
+    public int orientationValue;
+
+    private byte[] imageBytes;
+
+    private Metadata metadata;
+
+    private String orientedImagePath;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.loadOpenCV();
+        imageBytes = Files.readAllBytes(new File(imagePath).toPath());
+        metadata = ImageMetadataReader.readMetadata(new File(imagePath));
+        orientedImagePath = File.createTempFile("orientation-benchmark", ".jpeg").getAbsolutePath();
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtils.deleteFile(orientedImagePath);
+    }
+
+    @Benchmark
+    public String imageMagickOrientationValue() throws Exception {
+        return BashUtils.runCommand("identify", "-format", "%[exif:orientation]", imagePath);
+    }
+
+    @Benchmark
+    public int metadataOrientationValue() {
+        return ImageProcessor.imageOrientationValue(metadata);
+    }
+
+    @Benchmark
+    public Size imageMagickAutoOrientAndRead() {
+        ImageProcessor.autoOrientImage(imagePath, orientedImagePath);
+        Mat mat = Imgcodecs.imread(orientedImagePath);
+        Size size = mat.size();
+        mat.release();
+        return size;
+    }
+
+    @Benchmark
+    public Size decodeAndAutoOrientInMemory() {
+        Mat mat = ImageProcessor.autoOrientImage(ImageProcessor.decodeImage(imageBytes), orientationValue);
+        Size size = mat.size();
+        mat.release();
+        return size;
+    }
+
+    @Benchmark
+    public Rect orientRectOnly() {
+        return ImageProcessor.orientRect(new Rect(100, 200, 300, 400), new Size(4000, 3000), orientationValue);
+    }
+}
@@ -0,0 +1,107 @@
+package main.java.benchmark;
+
+import main.java.core.imageprocess.DetectionFrame;
+import main.java.core.imageprocess.ImageProcessor;
+import main.java.core.imageprocess.PreprocessingPipeline;
+import main.java.utils.MathUtils;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode and resize stages of ProminentFeatureDetector.extractFaces, from encoded bytes to the gray frame handed to
+ * classifiers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PreprocessingBenchmark {
+
+    private static final Size MAX_IMAGE_PROCESSING_SIZE = new Size(700, 700);
+
+    @Param({"640x480", "1920x1080", "4032x3024"})
+    public String resolution;
+
+    private String imagePath;
+
+    private byte[] imageBytes;
+
+    private Dimension storedImageDimension;
+
+    private PreprocessingPipeline fullDecodePipeline;
+
+    private PreprocessingPipeline reducedDecodePipeline;
+
+    @Setup
+    public void setup() throws Exception {
+        imagePath = ImageCorpus.imagePath(resolution);
+        imageBytes = Files.readAllBytes(new File(imagePath).toPath());
+        String[] dimensions = resolution.split("x");
+        storedImageDimension = new Dimension(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        fullDecodePipeline = new PreprocessingPipeline(MAX_IMAGE_PROCESSING_SIZE, false, false);
+        reducedDecodePipeline = new PreprocessingPipeline(MAX_IMAGE_PROCESSING_SIZE, true, false);
+    }
+
+    @Benchmark
+    public Size decode() {
+        Mat image = ImageProcessor.decodeImage(imageBytes);
+        Size size = image.size();
+        image.release();
+        return size;
+    }
+
+    @Benchmark
+    public Size decodeReduced() {
+        Mat image = ImageProcessor.decodeReducedImage(imageBytes, storedImageDimension, MAX_IMAGE_PROCESSING_SIZE);
+        Size size = image.size();
+        image.release();
+        return size;
+    }
+
+    /**
+     * Decode from file, resize and gray conversion, each into a new Mat, as extractFaces used to do.
+     */
+    @Benchmark
+    public Size readResizeAndConvert() {
+        Mat image = Imgcodecs.imread(imagePath);
+        double scaleFactor = MathUtils.resizeToBoundingRect(image, MAX_IMAGE_PROCESSING_SIZE);
+        Mat rescaledImage = image;
+        if (scaleFactor < 1) {
+            rescaledImage = new Mat();
+            Imgproc.resize(image, rescaledImage, new Size(0, 0), scaleFactor, scaleFactor, Imgproc.INTER_CUBIC);
+        }
+        Mat grayImage = new Mat();
+        Imgproc.cvtColor(rescaledImage, grayImage, Imgproc.COLOR_BGR2GRAY);
+        Size size = grayImage.size();
+        if (rescaledImage != image) {
+            rescaledImage.release();
+        }
+        image.release();
+        grayImage.release();
+        return size;
+    }
+
+    @Benchmark
+    public Size pipeline() throws Exception {
+        try (DetectionFrame frame = fullDecodePipeline.process(imageBytes, 1, storedImageDimension)) {
+            return frame.getImage().size();
+        }
+    }
+
+    @Benchmark
+    public Size pipelineReducedDecode() throws Exception {
+        try (DetectionFrame frame = reducedDecodePipeline.process(imageBytes, 1, storedImageDimension)) {
+            return frame.getImage().size();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package main.java;
+
+import main.java.core.batch.BatchPipeline;
+import main.java.core.featuredetection.DetectionMode;
+import main.java.core.featuredetection.datapojo.DetectionOptions;
+import main.java.utils.FileUtils;
+import main.java.utils.NativeLibraryLoader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Batch entry point for backfills. Detects prominent features of every image in a directory, or of every image path
+ * (or url) listed in a manifest file, one per line, and writes results as newline delimited json.
+ * <p/>
+ * Usage: BatchDriver &lt;image directory | manifest file&gt; &lt;output file&gt; [max features, default 1]
+ */
+public class BatchDriver {
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: BatchDriver <image directory | manifest file> <output file> [max features]");
+            System.exit(1);
+        }
+        String input = args[0];
+        String outputPath = args[1];
+        int maxNumberOfFeatures = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+
+        try {
+            NativeLibraryLoader.loadOpenCV();
+        } catch (UnsatisfiedLinkError e) {
+            System.out.println("BATCH_DRIVER: Loading Native OPENCV library Failed. Can't proceed. Exiting...");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        DetectionOptions detectionOptions = new DetectionOptions(maxNumberOfFeatures, DetectionMode.SEQUENTIAL);
+        detectionOptions.setReducedDecode(true);
+
+        // Results go to a file, as stdout is used for logs.
+        try (Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputPath),
+                StandardCharsets.UTF_8))) {
+            if (new File(input).isDirectory()) {
+                List<String> imagePaths = new ArrayList<>();
+                List<File> imageFiles = FileUtils.getImageFilesInDir(input);
+                if (imageFiles != null) {
+                    for (File imageFile : imageFiles) {
+                        imagePaths.add(imageFile.getAbsolutePath());
+                    }
+                }
+                new BatchPipeline(detectionOptions, output).run(imagePaths.iterator());
+            } else {
+                try (BufferedReader manifestReader = new BufferedReader(new InputStreamReader(new FileInputStream
+                        (input), StandardCharsets.UTF_8))) {
+                    new BatchPipeline(detectionOptions, output).run(manifestLines(manifestReader));
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("BATCH_DRIVER: Batch failed for input: " + input);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Iterates over manifest lines as they are read, so that a manifest of millions of images is never held in
+     * memory. Blank lines and lines starting with # are skipped.
+     */
+    private static Iterator<String> manifestLines(final BufferedReader manifestReader) {
+        return new Iterator<String>() {
+            private String nextLine = readNext();
+
+            private String readNext() {
+                try {
+                    String line;
+                    while ((line = manifestReader.readLine()) != null) {
+                        line = line.trim();
+                        if (!line.isEmpty() && !line.startsWith("#")) {
+                            return line;
+                        }
+                    }
+                    return null;
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to read manifest", e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextLine != null;
+            }
+
+            @Override
+            public String next() {
+                if (nextLine == null) {
+                    throw new NoSuchElementException();
+                }
+                String line = nextLine;
+                nextLine = readNext();
+                return line;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package main.java;
+
+import main.java.core.crop.CropRendition;
+import main.java.core.crop.CropRenditionEngine;
+import main.java.core.featuredetection.DetectionMode;
+import main.java.core.featuredetection.ProminentFeatureDetector;
+import main.java.core.featuredetection.datapojo.DetectionOptions;
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.imageprocess.DetectionFrame;
+import main.java.core.imageprocess.ImageProcessor;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.MetricsRegistry;
+import main.java.utils.FileUtils;
+import main.java.utils.NativeLibraryLoader;
+import org.opencv.core.Mat;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point for face centered crops of an image. Image is decoded once, faces are detected in it and all crops are
+ * cut and encoded from the same decoded image with {@link CropRenditionEngine}. Crops are written to output directory
+ * as &lt;image name&gt;-&lt;width&gt;x&lt;height&gt;.jpg, one per aspect ratio.
+ * <p/>
+ * Usage: CropDriver &lt;image path&gt; &lt;output directory&gt; [aspect ratios, default 1:1,4:5,16:9,9:16]
+ */
+public class CropDriver {
+
+    private static final Logger LOGGER = Logger.getLogger(CropDriver.class);
+
+    private static final String DEFAULT_ASPECT_RATIOS = "1:1,4:5,16:9,9:16";
+
+    private static final int JPEG_QUALITY = 90;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: CropDriver <image path> <output directory> [aspect ratios]");
+            System.exit(1);
+        }
+        String imagePath = args[0];
+        File outputDir = new File(args[1]);
+        List<Dimension> aspectRatios = new ArrayList<>();
+        for (String aspectRatio : ((args.length > 2) ? args[2] : DEFAULT_ASPECT_RATIOS).split(",")) {
+            aspectRatios.add(CropRenditionEngine.parseAspectRatio(aspectRatio));
+        }
+
+        try {
+            NativeLibraryLoader.loadOpenCV();
+        } catch (UnsatisfiedLinkError e) {
+            System.out.println("CROP_DRIVER: Loading Native OPENCV library Failed. Can't proceed. Exiting...");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        CropRenditionEngine cropRenditionEngine = new CropRenditionEngine(aspectRatios, ".jpg", JPEG_QUALITY, null);
+        Mat image = null;
+        try {
+            image = ImageProcessor.decodeOrientedImage(ImageProcessor.toByteArray(FileUtils.mapFile(imagePath)));
+            if (image.empty()) {
+                throw new Exception("Decoded image is empty: " + imagePath);
+            }
+
+            // Detection gets a downscaled grayscale copy, the decoded image itself is left for cropping.
+            DetectionOptions detectionOptions = new DetectionOptions(1, DetectionMode.SEQUENTIAL);
+            List<FeatureOfInterest> featureOfInterests;
+            try (DetectionFrame detectionFrame = ProminentFeatureDetector.newPreprocessingPipeline(detectionOptions)
+                    .process(image, image.size())) {
+                featureOfInterests = ProminentFeatureDetector.detectProminentFeatures(detectionFrame,
+                        detectionOptions);
+            }
+            LOGGER.info("Number of Faces found: {} imagePath: {}", featureOfInterests.size(), imagePath);
+
+            List<CropRendition> cropRenditions = cropRenditionEngine.render(image, featureOfInterests);
+            if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+                throw new Exception("Unable to create output directory: " + outputDir);
+            }
+            String baseName = new File(imagePath).getName().replaceFirst("\\.[^.]*$", "");
+            for (CropRendition cropRendition : cropRenditions) {
+                File outputFile = new File(outputDir, baseName + "-" + (int) cropRendition.getSize().width + "x" +
+                        (int) cropRendition.getSize().height + cropRendition.getExtension());
+                Files.write(outputFile.toPath(), cropRendition.getEncodedBytes());
+                LOGGER.info("Wrote {} to {}", cropRendition, outputFile);
+            }
+        } catch (Exception e) {
+            System.out.println("CROP_DRIVER: Failed for image: " + imagePath);
+            e.printStackTrace();
+            Logger.flush(1000);
+            System.exit(1);
+        } finally {
+            if (image != null) {
+                image.release();
+            }
+        }
+        LOGGER.info("Crops done. {}", MetricsRegistry.getInstance().toText(false));
+        Logger.flush(1000);
+        System.exit(0);
+    }
+}
@@ -1,161 +1,166 @@
 package main.java;
 
-import com.drew.metadata.Metadata;
+import main.java.core.cache.ContentKey;
+import main.java.core.cache.ResultCaches;
+import main.java.core.featuredetection.ClassifierTechnique;
+import main.java.core.featuredetection.DetectionMode;
 import main.java.core.featuredetection.ProminentFeatureDetector;
+import main.java.core.featuredetection.datapojo.DetectionOptions;
 import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.featuredetection.factory.CascadeClassifierFactory;
 import main.java.core.imagemetadataprocess.ImageMetadataAnalysisResult;
 import main.java.core.imagemetadataprocess.MetadataAnalyzer;
 import main.java.core.imageprocess.ImageProcessor;
-import main.java.utils.BashUtils;
-import main.java.utils.OSUtils;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.MetricsRegistry;
+import main.java.utils.FileUtils;
+import main.java.utils.NativeLibraryLoader;
 import org.opencv.core.Mat;
 import org.opencv.core.Rect;
 import org.opencv.core.Size;
-import org.opencv.imgcodecs.Imgcodecs;
 
 import java.awt.*;
+import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by tapansharma on 06/10/17.
  */
 public class Driver {
 
-    private ImageMetadataAnalysisResult imageMetadataAnalysisResult = null;
+    private static final Logger LOGGER = Logger.getLogger(Driver.class);
 
-    public void warmupBeforeServerlessExecution() {
-        System.out.println("OPENCV_DRIVER: Started");
-        try {
-            // Attempt to load native library.
-            System.out.println("Attempting to load OPENCV Native Library: ");
-            String baseDirPath = (BashUtils.runBashCommand("pwd")).trim();
-            System.out.println("Library Path currently set is: " + System.getProperty("java.library.path"));
-            String nativeLibrarySuffix;
-            switch (OSUtils.getOS()) {
-
-                case WINDOWS:
-                    nativeLibrarySuffix = ".dll";
-                    break;
-                case LINUX:
-                    nativeLibrarySuffix = ".so";
-                    break;
-                case MAC:
-                    nativeLibrarySuffix = ".dylib";
-                    break;
-                default:
-                    nativeLibrarySuffix = null;
-            }
-            if (nativeLibrarySuffix == null) {
-                System.out.println("Failed to determine OS Platform. Can't proceed....");
-                System.exit(1);
-            }
-            System.load(baseDirPath + "/libs/" + "libopencv_java330" + nativeLibrarySuffix);
-            System.out.println("OPENCV Native Library loaded.");
+    private static boolean warmedUp = false;
 
-            // Test if loaded library is working.
-            Mat mat = Imgcodecs.imread(baseDirPath + "/test.jpeg");
-            System.out.println("Successfully tested loaded library. Got Matrix object for test image as " + mat);
-        } catch (Exception e) {
-            System.out.println("OPENCV_DRIVER: Failed to load project properties as stream. Exiting....");
-            e.printStackTrace();
-            System.exit(1);
-        } catch (UnsatisfiedLinkError e) {
-            System.out.println("OPENCV_DRIVER: Loading Native OPENCV library Failed. Can't proceed. Exiting...");
-            e.printStackTrace();
-            System.exit(1);
+    /**
+     * Loads native library, classifiers and decodes test image. Done once per container(JVM), later calls return at
+     * once, so every warm invocation skips it.
+     *
+     * @throws Exception If native library, classifiers or test image could not be loaded.
+     */
+    public static synchronized void warmupBeforeServerlessExecution() throws Exception {
+        if (warmedUp) {
+            return;
+        }
+        LOGGER.info("OPENCV_DRIVER: Started");
+        long startTime = System.currentTimeMillis();
+
+        LOGGER.info("Library Path currently set is: {}", System.getProperty("java.library.path"));
+        NativeLibraryLoader.loadOpenCV();
+        long nativeLoadedTime = System.currentTimeMillis();
+
+        CascadeClassifierFactory.getInstance().preload(EnumSet.allOf(ClassifierTechnique.class));
+        long classifiersLoadedTime = System.currentTimeMillis();
+
+        // Map on-disk result caches now, rather than in the first invocation.
+        ResultCaches.detections();
+        ResultCaches.metadata();
+
+        // Test if loaded library is working.
+        File testImage = new File(System.getProperty("user.dir"), "test.jpeg");
+        if (testImage.exists()) {
+            Mat mat = ImageProcessor.decodeImage(Files.readAllBytes(testImage.toPath()));
+            LOGGER.info("Successfully tested loaded library. Got Matrix object for test image as {}", mat);
+            mat.release();
         }
 
-        // Warm up successful. Let's handle serverless events.
-        handleFeatureDetectionEvent("");
+        long endTime = System.currentTimeMillis();
+        LOGGER.info("OPENCV_DRIVER: Warm up took {} ms(native library: {} ms, classifiers: {} ms, test decode: {} ms)",
+                endTime - startTime, nativeLoadedTime - startTime, classifiersLoadedTime - nativeLoadedTime,
+                endTime - classifiersLoadedTime);
+        warmedUp = true;
     }
 
     public static void main(String[] args) {
-        System.out.println("WEBP_DRIVER: Started");
         try {
-            System.out.println("Attempting to load WEBP Native Library: ");
-            String baseDirPath = (BashUtils.runBashCommand("pwd")).trim();
-            System.out.println("Library Path: " + System.getProperty("java.library.path"));
-            String nativeLibrarySuffix;
-            switch (OSUtils.getOS()) {
-
-                case WINDOWS:
-                    nativeLibrarySuffix = ".dll";
-                    break;
-                case LINUX:
-                    nativeLibrarySuffix = ".so";
-                    break;
-                case MAC:
-                    nativeLibrarySuffix = ".dylib";
-                    break;
-                default:
-                    nativeLibrarySuffix = null;
-            }
-            if (nativeLibrarySuffix == null) {
-                System.out.println("Failed to determine OS Platform. Can't proceed....");
-                System.exit(1);
-            }
-            System.load(baseDirPath + "/libs/" + "libopencv_java330" + nativeLibrarySuffix);
-            System.out.println("WEBP Native Library loaded.");
-            Mat mat = Imgcodecs.imread(baseDirPath + "/test.jpeg");
-            System.out.println(mat);
-            int channels = mat.channels();
-            System.out.println("This image has " + channels + " channels.");
+            warmupBeforeServerlessExecution();
         } catch (Exception e) {
-            System.out.println("WEBP_DRIVER: Failed to load project properties as stream. Exiting....");
+            System.out.println("OPENCV_DRIVER: Warm up Failed. Can't proceed. Exiting....");
             e.printStackTrace();
             System.exit(1);
         } catch (UnsatisfiedLinkError e) {
-            System.out.println("WEBP_DRIVER: Loading Native WEBP library Failed. Can't proceed. Exiting...");
+            System.out.println("OPENCV_DRIVER: Loading Native OPENCV library Failed. Can't proceed. Exiting...");
             e.printStackTrace();
             System.exit(1);
         }
 
-        Driver driver = new Driver();
-
-        driver.handleFeatureDetectionEvent("");
+        if (args.length > 0) {
+            try {
+                handleFeatureDetectionEvent(args[0], false);
+            } catch (Exception e) {
+                System.out.println("FACE DETECTION FAILED....");
+                e.printStackTrace();
+            }
+            Logger.flush(TimeUnit.SECONDS.toMillis(1));
+            System.out.println("OPENCV_DRIVER: Stage latencies" + System.lineSeparator() +
+                    MetricsRegistry.getInstance().toText(false));
+        }
     }
 
-    private void handleFeatureDetectionEvent(String imagePath) {
-        Metadata metadata = ImageProcessor.getMetadata(imagePath);
-        imageMetadataAnalysisResult = MetadataAnalyzer.analyzeImage(metadata);
-        detectProminentFeaturesInImage(imagePath);
+    /**
+     * Finds prominent features of an image. Holds no state between calls, so it is safe for concurrent and back to
+     * back invocations on a warm container.
+     *
+     * @param imagePath The image url or local image path.
+     * @param isUrl     If the path to image is url or local path.
+     * @return Features found, in display orientation of the image. Empty if none is found.
+     * @throws Exception If image could not be read or detection failed.
+     */
+    static List<FeatureOfInterest> handleFeatureDetectionEvent(String imagePath, boolean isUrl) throws Exception {
+        // Image is read and hashed once, metadata and detection both use the same bytes. Results of both are cached
+        // by content, so a re-upload of the same image is neither parsed nor decoded.
+        byte[] imageBytes = isUrl ? FileUtils.loadImageBytesFromUrl(imagePath) :
+                ImageProcessor.toByteArray(FileUtils.mapFile(imagePath));
+        ContentKey contentKey = ContentKey.of(imageBytes);
+        ImageMetadataAnalysisResult imageMetadataAnalysisResult = MetadataAnalyzer.analyzeImage(imageBytes,
+                contentKey);
+        return detectProminentFeaturesInImage(imagePath, imageBytes, contentKey, imageMetadataAnalysisResult);
     }
 
-    private void detectProminentFeaturesInImage(String imagePath) {
+    private static List<FeatureOfInterest> detectProminentFeaturesInImage(String imagePath, byte[] imageBytes,
+                                                                          ContentKey contentKey,
+                                                                          ImageMetadataAnalysisResult
+                                                                                  imageMetadataAnalysisResult)
+            throws Exception {
         List<FeatureOfInterest> featureOfInterests;
 
         // If face location is not in image metadata
-        // ToDo : Possible bug. If image is oriented, face detected may be used incorrectly.
-        // OpenCV3 did add exif orientation support, but has not been tested.
+        // Detected faces are in display orientation, image is oriented using its exif orientation before detection.
         if (imageMetadataAnalysisResult == null || !(imageMetadataAnalysisResult.isSubjectAreaPresent() && imageMetadataAnalysisResult.getFeatureType() == FeatureOfInterest.FeatureType.FACE)) {
             // Find prominent feature(human face for now)
-            try {
-                featureOfInterests = ProminentFeatureDetector.detectProminentFeatures(imagePath, 1, false);
-            } catch (Exception e) {
-                System.out.println("FACE DETECTION FAILED....");
-                e.printStackTrace();
-                return;
-            }
+            DetectionOptions detectionOptions = new DetectionOptions(1, DetectionMode.SEQUENTIAL);
+            detectionOptions.setReducedDecode(true);
+            detectionOptions.setMultiFrame(true);
+            featureOfInterests = ProminentFeatureDetector.detectProminentFeatures(imageBytes, contentKey,
+                    detectionOptions, imageMetadataAnalysisResult);
             // Log eid and imagePath - this will allow for retrieval of all images where Face detection fails.
             int numOfFaces = (featureOfInterests == null) ? 0 : featureOfInterests.size();
-            System.out.println("Number of Faces found: " + numOfFaces + " imagePath: " + imagePath);
+            LOGGER.info("Number of Faces found: {} imagePath: {}", numOfFaces, imagePath);
         } else {
-            // ToDo: Careful of image orientation. Since, different camera will write orientation differently,
-            // Auto-orient the rectangle accordingly in ImageMetadataAnalyzer.
+            // Subject area is already in display orientation, so image need not be decoded at all.
             featureOfInterests = new ArrayList<>();
             FeatureOfInterest metadataFeatureOfInterest = new FeatureOfInterest();
             Rectangle rect = imageMetadataAnalysisResult.getSubjectAreaRect();
+            Size storedImageSize = new Size(imageMetadataAnalysisResult.getImageDimension().width,
+                    imageMetadataAnalysisResult.getImageDimension().height);
+            int orientationValue = imageMetadataAnalysisResult.getOrientationValue();
+            metadataFeatureOfInterest.setFeatureType(FeatureOfInterest.FeatureType.FACE);
             metadataFeatureOfInterest.setFeatureROI(new Rect(rect.x, rect.y, rect.width, rect.height));
-            metadataFeatureOfInterest.setImageSize(new Size(imageMetadataAnalysisResult.getImageDimension().width,
-                    imageMetadataAnalysisResult.getImageDimension().height));
+            metadataFeatureOfInterest.setImageSize(ImageProcessor.orientSize(storedImageSize, orientationValue));
             featureOfInterests.add(metadataFeatureOfInterest);
+            LOGGER.info("Face found in metadata({}), skipped face detection for imagePath: {}",
+                    imageMetadataAnalysisResult.getSubjectAreaSource(), imagePath);
         }
 
         // Write face rect to neo4j
         if (featureOfInterests != null && featureOfInterests.size() > 0) {
             Rect featureROI = featureOfInterests.get(0).getFeatureROI();
-            System.out.println("Rect is: " + featureROI.x + "," + featureROI.y + "," + featureROI.width + "," + featureROI.height);
+            LOGGER.info("Rect is: {},{},{},{}", featureROI.x, featureROI.y, featureROI.width, featureROI.height);
         }
+        return (featureOfInterests != null) ? featureOfInterests : new ArrayList<FeatureOfInterest>();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,136 @@
+package main.java;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.logging.LogContext;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.Counter;
+import main.java.core.metrics.LatencyHistogram;
+import main.java.core.metrics.MetricsRegistry;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lambda entry point for feature detection.
+ * <p/>
+ * Native library, classifiers and test decode are loaded once per container, when Lambda loads this class. Handler
+ * keeps no per request fields, so warm invocations only pay for detection.
+ * <p/>
+ * Input: {"imagePath": "local path or url", "isUrl": optional, defaults to true for http(s) paths}
+ * Output: {"imagePath": ..., "features": [{"type", "x", "y", "width", "height", "score", "imageWidth",
+ * "imageHeight"}], "durationMillis": ...}
+ * <p/>
+ * Logs are json lines carrying the aws request id. Stage latencies and counters of each invocation are printed as
+ * CloudWatch embedded metric format lines, so they become metrics without any call to CloudWatch.
+ */
+public class FeatureDetectionHandler implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+
+    private static final long INIT_MILLIS;
+
+    private static final AtomicBoolean FIRST_INVOCATION = new AtomicBoolean(true);
+
+    private static final Logger LOGGER = Logger.getLogger(FeatureDetectionHandler.class);
+
+    private static final long LOG_FLUSH_TIMEOUT_MILLIS = 1000;
+
+    private static final LatencyHistogram INVOKE_TIMER = MetricsRegistry.getInstance().timer("invoke");
+
+    private static final Counter FAILURE_COUNTER = MetricsRegistry.getInstance().counter("invoke.failures");
+
+    static {
+        long startTime = System.currentTimeMillis();
+        try {
+            Driver.warmupBeforeServerlessExecution();
+        } catch (Exception e) {
+            // Fails container init, Lambda starts a new container for next invocation.
+            throw new IllegalStateException("OPENCV_DRIVER: Warm up failed", e);
+        }
+        INIT_MILLIS = System.currentTimeMillis() - startTime;
+        LOGGER.info("INIT: Container initialized in {} ms", INIT_MILLIS);
+    }
+
+    @Override
+    public Map<String, Object> handleRequest(Map<String, Object> input, Context context) {
+        long startTime = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        boolean firstInvocation = FIRST_INVOCATION.getAndSet(false);
+        if (context != null) {
+            LogContext.setRequestId(context.getAwsRequestId());
+        }
+        try {
+            return detectFeatures(input, startTime, startNanos, firstInvocation);
+        } finally {
+            LogContext.clear();
+            // Lambda may freeze the container as soon as handler returns, print logs and metrics of this invocation
+            // before that.
+            Logger.flush(LOG_FLUSH_TIMEOUT_MILLIS);
+            printMetrics();
+        }
+    }
+
+    private Map<String, Object> detectFeatures(Map<String, Object> input, long startTime, long startNanos,
+                                               boolean firstInvocation) {
+        Object imagePathValue = input.get("imagePath");
+        if (imagePathValue == null) {
+            throw new IllegalArgumentException("imagePath is required");
+        }
+        String imagePath = imagePathValue.toString();
+        Object isUrlValue = input.get("isUrl");
+        boolean isUrl = (isUrlValue != null) ? Boolean.parseBoolean(isUrlValue.toString()) :
+                imagePath.startsWith("http://") || imagePath.startsWith("https://");
+
+        List<FeatureOfInterest> featureOfInterests;
+        try {
+            featureOfInterests = Driver.handleFeatureDetectionEvent(imagePath, isUrl);
+        } catch (Exception e) {
+            LOGGER.error("INVOKE: Feature detection failed for imagePath: {} after {} ms", imagePath,
+                    System.currentTimeMillis() - startTime, e);
+            FAILURE_COUNTER.increment();
+            INVOKE_TIMER.recordSince(startNanos);
+            throw new RuntimeException("Feature detection failed for imagePath: " + imagePath, e);
+        }
+
+        List<Map<String, Object>> features = new ArrayList<>();
+        for (FeatureOfInterest featureOfInterest : featureOfInterests) {
+            Rect featureROI = featureOfInterest.getFeatureROI();
+            Map<String, Object> feature = new HashMap<>();
+            feature.put("type", String.valueOf(featureOfInterest.getFeatureType()));
+            feature.put("x", featureROI.x);
+            feature.put("y", featureROI.y);
+            feature.put("width", featureROI.width);
+            feature.put("height", featureROI.height);
+            feature.put("score", featureOfInterest.getFeatureScore());
+            if (featureOfInterest.getImageSize() != null) {
+                feature.put("imageWidth", (int) featureOfInterest.getImageSize().width);
+                feature.put("imageHeight", (int) featureOfInterest.getImageSize().height);
+            }
+            features.add(feature);
+        }
+
+        long durationMillis = System.currentTimeMillis() - startTime;
+        LOGGER.info("INVOKE: {} took {} ms{}", imagePath, durationMillis, firstInvocation ?
+                " (first invocation, container init took " + INIT_MILLIS + " ms)" : "");
+        INVOKE_TIMER.recordSince(startNanos);
+
+        Map<String, Object> output = new HashMap<>();
+        output.put("imagePath", imagePath);
+        output.put("features", features);
+        output.put("durationMillis", durationMillis);
+        return output;
+    }
+
+    /**
+     * Prints metrics recorded since the last invocation as EMF lines.
+     */
+    private static void printMetrics() {
+        for (String line : MetricsRegistry.getInstance().toEmf(true)) {
+            System.out.println(line);
+        }
+    }
+}
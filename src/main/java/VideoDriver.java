@@ -0,0 +1,155 @@
+package main.java;
+
+import main.java.core.featuredetection.DetectionMode;
+import main.java.core.featuredetection.datapojo.DetectionOptions;
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.MetricsRegistry;
+import main.java.core.video.VideoFaceSample;
+import main.java.core.video.VideoFaceSampler;
+import main.java.utils.FileUtils;
+import main.java.utils.NativeLibraryLoader;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.opencv.core.Rect;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Entry point for face timelines of videos. Processes every video in a directory(see
+ * {@link FileUtils#getVideoFilesInDir(String)}), or a single video file, with {@link VideoFaceSampler}, and writes
+ * newline delimited json: a line per sampled frame with its faces, then a summary line per video with the time span
+ * of every face track.
+ * <p/>
+ * Usage: VideoDriver &lt;video directory | video file&gt; &lt;output file&gt; [max features per frame, default 5]
+ */
+public class VideoDriver {
+
+    private static final Logger LOGGER = Logger.getLogger(VideoDriver.class);
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: VideoDriver <video directory | video file> <output file> [max features]");
+            System.exit(1);
+        }
+        String input = args[0];
+        String outputPath = args[1];
+        int maxNumberOfFeatures = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        try {
+            NativeLibraryLoader.loadOpenCV();
+        } catch (UnsatisfiedLinkError e) {
+            System.out.println("VIDEO_DRIVER: Loading Native OPENCV library Failed. Can't proceed. Exiting...");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        VideoFaceSampler sampler = new VideoFaceSampler(new DetectionOptions(maxNumberOfFeatures,
+                DetectionMode.SEQUENTIAL));
+        int failures = 0;
+        try (Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputPath),
+                StandardCharsets.UTF_8))) {
+            List<File> videoFiles = new ArrayList<>();
+            if (new File(input).isDirectory()) {
+                List<File> filesInDir = FileUtils.getVideoFilesInDir(input);
+                if (filesInDir != null) {
+                    videoFiles.addAll(filesInDir);
+                }
+            } else {
+                videoFiles.add(new File(input));
+            }
+            for (File videoFile : videoFiles) {
+                if (!processVideo(sampler, videoFile.getAbsolutePath(), output)) {
+                    failures++;
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("VIDEO_DRIVER: Failed for input: " + input);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        LOGGER.info("Videos done, {} failed. {}", failures, MetricsRegistry.getInstance().toText(false));
+        Logger.flush(1000);
+        System.exit(0);
+    }
+
+    /**
+     * Writes timeline of a video, or an error line if it could not be processed.
+     *
+     * @return False if video failed.
+     */
+    private static boolean processVideo(VideoFaceSampler sampler, final String videoPath, final Writer output)
+            throws IOException {
+        // Track id to first time, last time and number of samples, in track order.
+        final Map<Integer, long[]> trackSpans = new TreeMap<>();
+        final int[] counts = new int[2];
+        JSONObject summary = new JSONObject();
+        summary.put("videoPath", videoPath);
+        try {
+            int frames = sampler.process(videoPath, new VideoFaceSampler.SampleListener() {
+                @Override
+                public void onSample(VideoFaceSample sample) throws IOException {
+                    counts[0]++;
+                    if (sample.isKeyframe()) {
+                        counts[1]++;
+                    }
+                    JSONArray faces = new JSONArray();
+                    for (VideoFaceSample.TrackedFace face : sample.getFaces()) {
+                        long[] span = trackSpans.get(face.getTrackId());
+                        if (span == null) {
+                            trackSpans.put(face.getTrackId(), new long[]{sample.getTimeMillis(), sample
+                                    .getTimeMillis(), 1});
+                        } else {
+                            span[1] = sample.getTimeMillis();
+                            span[2]++;
+                        }
+                        FeatureOfInterest featureOfInterest = face.getFeatureOfInterest();
+                        Rect featureROI = featureOfInterest.getFeatureROI();
+                        JSONObject feature = new JSONObject();
+                        feature.put("track", face.getTrackId());
+                        feature.put("x", featureROI.x);
+                        feature.put("y", featureROI.y);
+                        feature.put("width", featureROI.width);
+                        feature.put("height", featureROI.height);
+                        feature.put("score", featureOfInterest.getFeatureScore());
+                        faces.put(feature);
+                    }
+                    JSONObject line = new JSONObject();
+                    line.put("videoPath", videoPath);
+                    line.put("frame", sample.getFrameIndex());
+                    line.put("timeMillis", sample.getTimeMillis());
+                    line.put("keyframe", sample.isKeyframe());
+                    line.put("faces", faces);
+                    output.write(line.toString());
+                    output.write('\n');
+                }
+            });
+            summary.put("frames", frames);
+            summary.put("samples", counts[0]);
+            summary.put("keyframes", counts[1]);
+            JSONArray tracks = new JSONArray();
+            for (Map.Entry<Integer, long[]> trackSpan : trackSpans.entrySet()) {
+                JSONObject track = new JSONObject();
+                track.put("track", trackSpan.getKey());
+                track.put("startMillis", trackSpan.getValue()[0]);
+                track.put("endMillis", trackSpan.getValue()[1]);
+                track.put("samples", trackSpan.getValue()[2]);
+                tracks.put(track);
+            }
+            summary.put("tracks", tracks);
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("Video failed: {}", videoPath, e);
+            summary.put("error", String.valueOf(e.getMessage()));
+            return false;
+        } finally {
+            output.write(summary.toString());
+            output.write('\n');
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package main.java.core.batch;
+
+import main.java.core.cache.ContentKey;
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.imagemetadataprocess.ImageMetadataAnalysisResult;
+import main.java.core.imageprocess.DetectionFrame;
+
+import java.util.List;
+
+/**
+ * One image moving through {@link BatchPipeline}. Each stage fills in its part and hands it to next stage, so an
+ * item is only touched by one thread at a time.
+ */
+class BatchItem {
+
+    final String imagePath;
+
+    final boolean isUrl;
+
+    byte[] imageBytes;
+
+    ContentKey contentKey;
+
+    /**
+     * Key of the detection result in {@link main.java.core.cache.ResultCaches#detections()}.
+     */
+    ContentKey detectionKey;
+
+    ImageMetadataAnalysisResult metadataAnalysisResult;
+
+    int orientationValue = 1;
+
+    DetectionFrame detectionFrame;
+
+    List<FeatureOfInterest> featureOfInterests;
+
+    /**
+     * True if features were taken from image metadata instead of detection.
+     */
+    boolean fromMetadata;
+
+    /**
+     * True if features were found in result cache, so image was neither decoded nor detected again.
+     */
+    boolean fromCache;
+
+    Exception error;
+
+    BatchItem(String imagePath, boolean isUrl) {
+        this.imagePath = imagePath;
+        this.isUrl = isUrl;
+    }
+}
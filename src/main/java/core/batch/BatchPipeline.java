@@ -0,0 +1,274 @@
+package main.java.core.batch;
+
+import main.java.core.cache.ContentKey;
+import main.java.core.cache.ResultCaches;
+import main.java.core.featuredetection.ProminentFeatureDetector;
+import main.java.core.featuredetection.datapojo.DetectionOptions;
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.featuredetection.factory.CascadeClassifierFactory;
+import main.java.core.imagemetadataprocess.ImageMetadataAnalysisResult;
+import main.java.core.imagemetadataprocess.MetadataAnalyzer;
+import main.java.core.imageprocess.ImageProcessor;
+import main.java.core.imageprocess.PreprocessingPipeline;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.MetricsRegistry;
+import main.java.utils.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects prominent features of many images through a bounded, staged pipeline:
+ * read -> metadata -> decode -> detect -> emit. Each stage has its own threads and a bounded input queue, so a slow
+ * stage holds back the ones before it instead of letting decoded images pile up in memory. Detect and decode stages
+ * are sized to the classifier pool, so every detect thread gets classifiers without waiting.
+ * <p/>
+ * Results are written as newline delimited json, one line per image, in completion order.
+ */
+public class BatchPipeline {
+
+    private final DetectionOptions options;
+
+    private final Writer output;
+
+    private final List<BatchStage> stages = new ArrayList<>();
+
+    private final AtomicLong emitted = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Images whose face was read from metadata, by metadata source. Only updated by the single emit thread.
+     */
+    private final Map<ImageMetadataAnalysisResult.SubjectAreaSource, Long> metadataHits =
+            new EnumMap<>(ImageMetadataAnalysisResult.SubjectAreaSource.class);
+
+    /**
+     * @param options The detection parameters for all images.
+     * @param output  Where json lines are written. Not closed by pipeline.
+     */
+    public BatchPipeline(DetectionOptions options, Writer output) {
+        this.options = options;
+        this.output = output;
+
+        int detectWorkers = CascadeClassifierFactory.getInstance().getMaxPoolSize();
+        final PreprocessingPipeline preprocessingPipeline = ProminentFeatureDetector.newPreprocessingPipeline(options);
+
+        // Reading is IO bound, so it gets more threads than cpu bound stages.
+        addStage(new BatchStage("read", 2 * detectWorkers, 4 * detectWorkers, false, new BatchStage.Task() {
+            @Override
+            public void process(BatchItem item) throws Exception {
+                item.imageBytes = item.isUrl ? FileUtils.loadImageBytesFromUrl(item.imagePath) :
+                        ImageProcessor.toByteArray(FileUtils.mapFile(item.imagePath));
+            }
+        }));
+        addStage(new BatchStage("metadata", Math.max(1, detectWorkers / 2), 2 * detectWorkers, false,
+                new BatchStage.Task() {
+                    @Override
+                    public void process(BatchItem item) {
+                        item.contentKey = ContentKey.of(item.imageBytes);
+                        item.metadataAnalysisResult = MetadataAnalyzer.analyzeImage(item.imageBytes,
+                                item.contentKey);
+                        item.orientationValue = Math.max(1, item.metadataAnalysisResult.getOrientationValue());
+                        useMetadataFace(item);
+                        if (!item.fromMetadata) {
+                            useCachedResult(item);
+                        }
+                    }
+                }));
+        addStage(new BatchStage("decode", detectWorkers, 2 * detectWorkers, false, new BatchStage.Task() {
+            @Override
+            public void process(BatchItem item) throws Exception {
+                if (!item.fromMetadata && !item.fromCache) {
+                    item.detectionFrame = preprocessingPipeline.process(item.imageBytes, item.orientationValue,
+                            (item.metadataAnalysisResult != null) ? item.metadataAnalysisResult
+                                    .getImageDimension() : null);
+                }
+                // Encoded image is not needed anymore, don't hold it while waiting for detection.
+                item.imageBytes = null;
+            }
+        }));
+        addStage(new BatchStage("detect", detectWorkers, detectWorkers, false, new BatchStage.Task() {
+            @Override
+            public void process(BatchItem item) throws Exception {
+                if (item.detectionFrame == null) {
+                    return;
+                }
+                try {
+                    item.featureOfInterests = ProminentFeatureDetector.detectProminentFeatures(item
+                            .detectionFrame, BatchPipeline.this.options);
+                    ResultCaches.detections().put(item.detectionKey, item.featureOfInterests);
+                } finally {
+                    item.detectionFrame.close();
+                    item.detectionFrame = null;
+                }
+            }
+        }));
+        addStage(new BatchStage("emit", 1, 4 * detectWorkers, true, new BatchStage.Task() {
+            @Override
+            public void process(BatchItem item) throws IOException {
+                emit(item);
+            }
+        }));
+    }
+
+    private void addStage(BatchStage stage) {
+        if (!stages.isEmpty()) {
+            stages.get(stages.size() - 1).setNext(stage);
+        }
+        stages.add(stage);
+    }
+
+    /**
+     * Face region written by camera or photo app is used as face, like Driver does, so such images are not decoded.
+     * Region is already in display orientation.
+     */
+    private static void useMetadataFace(BatchItem item) {
+        if (item.metadataAnalysisResult == null || !item.metadataAnalysisResult.isSubjectAreaPresent() ||
+                item.metadataAnalysisResult.getFeatureType() != FeatureOfInterest.FeatureType.FACE) {
+            return;
+        }
+        Rectangle rect = item.metadataAnalysisResult.getSubjectAreaRect();
+        Size storedImageSize = new Size(item.metadataAnalysisResult.getImageDimension().width,
+                item.metadataAnalysisResult.getImageDimension().height);
+        FeatureOfInterest featureOfInterest = new FeatureOfInterest();
+        featureOfInterest.setFeatureType(FeatureOfInterest.FeatureType.FACE);
+        featureOfInterest.setFeatureROI(new Rect(rect.x, rect.y, rect.width, rect.height));
+        featureOfInterest.setImageSize(ImageProcessor.orientSize(storedImageSize, item.orientationValue));
+        List<FeatureOfInterest> featureOfInterests = new ArrayList<>();
+        featureOfInterests.add(featureOfInterest);
+        item.featureOfInterests = featureOfInterests;
+        item.fromMetadata = true;
+    }
+
+    /**
+     * Takes features from result cache if the same image was detected before with the same options, by this or an
+     * earlier batch when cache has a disk tier.
+     */
+    private void useCachedResult(BatchItem item) {
+        // Decode stage reads only the first frame of animated images, so results are single frame ones.
+        item.detectionKey = ResultCaches.detectionKey(item.contentKey, options,
+                item.metadataAnalysisResult.getImageDimension() != null, false);
+        List<FeatureOfInterest> featureOfInterests = ResultCaches.detections().get(item.detectionKey);
+        if (featureOfInterests != null) {
+            item.featureOfInterests = featureOfInterests;
+            item.fromCache = true;
+        }
+    }
+
+    private void emit(BatchItem item) throws IOException {
+        JSONObject result = new JSONObject();
+        result.put("imagePath", item.imagePath);
+        if (item.error != null) {
+            result.put("error", String.valueOf(item.error.getMessage()));
+            failures.incrementAndGet();
+        } else {
+            if (item.fromMetadata) {
+                ImageMetadataAnalysisResult.SubjectAreaSource source = item.metadataAnalysisResult
+                        .getSubjectAreaSource();
+                Long hits = metadataHits.get(source);
+                metadataHits.put(source, (hits == null) ? 1 : hits + 1);
+                result.put("source", "metadata");
+                result.put("metadataSource", String.valueOf(source));
+            } else {
+                result.put("source", "detection");
+                result.put("cached", item.fromCache);
+            }
+            JSONArray features = new JSONArray();
+            for (FeatureOfInterest featureOfInterest : item.featureOfInterests) {
+                Rect featureROI = featureOfInterest.getFeatureROI();
+                JSONObject feature = new JSONObject();
+                feature.put("type", String.valueOf(featureOfInterest.getFeatureType()));
+                feature.put("x", featureROI.x);
+                feature.put("y", featureROI.y);
+                feature.put("width", featureROI.width);
+                feature.put("height", featureROI.height);
+                feature.put("score", featureOfInterest.getFeatureScore());
+                if (featureOfInterest.getImageSize() != null) {
+                    feature.put("imageWidth", (int) featureOfInterest.getImageSize().width);
+                    feature.put("imageHeight", (int) featureOfInterest.getImageSize().height);
+                }
+                features.put(feature);
+            }
+            result.put("features", features);
+        }
+        output.write(result.toString());
+        output.write('\n');
+        emitted.incrementAndGet();
+    }
+
+    /**
+     * Pushes all images through pipeline and waits till every result is written. Prints images per second and
+     * per stage queue depths at the end.
+     *
+     * @param imagePaths Local image paths or urls(http/https).
+     * @return Number of images written, including failed ones.
+     * @throws InterruptedException
+     * @throws IOException If output could not be flushed.
+     */
+    public long run(Iterator<String> imagePaths) throws InterruptedException, IOException {
+        long startTime = System.nanoTime();
+        for (BatchStage stage : stages) {
+            stage.start();
+        }
+
+        BatchStage firstStage = stages.get(0);
+        try {
+            while (imagePaths.hasNext()) {
+                String imagePath = imagePaths.next();
+                boolean isUrl = imagePath.startsWith("http://") || imagePath.startsWith("https://");
+                firstStage.put(new BatchItem(imagePath, isUrl));
+            }
+            firstStage.upstreamFinished();
+            for (BatchStage stage : stages) {
+                stage.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            for (BatchStage stage : stages) {
+                stage.shutdownNow();
+            }
+        }
+        output.flush();
+        // Print logs of the last images before the report.
+        Logger.flush(TimeUnit.SECONDS.toMillis(1));
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        double imagesPerSecond = (elapsedMillis == 0) ? 0 : emitted.get() * 1000.0 / elapsedMillis;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Batch done: images=%d failures=%d elapsedMillis=%d imagesPerSecond=%.2f",
+                emitted.get(), failures.get(), elapsedMillis, imagesPerSecond));
+        long totalMetadataHits = 0;
+        for (Long hits : metadataHits.values()) {
+            totalMetadataHits += hits;
+        }
+        report.append(System.lineSeparator()).append(String.format("  Faces from metadata: %d of %d images(%.1f%%)," +
+                        " detection skipped. By source: %s", totalMetadataHits, emitted.get(), (emitted.get() == 0) ?
+                        0 : totalMetadataHits * 100.0 / emitted.get(), metadataHits));
+        for (BatchStage stage : stages) {
+            report.append(System.lineSeparator()).append("  ").append(stage);
+        }
+        report.append(System.lineSeparator()).append("  Classifier pools: ")
+                .append(CascadeClassifierFactory.getInstance().getMetrics());
+        report.append(System.lineSeparator()).append("  Detection cache: ")
+                .append(ResultCaches.detections().getMetrics());
+        report.append(System.lineSeparator()).append("  Metadata cache: ")
+                .append(ResultCaches.metadata().getMetrics());
+        for (String line : MetricsRegistry.getInstance().toText(false).split(System.lineSeparator())) {
+            report.append(System.lineSeparator()).append("  ").append(line);
+        }
+        System.out.println(report);
+        return emitted.get();
+    }
+}
@@ -0,0 +1,188 @@
+package main.java.core.batch;
+
+import main.java.core.logging.LogContext;
+import main.java.core.logging.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stage of {@link BatchPipeline}. Workers take items from a bounded input queue, process them and put them on the
+ * input queue of next stage, blocking when it is full. Stage finishes when upstream has finished and its queue is
+ * drained.
+ */
+class BatchStage {
+
+    interface Task {
+        /**
+         * Processes an item. Not called for items which failed in an earlier stage, unless stage handles failures.
+         */
+        void process(BatchItem item) throws Exception;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(BatchStage.class);
+
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final String name;
+
+    private final int numWorkers;
+
+    private final Task task;
+
+    private final boolean handlesFailures;
+
+    private final BlockingQueue<BatchItem> input;
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+
+    private BatchStage next;
+
+    private volatile boolean upstreamFinished = false;
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+    private final AtomicLong enqueued = new AtomicLong();
+
+    private final AtomicLong queueDepthSum = new AtomicLong();
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * @param name            Stage name, used for thread names and report.
+     * @param numWorkers      Number of threads of this stage.
+     * @param queueCapacity   Capacity of input queue.
+     * @param handlesFailures If task is called for items which failed in an earlier stage.
+     * @param task            The work of this stage.
+     */
+    BatchStage(final String name, int numWorkers, int queueCapacity, boolean handlesFailures, Task task) {
+        this.name = name;
+        this.numWorkers = numWorkers;
+        this.task = task;
+        this.handlesFailures = handlesFailures;
+        this.input = new ArrayBlockingQueue<>(queueCapacity);
+        this.executor = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "batch-" + name + "-" + threadCount.incrementAndGet());
+            }
+        });
+    }
+
+    void setNext(BatchStage next) {
+        this.next = next;
+    }
+
+    void start() {
+        activeWorkers.set(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        work();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        if (activeWorkers.decrementAndGet() == 0 && next != null) {
+                            next.upstreamFinished();
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    private void work() throws InterruptedException {
+        while (true) {
+            BatchItem item = input.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (item == null) {
+                if (upstreamFinished && input.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+
+            if (item.error == null || handlesFailures) {
+                long startTime = System.nanoTime();
+                LogContext.setRequestId(item.imagePath);
+                try {
+                    task.process(item);
+                } catch (Exception e) {
+                    item.error = e;
+                    failed.incrementAndGet();
+                    LOGGER.warn("Batch stage {} failed for image: {}", name, item.imagePath, e);
+                } finally {
+                    LogContext.clear();
+                }
+                busyNanos.addAndGet(System.nanoTime() - startTime);
+                processed.incrementAndGet();
+            }
+
+            if (next != null) {
+                next.put(item);
+            }
+        }
+    }
+
+    /**
+     * Puts an item on input queue, waiting while queue is full.
+     */
+    void put(BatchItem item) throws InterruptedException {
+        if (!input.offer(item)) {
+            long startTime = System.nanoTime();
+            input.put(item);
+            blockedNanos.addAndGet(System.nanoTime() - startTime);
+        }
+        int queueDepth = input.size();
+        enqueued.incrementAndGet();
+        queueDepthSum.addAndGet(queueDepth);
+        int currentMax = maxQueueDepth.get();
+        while (queueDepth > currentMax && !maxQueueDepth.compareAndSet(currentMax, queueDepth)) {
+            currentMax = maxQueueDepth.get();
+        }
+    }
+
+    /**
+     * Tells this stage no more items are coming.
+     */
+    void upstreamFinished() {
+        upstreamFinished = true;
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        long averageBusyMillis = (processed.get() == 0) ? 0 :
+                TimeUnit.NANOSECONDS.toMillis(busyNanos.get() / processed.get());
+        double averageQueueDepth = (enqueued.get() == 0) ? 0 : (double) queueDepthSum.get() / enqueued.get();
+        return String.format("%-8s workers=%d processed=%d failed=%d averageBusyMillis=%d queueCapacity=%d " +
+                        "averageQueueDepth=%.1f maxQueueDepth=%d blockedOnPutMillis=%d", name, numWorkers,
+                processed.get(), failed.get(), averageBusyMillis, input.size() + input.remainingCapacity(),
+                averageQueueDepth, maxQueueDepth.get(), TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()));
+    }
+}
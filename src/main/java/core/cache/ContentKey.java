@@ -0,0 +1,135 @@
+package main.java.core.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A 128 bit content hash of an encoded image, used as key of {@link ResultCache}. It is MurmurHash3(x64, 128 bit)
+ * of the bytes, which reads 16 bytes per round and is far cheaper than decoding or even parsing metadata of the
+ * image. Hash is not cryptographic, it only has to tell re-uploads of the same bytes apart from other images.
+ */
+public final class ContentKey {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long high;
+
+    private final long low;
+
+    public ContentKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @param imageBytes The encoded image.
+     * @return Key of the image content.
+     */
+    public static ContentKey of(byte[] imageBytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(imageBytes).order(ByteOrder.LITTLE_ENDIAN);
+        int length = imageBytes.length;
+        int numBlocks = length / 16;
+        long h1 = 0, h2 = 0;
+        for (int i = 0; i < numBlocks; i++) {
+            long k1 = buffer.getLong(16 * i);
+            long k2 = buffer.getLong(16 * i + 8);
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // Tail of less than 16 bytes.
+        long k1 = 0, k2 = 0;
+        int tail = 16 * numBlocks;
+        for (int i = length - tail - 1; i >= 8; i--) {
+            k2 ^= ((long) imageBytes[tail + i] & 0xff) << (8 * (i - 8));
+        }
+        for (int i = Math.min(7, length - tail - 1); i >= 0; i--) {
+            k1 ^= ((long) imageBytes[tail + i] & 0xff) << (8 * i);
+        }
+        if (k2 != 0) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        if (k1 != 0) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = mix(h1);
+        h2 = mix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new ContentKey(h1, h2);
+    }
+
+    /**
+     * @param parameters Fingerprint of the parameters a result depends on, other than the image.
+     * @return Key of the image content processed with given parameters.
+     */
+    public ContentKey withParameters(long parameters) {
+        return new ContentKey(mix(high ^ parameters), mix(low + C1 * parameters));
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ContentKey)) {
+            return false;
+        }
+        ContentKey that = (ContentKey) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
@@ -0,0 +1,68 @@
+package main.java.core.cache;
+
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes detected features as: count, then per feature x, y, width, height, score, type and image size.
+ */
+class FeatureListCodec implements ResultCache.Codec<List<FeatureOfInterest>> {
+
+    private static final FeatureOfInterest.FeatureType[] FEATURE_TYPES = FeatureOfInterest.FeatureType.values();
+
+    @Override
+    public byte[] encode(List<FeatureOfInterest> featureOfInterests) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + 48 * featureOfInterests.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(featureOfInterests.size());
+        for (FeatureOfInterest featureOfInterest : featureOfInterests) {
+            Rect featureROI = featureOfInterest.getFeatureROI();
+            out.writeInt(featureROI.x);
+            out.writeInt(featureROI.y);
+            out.writeInt(featureROI.width);
+            out.writeInt(featureROI.height);
+            out.writeDouble(featureOfInterest.getFeatureScore());
+            out.writeByte((featureOfInterest.getFeatureType() == null) ? -1 :
+                    featureOfInterest.getFeatureType().ordinal());
+            Size imageSize = featureOfInterest.getImageSize();
+            out.writeBoolean(imageSize != null);
+            if (imageSize != null) {
+                out.writeInt((int) imageSize.width);
+                out.writeInt((int) imageSize.height);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public List<FeatureOfInterest> decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        int count = in.readInt();
+        if (count < 0 || count > encoded.length) {
+            throw new IOException("Invalid feature count: " + count);
+        }
+        List<FeatureOfInterest> featureOfInterests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Rect featureROI = new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            double score = in.readDouble();
+            int type = in.readByte();
+            FeatureOfInterest featureOfInterest = new FeatureOfInterest(featureROI, (type >= 0 && type <
+                    FEATURE_TYPES.length) ? FEATURE_TYPES[type] : null, score);
+            if (in.readBoolean()) {
+                featureOfInterest.setImageSize(new Size(in.readInt(), in.readInt()));
+            }
+            featureOfInterests.add(featureOfInterest);
+        }
+        return featureOfInterests;
+    }
+}
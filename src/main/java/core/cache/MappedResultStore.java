@@ -0,0 +1,158 @@
+package main.java.core.cache;
+
+import main.java.core.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The on-disk tier of {@link ResultCache}. A file of fixed size slots, memory-mapped once, where a key always goes to
+ * the same slot, so a lookup is a single read from the page cache and needs no index. A key written to an occupied
+ * slot replaces the older entry.
+ * <p/>
+ * File outlives the JVM, so results survive batch restarts, and on Lambda warm containers keep /tmp and with it the
+ * results of earlier invocations. Each slot has a checksum of its payload, so a slot left half written by a killed
+ * process reads as a miss.
+ * <p/>
+ * Slot layout: key high(8), key low(8), payload length(4), payload crc32(4), payload.
+ */
+class MappedResultStore {
+
+    private static final Logger LOGGER = Logger.getLogger(MappedResultStore.class);
+
+    private static final int MAGIC = 0x53435643; // "SCVC"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int SLOT_HEADER_SIZE = 24;
+
+    private static final int NUM_LOCKS = 64;
+
+    private final MappedByteBuffer buffer;
+
+    private final int numSlots;
+
+    private final int slotSize;
+
+    private final Object[] locks = new Object[NUM_LOCKS];
+
+    /**
+     * @param file     The cache file. Created if missing, and reset if it was written with another layout.
+     * @param numSlots Number of entries file can hold, rounded up to a power of 2.
+     * @param slotSize Bytes per entry, including a 24 byte header. Larger results are not stored.
+     * @throws IOException If file could not be created or mapped.
+     */
+    MappedResultStore(File file, int numSlots, int slotSize) throws IOException {
+        this.numSlots = Integer.highestOneBit(Math.max(1, numSlots - 1)) << 1;
+        this.slotSize = slotSize;
+        for (int i = 0; i < NUM_LOCKS; i++) {
+            locks[i] = new Object();
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create cache directory: " + parent);
+        }
+        long fileSize = HEADER_SIZE + (long) this.numSlots * slotSize;
+        if (slotSize <= SLOT_HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid cache layout, slots: " + numSlots + " slot size: " + slotSize);
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            boolean reset = randomAccessFile.length() != fileSize;
+            randomAccessFile.setLength(fileSize);
+            // Mapping stays valid after channel is closed.
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            if (reset || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != this.numSlots
+                    || buffer.getInt(12) != slotSize) {
+                LOGGER.info("Result cache: initializing {} with {} slots of {} bytes", file, this.numSlots, slotSize);
+                for (long i = 0; i < this.numSlots; i++) {
+                    buffer.putInt((int) (HEADER_SIZE + i * slotSize + 16), 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, this.numSlots);
+                buffer.putInt(12, slotSize);
+            }
+        }
+    }
+
+    /**
+     * @return The payload stored for key, null if slot holds another key or is not valid.
+     */
+    byte[] get(ContentKey key) {
+        int slot = slotOf(key);
+        int offset = HEADER_SIZE + slot * slotSize;
+        synchronized (locks[slot & (NUM_LOCKS - 1)]) {
+            if (buffer.getLong(offset) != key.getHigh() || buffer.getLong(offset + 8) != key.getLow()) {
+                return null;
+            }
+            int length = buffer.getInt(offset + 16);
+            if (length <= 0 || length > slotSize - SLOT_HEADER_SIZE) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer slotBuffer = buffer.duplicate();
+            slotBuffer.position(offset + SLOT_HEADER_SIZE);
+            slotBuffer.get(payload);
+            if (checksum(payload) != buffer.getInt(offset + 20)) {
+                return null;
+            }
+            return payload;
+        }
+    }
+
+    /**
+     * Writes payload to the slot of key.
+     *
+     * @return {@link PutResult#TOO_LARGE} if payload does not fit a slot, {@link PutResult#REPLACED} if slot held a
+     * valid entry of another key.
+     */
+    PutResult put(ContentKey key, byte[] payload) {
+        if (payload.length == 0 || payload.length > slotSize - SLOT_HEADER_SIZE) {
+            return PutResult.TOO_LARGE;
+        }
+        int slot = slotOf(key);
+        int offset = HEADER_SIZE + slot * slotSize;
+        synchronized (locks[slot & (NUM_LOCKS - 1)]) {
+            boolean replaced = buffer.getInt(offset + 16) != 0 && (buffer.getLong(offset) != key.getHigh() ||
+                    buffer.getLong(offset + 8) != key.getLow());
+            // Invalidate first, so a reader in another process never pairs the new key with the old payload.
+            buffer.putInt(offset + 16, 0);
+            buffer.putLong(offset, key.getHigh());
+            buffer.putLong(offset + 8, key.getLow());
+            ByteBuffer slotBuffer = buffer.duplicate();
+            slotBuffer.position(offset + SLOT_HEADER_SIZE);
+            slotBuffer.put(payload);
+            buffer.putInt(offset + 20, checksum(payload));
+            buffer.putInt(offset + 16, payload.length);
+            return replaced ? PutResult.REPLACED : PutResult.STORED;
+        }
+    }
+
+    int getNumSlots() {
+        return numSlots;
+    }
+
+    private int slotOf(ContentKey key) {
+        return (int) (key.getLow() & (numSlots - 1));
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        return (int) crc32.getValue();
+    }
+
+    enum PutResult {
+        STORED,
+        REPLACED,
+        TOO_LARGE
+    }
+}
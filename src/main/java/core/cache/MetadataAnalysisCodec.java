@@ -0,0 +1,76 @@
+package main.java.core.cache;
+
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.imagemetadataprocess.ImageMetadataAnalysisResult;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodes metadata analysis as: flags, orientation, subject area, its source, feature type and image dimension.
+ */
+class MetadataAnalysisCodec implements ResultCache.Codec<ImageMetadataAnalysisResult> {
+
+    private static final ImageMetadataAnalysisResult.SubjectAreaSource[] SUBJECT_AREA_SOURCES =
+            ImageMetadataAnalysisResult.SubjectAreaSource.values();
+
+    private static final FeatureOfInterest.FeatureType[] FEATURE_TYPES = FeatureOfInterest.FeatureType.values();
+
+    @Override
+    public byte[] encode(ImageMetadataAnalysisResult result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBoolean(result.isSubjectAreaPresent());
+        out.writeBoolean(result.isFacebookPlagiarized());
+        out.writeBoolean(result.isDuckyPlagiarized());
+        out.writeByte(result.getOrientationValue());
+        Rectangle subjectAreaRect = result.getSubjectAreaRect();
+        out.writeBoolean(subjectAreaRect != null);
+        if (subjectAreaRect != null) {
+            out.writeInt(subjectAreaRect.x);
+            out.writeInt(subjectAreaRect.y);
+            out.writeInt(subjectAreaRect.width);
+            out.writeInt(subjectAreaRect.height);
+        }
+        out.writeByte((result.getSubjectAreaSource() == null) ? -1 : result.getSubjectAreaSource().ordinal());
+        out.writeByte((result.getFeatureType() == null) ? -1 : result.getFeatureType().ordinal());
+        Dimension imageDimension = result.getImageDimension();
+        out.writeBoolean(imageDimension != null);
+        if (imageDimension != null) {
+            out.writeInt(imageDimension.width);
+            out.writeInt(imageDimension.height);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public ImageMetadataAnalysisResult decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        ImageMetadataAnalysisResult result = new ImageMetadataAnalysisResult();
+        result.setSubjectAreaPresent(in.readBoolean());
+        result.setFacebookPlagiarized(in.readBoolean());
+        result.setDuckyPlagiarized(in.readBoolean());
+        result.setOrientationValue(in.readByte());
+        if (in.readBoolean()) {
+            result.setSubjectAreaRect(new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        }
+        int source = in.readByte();
+        if (source >= 0 && source < SUBJECT_AREA_SOURCES.length) {
+            result.setSubjectAreaSource(SUBJECT_AREA_SOURCES[source]);
+        }
+        int type = in.readByte();
+        if (type >= 0 && type < FEATURE_TYPES.length) {
+            result.setFeatureType(FEATURE_TYPES[type]);
+        }
+        if (in.readBoolean()) {
+            result.setImageDimension(new Dimension(in.readInt(), in.readInt()));
+        }
+        return result;
+    }
+}
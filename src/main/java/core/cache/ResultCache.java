@@ -0,0 +1,190 @@
+package main.java.core.cache;
+
+import main.java.core.logging.Logger;
+import main.java.core.metrics.Counter;
+import main.java.core.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches results computed from an image, keyed by {@link ContentKey} of its bytes, so a re-upload or re-share of
+ * the same image is answered without processing it again. Least recently used results are kept in memory, up to a
+ * fixed number of entries. If a file is given, results are also written to a {@link MappedResultStore}, which is
+ * looked up on a memory miss.
+ * <p/>
+ * Results are held encoded, and every get decodes a new object, so callers can modify what they get without
+ * changing the cached result.
+ *
+ * @param <V> The result type.
+ */
+public class ResultCache<V> {
+
+    /**
+     * Converts results to bytes and back.
+     */
+    public interface Codec<V> {
+
+        byte[] encode(V value) throws IOException;
+
+        V decode(byte[] bytes) throws IOException;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ResultCache.class);
+
+    private final String name;
+
+    private final Codec<V> codec;
+
+    private final int maxEntries;
+
+    private final Map<ContentKey, byte[]> entries;
+
+    private final MappedResultStore diskStore;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong diskHits = new AtomicLong();
+
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    private final AtomicLong diskSkipped = new AtomicLong();
+
+    private final Counter hitCounter;
+
+    private final Counter missCounter;
+
+    /**
+     * @param name         Name used in logs.
+     * @param codec        Converts results to bytes and back.
+     * @param maxEntries   Results kept in memory. 0 disables caching in memory.
+     * @param diskFile     File of the on-disk tier, null to keep results in memory only.
+     * @param diskSlots    Results kept on disk.
+     * @param diskSlotSize Bytes per result on disk. Larger results are kept in memory only.
+     */
+    public ResultCache(String name, Codec<V> codec, final int maxEntries, File diskFile, int diskSlots,
+                       int diskSlotSize) {
+        this.name = name;
+        this.codec = codec;
+        this.maxEntries = maxEntries;
+        this.hitCounter = MetricsRegistry.getInstance().counter("cache." + name + ".hits");
+        this.missCounter = MetricsRegistry.getInstance().counter("cache." + name + ".misses");
+        this.entries = new LinkedHashMap<ContentKey, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ContentKey, byte[]> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        MappedResultStore store = null;
+        if (diskFile != null) {
+            try {
+                store = new MappedResultStore(diskFile, diskSlots, diskSlotSize);
+            } catch (IOException | IllegalArgumentException e) {
+                // Cache on disk is only an optimization, keep working from memory.
+                LOGGER.warn("Result cache({}): disk tier disabled, unable to map {}", name, diskFile, e);
+            }
+        }
+        this.diskStore = store;
+    }
+
+    /**
+     * @param key Key of the image, along with parameters result depends on.
+     * @return A copy of the cached result, null if not cached.
+     */
+    public V get(ContentKey key) {
+        byte[] encoded;
+        synchronized (entries) {
+            encoded = entries.get(key);
+        }
+        if (encoded == null && diskStore != null) {
+            encoded = diskStore.get(key);
+            if (encoded != null) {
+                diskHits.incrementAndGet();
+                putInMemory(key, encoded);
+            }
+        }
+        if (encoded != null) {
+            try {
+                V value = codec.decode(encoded);
+                hits.incrementAndGet();
+                hitCounter.increment();
+                return value;
+            } catch (IOException e) {
+                LOGGER.warn("Result cache({}): dropping unreadable entry {}", name, key, e);
+                synchronized (entries) {
+                    entries.remove(key);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        missCounter.increment();
+        return null;
+    }
+
+    /**
+     * Caches result of key in memory and on disk. Later changes to value are not reflected in cache.
+     */
+    public void put(ContentKey key, V value) {
+        byte[] encoded;
+        try {
+            encoded = codec.encode(value);
+        } catch (IOException e) {
+            LOGGER.warn("Result cache({}): unable to encode result", name, e);
+            return;
+        }
+        putInMemory(key, encoded);
+        if (diskStore != null) {
+            switch (diskStore.put(key, encoded)) {
+                case REPLACED:
+                    diskEvictions.incrementAndGet();
+                    break;
+                case TOO_LARGE:
+                    diskSkipped.incrementAndGet();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void putInMemory(ContentKey key, byte[] encoded) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, encoded);
+        }
+    }
+
+    /**
+     * @return True if results are also kept on disk.
+     */
+    public boolean isDiskEnabled() {
+        return diskStore != null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ResultCacheMetrics getMetrics() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new ResultCacheMetrics(size, hits.get(), misses.get(), evictions.get(), diskHits.get(),
+                diskEvictions.get(), diskSkipped.get());
+    }
+}
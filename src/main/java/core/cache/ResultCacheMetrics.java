@@ -0,0 +1,90 @@
+package main.java.core.cache;
+
+/**
+ * A point in time snapshot of the counters of one {@link ResultCache}.
+ */
+public class ResultCacheMetrics {
+
+    private final int size;
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    private final long diskHits;
+
+    private final long diskEvictions;
+
+    private final long diskSkipped;
+
+    ResultCacheMetrics(int size, long hits, long misses, long evictions, long diskHits, long diskEvictions,
+                       long diskSkipped) {
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.diskHits = diskHits;
+        this.diskEvictions = diskEvictions;
+        this.diskSkipped = diskSkipped;
+    }
+
+    /**
+     * @return Entries currently in memory.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Lookups answered from memory or disk.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Lookups found in neither memory nor disk.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Least recently used entries dropped from memory.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Hits which were not in memory but found on disk. Included in hits.
+     */
+    public long getDiskHits() {
+        return diskHits;
+    }
+
+    /**
+     * @return Entries on disk replaced by an entry of another key.
+     */
+    public long getDiskEvictions() {
+        return diskEvictions;
+    }
+
+    /**
+     * @return Results not written to disk since they do not fit a slot.
+     */
+    public long getDiskSkipped() {
+        return diskSkipped;
+    }
+
+    @Override
+    public String toString() {
+        long lookups = hits + misses;
+        return "ResultCacheMetrics [size=" + size + ", hits=" + hits + ", misses=" + misses + ", hitRatio="
+                + String.format("%.2f", (lookups == 0) ? 0 : (double) hits / lookups) + ", evictions=" + evictions
+                + ", diskHits=" + diskHits + ", diskEvictions=" + diskEvictions + ", diskSkipped=" + diskSkipped
+                + "]";
+    }
+}
@@ -0,0 +1,105 @@
+package main.java.core.cache;
+
+import main.java.core.featuredetection.datapojo.DetectionOptions;
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.imagemetadataprocess.ImageMetadataAnalysisResult;
+import main.java.core.logging.Logger;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The result caches shared by all requests in a JVM, for face detection and metadata analysis. Configured by system
+ * properties:
+ * <ul>
+ * <li>serverlesscv.cache.maxEntries - Results of each kind kept in memory, 0 disables memory tier. Default 1024.</li>
+ * <li>serverlesscv.cache.dir - Directory of the on-disk tier, e.g. /tmp on Lambda. Disk tier is off if unset.</li>
+ * <li>serverlesscv.cache.diskSlots - Results of each kind kept on disk. Default 16384.</li>
+ * </ul>
+ */
+public final class ResultCaches {
+
+    private static final Logger LOGGER = Logger.getLogger(ResultCaches.class);
+
+    public static final String MAX_ENTRIES_PROPERTY = "serverlesscv.cache.maxEntries";
+
+    public static final String DIR_PROPERTY = "serverlesscv.cache.dir";
+
+    public static final String DISK_SLOTS_PROPERTY = "serverlesscv.cache.diskSlots";
+
+    /**
+     * Change when detection or analysis changes its output for the same image, so that results on disk written by
+     * an older version are not used.
+     */
+    private static final long RESULT_VERSION = 1;
+
+    private static final int DETECTION_SLOT_SIZE = 512;
+
+    private static final int METADATA_SLOT_SIZE = 128;
+
+    private ResultCaches() {
+    }
+
+    private static class DetectionHolder {
+        private static final ResultCache<List<FeatureOfInterest>> INSTANCE = newCache("detections",
+                new FeatureListCodec(), DETECTION_SLOT_SIZE);
+    }
+
+    private static class MetadataHolder {
+        private static final ResultCache<ImageMetadataAnalysisResult> INSTANCE = newCache("metadata",
+                new MetadataAnalysisCodec(), METADATA_SLOT_SIZE);
+    }
+
+    /**
+     * @return Cache of features detected in an image, keyed by
+     * {@link #detectionKey(ContentKey, DetectionOptions, boolean, boolean)}.
+     */
+    public static ResultCache<List<FeatureOfInterest>> detections() {
+        return DetectionHolder.INSTANCE;
+    }
+
+    /**
+     * @return Cache of metadata analysis of an image, keyed by {@link #metadataKey(ContentKey)}.
+     */
+    public static ResultCache<ImageMetadataAnalysisResult> metadata() {
+        return MetadataHolder.INSTANCE;
+    }
+
+    /**
+     * @param imageDimensionKnown If stored image dimension is known, without which reduced decode is not done.
+     * @param animationFormat     If image is a GIF or WebP, the only images multi frame option applies to.
+     * @return Key of detection result for the image, which depends on the parameters that change detection output.
+     * Borrow timeout and policy only change how long detection waits, so they are not part of it.
+     */
+    public static ContentKey detectionKey(ContentKey contentKey, DetectionOptions options,
+                                          boolean imageDimensionKnown, boolean animationFormat) {
+        long parameters = RESULT_VERSION;
+        parameters = 31 * parameters + options.getMaxNumberOfFeatures();
+        parameters = 31 * parameters + options.getDetectionMode().ordinal();
+        parameters = 31 * parameters + (options.isReducedDecode() && imageDimensionKnown ? 1 : 0);
+        parameters = 31 * parameters + (options.isEqualizeHistogram() ? 1 : 0);
+        // Added only when it changes the result, so keys of single frame images stay same as before.
+        if (options.isMultiFrame() && animationFormat) {
+            parameters = 31 * parameters + 1;
+        }
+        return contentKey.withParameters(parameters);
+    }
+
+    public static ContentKey metadataKey(ContentKey contentKey) {
+        return contentKey.withParameters(RESULT_VERSION);
+    }
+
+    private static <V> ResultCache<V> newCache(String name, ResultCache.Codec<V> codec, int slotSize) {
+        int maxEntries = Integer.getInteger(MAX_ENTRIES_PROPERTY, 1024);
+        int diskSlots = Integer.getInteger(DISK_SLOTS_PROPERTY, 16384);
+        String dir = System.getProperty(DIR_PROPERTY);
+        File diskFile = (dir == null || dir.isEmpty()) ? null : new File(dir, "serverlesscv-" + name + ".cache");
+        ResultCache<V> cache = new ResultCache<>(name, codec, maxEntries, diskFile, diskSlots, slotSize);
+        if (cache.isDiskEnabled()) {
+            LOGGER.info("Result cache({}): maxEntries={}, disk={}({} slots)", name, maxEntries, diskFile, diskSlots);
+        } else {
+            LOGGER.info("Result cache({}): maxEntries={}, disk=off", name, maxEntries);
+        }
+        return cache;
+    }
+}
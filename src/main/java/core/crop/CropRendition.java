@@ -0,0 +1,65 @@
+package main.java.core.crop;
+
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.awt.Dimension;
+
+/**
+ * An encoded crop of an image at one aspect ratio.
+ */
+public class CropRendition {
+
+    private final Dimension aspectRatio;
+
+    private final Rect cropRect;
+
+    private final Size size;
+
+    private final String extension;
+
+    private final byte[] encodedBytes;
+
+    public CropRendition(Dimension aspectRatio, Rect cropRect, Size size, String extension, byte[] encodedBytes) {
+        this.aspectRatio = aspectRatio;
+        this.cropRect = cropRect;
+        this.size = size;
+        this.extension = extension;
+        this.encodedBytes = encodedBytes;
+    }
+
+    public Dimension getAspectRatio() {
+        return aspectRatio;
+    }
+
+    /**
+     * @return The cropped area, in coordinates of the image it was cut from.
+     */
+    public Rect getCropRect() {
+        return cropRect;
+    }
+
+    /**
+     * @return Size of the encoded image, smaller than crop rect if it was downscaled.
+     */
+    public Size getSize() {
+        return size;
+    }
+
+    /**
+     * @return Extension of the encoded format, with the dot, e.g. ".jpg".
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public byte[] getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "CropRendition [aspectRatio=" + aspectRatio.width + ":" + aspectRatio.height + ", cropRect=" +
+                cropRect + ", size=" + size + ", bytes=" + encodedBytes.length + "]";
+    }
+}
@@ -0,0 +1,249 @@
+package main.java.core.crop;
+
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.Counter;
+import main.java.core.metrics.LatencyHistogram;
+import main.java.core.metrics.MetricsRegistry;
+import main.java.utils.MathUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cuts face centered crops of an already decoded image at a set of aspect ratios, and encodes all of them at once.
+ * Each crop is the largest area of its aspect ratio, see
+ * {@link MathUtils#computeCropAreaToClipToFixedAspectRatio(Dimension, Dimension)}, moved towards the faces as far as
+ * image edges allow, see {@link MathUtils#computeCropCenter(Dimension, Dimension, Dimension)}. Crops are ROI views
+ * of the image, so no pixels are copied unless a crop is downscaled, and they are encoded in parallel.
+ * <p/>
+ * This does in one decode what otherwise takes a decode, crop and encode run per aspect ratio.
+ */
+public class CropRenditionEngine {
+
+    private static final Logger LOGGER = Logger.getLogger(CropRenditionEngine.class);
+
+    private static final int NUM_ENCODE_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ExecutorService ENCODE_EXECUTOR = Executors.newFixedThreadPool(NUM_ENCODE_THREADS,
+            new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "crop-encode-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final LatencyHistogram RENDER_TIMER = MetricsRegistry.getInstance().timer("crop.render");
+
+    private static final LatencyHistogram ENCODE_TIMER = MetricsRegistry.getInstance().timer("crop.encode");
+
+    private static final Counter RENDITIONS_COUNTER = MetricsRegistry.getInstance().counter("crop.renditions");
+
+    private final List<Dimension> aspectRatios;
+
+    private final String extension;
+
+    private final int[] encodeParams;
+
+    private final Size maxRenditionSize;
+
+    /**
+     * @param aspectRatios     Aspect ratios to crop at, width by height, e.g. 16 by 9.
+     * @param extension        Format to encode to, as file extension with the dot: ".jpg", ".png" or ".webp".
+     * @param quality          Quality of jpeg and webp encoding, 1 to 100. Not used for other formats.
+     * @param maxRenditionSize Crops larger than this are downscaled to fit it. Null to keep crops at image
+     *                         resolution.
+     */
+    public CropRenditionEngine(@NotNull List<Dimension> aspectRatios, @NotNull String extension, int quality,
+                               @Nullable Size maxRenditionSize) {
+        this.aspectRatios = new ArrayList<>(aspectRatios);
+        this.extension = extension;
+        this.maxRenditionSize = maxRenditionSize;
+        if (".jpg".equals(extension) || ".jpeg".equals(extension)) {
+            encodeParams = new int[]{Imgcodecs.IMWRITE_JPEG_QUALITY, quality};
+        } else if (".webp".equals(extension)) {
+            encodeParams = new int[]{Imgcodecs.IMWRITE_WEBP_QUALITY, quality};
+        } else {
+            encodeParams = new int[0];
+        }
+    }
+
+    /**
+     * @param aspectRatio As "width:height", e.g. "16:9".
+     * @return The aspect ratio.
+     * @throws IllegalArgumentException If aspect ratio is not two positive integers.
+     */
+    public static Dimension parseAspectRatio(@NotNull String aspectRatio) {
+        String[] parts = aspectRatio.trim().split(":");
+        if (parts.length == 2) {
+            try {
+                int width = Integer.parseInt(parts[0].trim());
+                int height = Integer.parseInt(parts[1].trim());
+                if (width > 0 && height > 0) {
+                    return new Dimension(width, height);
+                }
+            } catch (NumberFormatException e) {
+                // Reported below.
+            }
+        }
+        throw new IllegalArgumentException("Invalid aspect ratio: " + aspectRatio);
+    }
+
+    /**
+     * Crops and encodes image at every aspect ratio.
+     *
+     * @param image              The decoded image in display orientation, the same image features were detected
+     *                           in. Not modified or released.
+     * @param featureOfInterests Detected features, most prominent first. Crops are centered on image if empty.
+     * @return One rendition per aspect ratio, in order of aspect ratios.
+     * @throws Exception If a crop could not be encoded.
+     */
+    public List<CropRendition> render(@NotNull final Mat image, @NotNull List<FeatureOfInterest> featureOfInterests)
+            throws Exception {
+        long startTime = System.nanoTime();
+        Dimension imageResolution = new Dimension(image.cols(), image.rows());
+        List<Rect> focusRects = focusRects(featureOfInterests, image.size());
+
+        List<Callable<CropRendition>> encodeTasks = new ArrayList<>(aspectRatios.size());
+        for (final Dimension aspectRatio : aspectRatios) {
+            final Rect cropRect = computeCropRect(imageResolution, aspectRatio, focusRects);
+            encodeTasks.add(new Callable<CropRendition>() {
+                @Override
+                public CropRendition call() throws Exception {
+                    return encode(image, aspectRatio, cropRect);
+                }
+            });
+        }
+
+        List<CropRendition> cropRenditions = new ArrayList<>(encodeTasks.size());
+        if (encodeTasks.size() == 1) {
+            cropRenditions.add(encodeTasks.get(0).call());
+        } else {
+            for (Future<CropRendition> future : ENCODE_EXECUTOR.invokeAll(encodeTasks)) {
+                try {
+                    cropRenditions.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : e;
+                }
+            }
+        }
+        RENDITIONS_COUNTER.add(cropRenditions.size());
+        RENDER_TIMER.recordSince(startTime);
+        return cropRenditions;
+    }
+
+    /**
+     * Finds the largest crop of aspect ratio, centered on the first focus rect which fits in it.
+     *
+     * @param focusRects Areas to keep in crop, in order of preference. Image is center cropped if none fits.
+     * @return The crop, within image.
+     */
+    static Rect computeCropRect(Dimension imageResolution, Dimension aspectRatio, List<Rect> focusRects) {
+        Dimension cropResolution = MathUtils.computeCropAreaToClipToFixedAspectRatio(imageResolution, aspectRatio);
+        // Short side is floored, so a very wide or tall aspect ratio on a small image can leave it at 0 pixels.
+        cropResolution = new Dimension(Math.max(1, cropResolution.width), Math.max(1, cropResolution.height));
+        Dimension requiredCenter = new Dimension(imageResolution.width / 2, imageResolution.height / 2);
+        for (Rect focusRect : focusRects) {
+            if (focusRect.width <= cropResolution.width && focusRect.height <= cropResolution.height) {
+                requiredCenter = new Dimension(focusRect.x + focusRect.width / 2, focusRect.y + focusRect.height /
+                        2);
+                break;
+            }
+        }
+        Dimension cropCenter = MathUtils.computeCropCenter(imageResolution, cropResolution, requiredCenter);
+        return new Rect(cropCenter.width - cropResolution.width / 2, cropCenter.height - cropResolution.height / 2,
+                cropResolution.width, cropResolution.height);
+    }
+
+    /**
+     * @return Bounding rect of all features, then the most prominent feature alone, in image coordinates. Empty if
+     * there are no features.
+     */
+    private static List<Rect> focusRects(List<FeatureOfInterest> featureOfInterests, Size imageSize) {
+        List<Rect> focusRects = new ArrayList<>(2);
+        Rect allFeatures = null;
+        for (FeatureOfInterest featureOfInterest : featureOfInterests) {
+            // Features are reported against the original image, which can be larger than the decoded one.
+            Rect featureROI = featureOfInterest.getFeatureROI();
+            Size featureImageSize = featureOfInterest.getImageSize();
+            if (featureImageSize != null && featureImageSize.width > 0 && featureImageSize.width != imageSize.width) {
+                featureROI = MathUtils.resizeRect(featureROI, imageSize.width / featureImageSize.width);
+            }
+            if (allFeatures == null) {
+                allFeatures = featureROI;
+                focusRects.add(featureROI);
+            } else {
+                int left = Math.min(allFeatures.x, featureROI.x);
+                int top = Math.min(allFeatures.y, featureROI.y);
+                int right = Math.max(allFeatures.x + allFeatures.width, featureROI.x + featureROI.width);
+                int bottom = Math.max(allFeatures.y + allFeatures.height, featureROI.y + featureROI.height);
+                allFeatures = new Rect(left, top, right - left, bottom - top);
+            }
+        }
+        if (allFeatures != null && focusRects.get(0) != allFeatures) {
+            focusRects.add(0, allFeatures);
+        }
+        return focusRects;
+    }
+
+    /**
+     * Encodes the crop straight from a view of the image, downscaling it first if it is larger than rendition size.
+     */
+    private CropRendition encode(Mat image, Dimension aspectRatio, Rect cropRect) throws Exception {
+        long startTime = System.nanoTime();
+        Mat cropMat = image.submat(cropRect);
+        Mat scaledMat = null;
+        MatOfByte encodedMat = new MatOfByte();
+        MatOfInt params = new MatOfInt(encodeParams);
+        try {
+            Mat renditionMat = cropMat;
+            if (maxRenditionSize != null) {
+                double scaleFactor = MathUtils.resizeToBoundingRect(cropMat, maxRenditionSize);
+                if (scaleFactor < 1) {
+                    scaledMat = new Mat();
+                    Imgproc.resize(cropMat, scaledMat, new Size(0, 0), scaleFactor, scaleFactor,
+                            Imgproc.INTER_AREA);
+                    renditionMat = scaledMat;
+                }
+            }
+            if (!Imgcodecs.imencode(extension, renditionMat, encodedMat, params)) {
+                throw new Exception("Unable to encode " + extension + " crop " + cropRect);
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Crop {} at {}:{} encoded as {}", cropRect, aspectRatio.width, aspectRatio.height,
+                        renditionMat.size());
+            }
+            return new CropRendition(aspectRatio, cropRect, renditionMat.size(), extension, encodedMat.toArray());
+        } finally {
+            params.release();
+            encodedMat.release();
+            if (scaledMat != null) {
+                scaledMat.release();
+            }
+            cropMat.release();
+            ENCODE_TIMER.recordSince(startTime);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package main.java.core.featuredetection;
+
+import main.java.core.featuredetection.datapojo.DetectionOptions;
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.imageprocess.AnimationFrameReader;
+import main.java.core.imageprocess.DetectionFrame;
+import main.java.core.imageprocess.PreprocessingPipeline;
+import main.java.core.logging.Logger;
+import main.java.utils.MathUtils;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Detects faces in the distinct frames of an animated image. Frames are decoded and preprocessed on a separate
+ * thread while the previous frame is being detected, through a queue of DECODE_QUEUE_CAPACITY frames, so decode
+ * never runs ahead of detection by more than that.
+ * <p/>
+ * Faces of all frames are grouped by overlap into faces across the animation. A face is as prominent as its
+ * detection score times the time it is on screen, so a face shown through most of the animation wins over one seen
+ * in a single frame.
+ */
+final class AnimatedFeatureDetector {
+
+    private static final Logger LOGGER = Logger.getLogger(AnimatedFeatureDetector.class);
+
+    private static final int DECODE_QUEUE_CAPACITY = 2;
+
+    /**
+     * Smallest overlap, as intersection over union, for faces in different frames to be the same face.
+     */
+    private static final double MIN_FACE_OVERLAP = 0.3;
+
+    private static final ExecutorService DECODE_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "animation-decode-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * A preprocessed frame waiting for detection. END marks the last one.
+     */
+    private static final class DecodedFrame {
+
+        static final DecodedFrame END = new DecodedFrame(-1, null);
+
+        final long startMillis;
+
+        final DetectionFrame detectionFrame;
+
+        DecodedFrame(long startMillis, DetectionFrame detectionFrame) {
+            this.startMillis = startMillis;
+            this.detectionFrame = detectionFrame;
+        }
+    }
+
+    /**
+     * A face across frames.
+     */
+    private static final class AnimatedFace {
+
+        /**
+         * Position in the latest frame it was found in.
+         */
+        Rect rect;
+
+        /**
+         * Its highest scored detection.
+         */
+        FeatureOfInterest bestFeatureOfInterest;
+
+        /**
+         * Score of the latest frame it was found in, which is weighted once the frame's duration is known.
+         */
+        double lastScore;
+
+        double prominence;
+
+        AnimatedFace(FeatureOfInterest featureOfInterest) {
+            this.rect = featureOfInterest.getFeatureROI();
+            this.bestFeatureOfInterest = featureOfInterest;
+        }
+    }
+
+    private AnimatedFeatureDetector() {
+    }
+
+    /**
+     * @param reader  Reader over frames of the image. Not closed, but is not used once this returns.
+     * @param options The detection parameters, applied to every frame.
+     * @return Most prominent faces across the animation first, at most max number of features. Each is its highest
+     * scored detection, in canvas coordinates.
+     * @throws Exception If first frame can't be read, or detection failed.
+     */
+    static List<FeatureOfInterest> extractFaces(final AnimationFrameReader reader, DetectionOptions options)
+            throws Exception {
+        final PreprocessingPipeline preprocessingPipeline = ProminentFeatureDetector.newPreprocessingPipeline(options);
+        final BlockingQueue<DecodedFrame> decodedFrames = new ArrayBlockingQueue<>(DECODE_QUEUE_CAPACITY);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicReference<Exception> decodeFailure = new AtomicReference<>();
+        DECODE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                decodeFrames(reader, preprocessingPipeline, decodedFrames, stopped, decodeFailure);
+            }
+        });
+
+        List<AnimatedFace> animatedFaces = new ArrayList<>();
+        List<AnimatedFace> lastFrameFaces = new ArrayList<>();
+        long lastStartMillis = 0;
+        int detectedFrames = 0;
+        boolean decodeFinished = false;
+        try {
+            while (true) {
+                DecodedFrame decodedFrame = decodedFrames.take();
+                if (decodedFrame == DecodedFrame.END) {
+                    decodeFinished = true;
+                    break;
+                }
+                List<FeatureOfInterest> featureOfInterests;
+                try {
+                    featureOfInterests = ProminentFeatureDetector.detectProminentFeatures(decodedFrame
+                            .detectionFrame, options);
+                } finally {
+                    decodedFrame.detectionFrame.close();
+                }
+                detectedFrames++;
+                addProminence(lastFrameFaces, decodedFrame.startMillis - lastStartMillis);
+                lastStartMillis = decodedFrame.startMillis;
+                matchFaces(featureOfInterests, animatedFaces, lastFrameFaces);
+            }
+        } finally {
+            if (!decodeFinished) {
+                stopped.set(true);
+                drain(decodedFrames);
+            }
+        }
+        if (decodeFailure.get() != null) {
+            throw decodeFailure.get();
+        }
+        // Decode thread is done, so reader is not read concurrently.
+        addProminence(lastFrameFaces, reader.getElapsedMillis() - lastStartMillis);
+        LOGGER.debug("Animation of {} frames({} ms), detected {} distinct frames, found {} faces", reader
+                .getFrameCount(), reader.getElapsedMillis(), detectedFrames, animatedFaces.size());
+
+        Collections.sort(animatedFaces, new Comparator<AnimatedFace>() {
+            @Override
+            public int compare(AnimatedFace first, AnimatedFace second) {
+                return Double.compare(second.prominence, first.prominence);
+            }
+        });
+        int numFaces = Math.min(options.getMaxNumberOfFeatures(), animatedFaces.size());
+        List<FeatureOfInterest> featureOfInterests = new ArrayList<>(numFaces);
+        for (int i = 0; i < numFaces; i++) {
+            featureOfInterests.add(animatedFaces.get(i).bestFeatureOfInterest);
+        }
+        return featureOfInterests;
+    }
+
+    /**
+     * Runs on the decode thread. Ends with DecodedFrame.END whether it completes, is stopped or fails.
+     */
+    private static void decodeFrames(AnimationFrameReader reader, PreprocessingPipeline preprocessingPipeline,
+                                     BlockingQueue<DecodedFrame> decodedFrames, AtomicBoolean stopped,
+                                     AtomicReference<Exception> decodeFailure) {
+        try {
+            AnimationFrameReader.Frame frame;
+            while (!stopped.get() && (frame = reader.nextDistinctFrame()) != null) {
+                DetectionFrame detectionFrame;
+                try {
+                    detectionFrame = preprocessingPipeline.process(frame.getImage(), frame.getImage().size());
+                } finally {
+                    frame.getImage().release();
+                }
+                putUninterruptibly(decodedFrames, new DecodedFrame(frame.getStartMillis(), detectionFrame));
+            }
+        } catch (Exception e) {
+            decodeFailure.set(e);
+        } finally {
+            putUninterruptibly(decodedFrames, DecodedFrame.END);
+        }
+    }
+
+    /**
+     * Credits faces of a frame with the time it was on screen.
+     */
+    private static void addProminence(List<AnimatedFace> frameFaces, long durationMillis) {
+        for (AnimatedFace animatedFace : frameFaces) {
+            animatedFace.prominence += animatedFace.lastScore * durationMillis;
+        }
+    }
+
+    /**
+     * Adds each face of a frame to the face it overlaps most in earlier frames, or as a new face.
+     *
+     * @param frameFaces Cleared, then filled with faces found in this frame.
+     */
+    private static void matchFaces(List<FeatureOfInterest> featureOfInterests, List<AnimatedFace> animatedFaces,
+                                   List<AnimatedFace> frameFaces) {
+        frameFaces.clear();
+        for (FeatureOfInterest featureOfInterest : featureOfInterests) {
+            AnimatedFace match = null;
+            double bestOverlap = MIN_FACE_OVERLAP;
+            for (AnimatedFace animatedFace : animatedFaces) {
+                double overlap = MathUtils.intersectionOverUnion(animatedFace.rect, featureOfInterest
+                        .getFeatureROI());
+                if (overlap >= bestOverlap && !frameFaces.contains(animatedFace)) {
+                    bestOverlap = overlap;
+                    match = animatedFace;
+                }
+            }
+            if (match == null) {
+                match = new AnimatedFace(featureOfInterest);
+                animatedFaces.add(match);
+            } else {
+                match.rect = featureOfInterest.getFeatureROI();
+                if (featureOfInterest.getFeatureScore() > match.bestFeatureOfInterest.getFeatureScore()) {
+                    match.bestFeatureOfInterest = featureOfInterest;
+                }
+            }
+            match.lastScore = featureOfInterest.getFeatureScore();
+            frameFaces.add(match);
+        }
+    }
+
+    /**
+     * Closes frames left in queue till decode thread ends, so none of their buffers leak.
+     */
+    private static void drain(BlockingQueue<DecodedFrame> decodedFrames) {
+        boolean interrupted = false;
+        while (true) {
+            DecodedFrame decodedFrame;
+            try {
+                decodedFrame = decodedFrames.take();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                continue;
+            }
+            if (decodedFrame == DecodedFrame.END) {
+                break;
+            }
+            decodedFrame.detectionFrame.close();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<DecodedFrame> decodedFrames, DecodedFrame decodedFrame) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                decodedFrames.put(decodedFrame);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package main.java.core.featuredetection;
+
+/**
+ * The strategy used by {@link FaceDetector} to run the configured {@link ClassifierTechnique}s over an image.
+ */
+public enum DetectionMode {
+    /**
+     * Run classifier techniques one after another on the calling thread.
+     */
+    SEQUENTIAL,
+
+    /**
+     * Run classifier techniques at the same time on a bounded, shared executor. Per image latency is bounded by the
+     * slowest technique instead of the sum of all of them.
+     */
+    PARALLEL,
+
+    /**
+     * Build one image pyramid and run classifier techniques over each of its levels on the calling thread, instead
+     * of each technique building a pyramid of its own. Finds the same faces as SEQUENTIAL.
+     */
+    PYRAMID,
+
+    /**
+     * Find candidate regions with a coarse scan of a half size image, then run classifier techniques only inside
+     * them. Images without candidates cost a small fraction of SEQUENTIAL. Faces under 40px are not found.
+     */
+    COARSE_TO_FINE,
+
+    /**
+     * Run the LBP classifier technique over the whole image, and the Haar techniques only around what it detects.
+     * Faces without any LBP detection, including those under 50px, are not found even if both Haar techniques agree.
+     */
+    TRIAGE,
+
+    /**
+     * Split the image into overlapping tiles and run classifier techniques over them on all processors. Images are
+     * processed at up to full resolution instead of being downscaled, so that small faces in large images are found.
+     */
+    TILED
+}
@@ -1,50 +1,204 @@
 package main.java.core.featuredetection;
 
 import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.featuredetection.datapojo.FeatureRects;
+import main.java.core.featuredetection.factory.BorrowPolicy;
 import main.java.core.featuredetection.factory.CascadeClassifierFactory;
+import main.java.core.featuredetection.factory.ClassifierLease;
+import main.java.core.imageprocess.MatPool;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.Counter;
+import main.java.core.metrics.LatencyHistogram;
+import main.java.core.metrics.MetricsRegistry;
 import main.java.utils.MathUtils;
 import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
 import org.opencv.objdetect.Objdetect;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author SaurabhKhanduja
  */
-class FaceDetector {
+class FaceDetector implements AutoCloseable {
 
-    private CascadeClassifier haarFrontalClassifier = null;
+    /**
+     * The techniques used for voting, in the order they are run. Only the first two are required to find a face
+     * before the rest are attempted.
+     */
+    private static final ClassifierTechnique[] DETECTION_TECHNIQUES = {ClassifierTechnique.HAAR_FRONTAL_FACE,
+            ClassifierTechnique.HAAR_PROFILE_FACE, ClassifierTechnique.LBP_FACE_VISIONARY};
+
+    /**
+     * Configuration for multi-scale face detection, size step between scales.
+     */
+    private static final double SCALE_FACTOR = 1.05;
+
+    /**
+     * Don't do any Canny Pruning till speed becomes a bottle-neck.
+     */
+    private static final int DETECTION_FLAGS = 1;
+
+    /**
+     * Raw detections of a technique are grouped into faces seen at least this many times.
+     */
+    private static final int GROUP_THRESHOLD = 3;
+
+    private static final double GROUP_EPS = 0.2;
+
+    /**
+     * Size of the proxy image scanned by the coarse pass of {@link DetectionMode#COARSE_TO_FINE}, relative to input.
+     */
+    private static final double PROXY_SCALE = 0.5;
+
+    private static final double COARSE_SCALE_FACTOR = 1.25;
+
+    /**
+     * Low, so that the coarse pass proposes every region the fine pass could find a face in.
+     */
+    private static final int COARSE_MIN_NEIGHBORS = 1;
+
+    /**
+     * Space added around each candidate on every side, relative to candidate size.
+     */
+    private static final double REGION_PADDING = 0.5;
+
+    /**
+     * Cheapest technique, scans the whole image in {@link DetectionMode#TRIAGE} to propose regions for the rest.
+     */
+    private static final ClassifierTechnique TRIAGE_PROPOSER = ClassifierTechnique.LBP_FACE_VISIONARY;
+
+    /**
+     * Low, so that a face seen by LBP only a few times is still verified by the Haar techniques.
+     */
+    private static final int TRIAGE_GROUP_THRESHOLD = 1;
+
+    private static final int NUM_DETECTION_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Shared by all detectors for {@link DetectionMode#PARALLEL}. Each detectMultiScale call is CPU bound, so the
+     * pool is sized to the processors and work queued beyond it is run on the calling thread.
+     */
+    private static final ThreadPoolExecutor DETECTION_EXECUTOR = new ThreadPoolExecutor(NUM_DETECTION_THREADS,
+            NUM_DETECTION_THREADS, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(NUM_DETECTION_THREADS * DETECTION_TECHNIQUES.length),
+            new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "face-detector-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        DETECTION_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Largest face found in a tile in {@link DetectionMode#TILED}, larger faces are found on a downscaled copy.
+     */
+    private static final int TILE_FACE_SIZE = 256;
 
-    private CascadeClassifier haarProfileClassifier = null;
+    /**
+     * Tile size in {@link DetectionMode#TILED}, before the margin. With margins, about 1.3 times the image is
+     * scanned, while a 24 mega pixel image still makes 12 tiles to spread over processors.
+     */
+    private static final int TILE_CORE_SIZE = 6 * TILE_FACE_SIZE;
+
+    /**
+     * Shared by all detectors for {@link DetectionMode#TILED}, sized to the processors.
+     */
+    private static final ForkJoinPool TILE_POOL = new ForkJoinPool(NUM_DETECTION_THREADS,
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+                    };
+                    thread.setName("face-detector-tile-" + threadCount.incrementAndGet());
+                    return thread;
+                }
+            }, null, false);
+
+    private static final Logger LOGGER = Logger.getLogger(FaceDetector.class);
+
+    private static final Map<ClassifierTechnique, LatencyHistogram> TECHNIQUE_TIMERS =
+            new EnumMap<>(ClassifierTechnique.class);
+
+    private static final LatencyHistogram VOTE_TIMER = MetricsRegistry.getInstance().timer("vote");
 
-    private CascadeClassifier lbpFrontalClassifier = null;
+    private static final LatencyHistogram DETECT_TIMER = MetricsRegistry.getInstance().timer("detect");
+
+    private static final LatencyHistogram PYRAMID_TIMER = MetricsRegistry.getInstance().timer("pyramid");
+
+    private static final LatencyHistogram COARSE_TIMER = MetricsRegistry.getInstance().timer("coarse");
+
+    private static final Counter COARSE_REJECTS = MetricsRegistry.getInstance().counter("coarse.rejects");
+
+    private static final LatencyHistogram TILES_TIMER = MetricsRegistry.getInstance().timer("tiles");
+
+    private static final Counter TRIAGE_REJECTS = MetricsRegistry.getInstance().counter("triage.rejects");
+
+    static {
+        for (ClassifierTechnique technique : ClassifierTechnique.values()) {
+            TECHNIQUE_TIMERS.put(technique, MetricsRegistry.getInstance().timer("detect." + technique));
+        }
+    }
+
+    private final ClassifierLease classifierLease;
 
     // private SkinDetection skinDetector;
 
     public FaceDetector() throws main.java.core.featuredetection.FaceDetectorException, InterruptedException {
-        System.out.println("Fetching critical resource.");
-        CascadeClassifierFactory factory = CascadeClassifierFactory.getInstance();
-        haarFrontalClassifier = factory.borrow(ClassifierTechnique.HAAR_FRONTAL_FACE);
-        haarProfileClassifier = factory.borrow(ClassifierTechnique.HAAR_PROFILE_FACE);
-        lbpFrontalClassifier = factory.borrow(ClassifierTechnique.LBP_FACE_VISIONARY);
-        System.out.println("Critical resources fetched.");
+        this(CascadeClassifierFactory.DEFAULT_BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, BorrowPolicy.FAIL_FAST);
     }
 
-    private List<FeatureOfInterest> detectFaceRects(Mat inputImage, ClassifierTechnique technique) throws
+    /**
+     * @param borrowTimeout The maximum time to wait for classifiers of all techniques.
+     * @param unit          The unit of borrowTimeout.
+     * @param borrowPolicy  What to do if classifiers are not free within timeout.
+     */
+    public FaceDetector(long borrowTimeout, TimeUnit unit, BorrowPolicy borrowPolicy) throws FaceDetectorException,
+            InterruptedException {
+        LOGGER.debug("Fetching critical resource.");
+        classifierLease = CascadeClassifierFactory.getInstance().lease(EnumSet.copyOf(Arrays.asList
+                (DETECTION_TECHNIQUES)), borrowTimeout, unit, borrowPolicy);
+        LOGGER.debug("Critical resources fetched.");
+    }
+
+    /**
+     * Runs a single technique over the image. Pass an 8-bit grayscale image, as prepared by
+     * PreprocessingPipeline, else every classifier converts the same image to grayscale again.
+     */
+    private FeatureRects detectFaceRects(Mat inputImage, ClassifierTechnique technique) throws
             main.java.core.featuredetection.FaceDetectorException {
+        return groupFaceRects(detectRawFaceRects(inputImage, technique), technique);
+    }
+
+    /**
+     * @return Raw detections of a technique, before grouping. Release them once done.
+     */
+    private MatOfRect detectRawFaceRects(Mat inputImage, ClassifierTechnique technique) throws
+            FaceDetectorException {
         // An array of rectangle, this will store all the face rectangles found in the image.
         MatOfRect faceDetected = new MatOfRect();
 
-        // Configuration for multi-scale face detection
-        double scaleFactor = 1.05;
-
-        // Don't do any Canny Pruning till speed becomes a bottle-neck
-        int flags = 1;
-
         // Smallest face size.
         Size minFeatureSize = technique.getMinimumObjectSize();
 
@@ -52,46 +206,38 @@ class FaceDetector {
         Size maxFeatureSize = inputImage.size();
 
         // Detect faces - Use 0 as minNeighbors to get all faces first.
-        switch (technique) {
-            case HAAR_FRONTAL_FACE:
-                haarFrontalClassifier.detectMultiScale(inputImage, faceDetected, scaleFactor, 0, flags, minFeatureSize,
-                        maxFeatureSize);
-                break;
-            case HAAR_PROFILE_FACE:
-                haarProfileClassifier.detectMultiScale(inputImage, faceDetected, scaleFactor, 0, flags, minFeatureSize,
-                        maxFeatureSize);
-                break;
-            case LBP_FACE_VISIONARY:
-                lbpFrontalClassifier.detectMultiScale(inputImage, faceDetected, scaleFactor, 0, flags, minFeatureSize,
-                        maxFeatureSize);
-                break;
-            default:
-                throw new main.java.core.featuredetection.FaceDetectorException("Unsupported Face detection Technique");
+        CascadeClassifier classifier = getClassifier(technique);
+        classifier.detectMultiScale(inputImage, faceDetected, SCALE_FACTOR, 0, DETECTION_FLAGS, minFeatureSize,
+                maxFeatureSize);
+        return faceDetected;
+    }
+
+    private CascadeClassifier getClassifier(ClassifierTechnique technique) throws FaceDetectorException {
+        CascadeClassifier classifier = classifierLease.get(technique);
+        if (classifier == null) {
+            throw new main.java.core.featuredetection.FaceDetectorException("Unsupported Face detection Technique");
         }
+        return classifier;
+    }
 
+    /**
+     * Groups raw detections of a technique into faces, scored by number of detections grouped. Releases
+     * faceDetected.
+     */
+    private static FeatureRects groupFaceRects(MatOfRect faceDetected, ClassifierTechnique technique) {
         // Use minNeighbors to further group rectangles together and get a score metrics.
         MatOfInt weights = new MatOfInt();
-        int groupThreshold = 3;
-        double groupEps = 0.2;
-        Objdetect.groupRectangles(faceDetected, weights, groupThreshold, groupEps);
+        Objdetect.groupRectangles(faceDetected, weights, GROUP_THRESHOLD, GROUP_EPS);
 
-        // Convert List of Rectangles to List of FeatureOfInterest.
-        List<FeatureOfInterest> featureOfInterests = new ArrayList<>();
-        List<Rect> faceDetectedList = faceDetected.toList();
-        List<Integer> faceDetectedWeight = weights.toList();
-        String logMessage = "[";
-        int numFaces = faceDetectedList.size();
-        for (int i = 0; i < numFaces; i++) {
-            featureOfInterests.add(new FeatureOfInterest(faceDetectedList.get(i), FeatureOfInterest.FeatureType.FACE,
-                    faceDetectedWeight.get(i)));
-            logMessage += "{" + faceDetectedList.get(i).x + ", " +
-                    faceDetectedList.get(i).y + ", " +
-                    faceDetectedList.get(i).width + ", " +
-                    faceDetectedList.get(i).height + "}";
-        }
-        System.out.println(technique + ": " + logMessage + "]");
+        // Read rects and weights in bulk, instead of boxing them one by one.
+        FeatureRects featureRects = FeatureRects.fromMat(faceDetected, weights, FeatureOfInterest.FeatureType.FACE);
+        LOGGER.debug("{}: {}", technique, featureRects);
+
+        // Free native memory now instead of waiting for GC.
+        faceDetected.release();
+        weights.release();
 
-        return featureOfInterests;
+        return featureRects;
     }
 
     /**
@@ -134,30 +280,55 @@ class FaceDetector {
      * @return
      * @throws FaceDetectorException
      */
-    public List<FeatureOfInterest> detectFaces(Mat inputImage) throws FaceDetectorException {
+    public FeatureRects detectFaces(Mat inputImage) throws FaceDetectorException {
+        return detectFaces(inputImage, DetectionMode.SEQUENTIAL);
+    }
+
+    /**
+     * Detects faces using all classifier techniques. A face detected in at least 2 techniques is considered a true
+     * face. If the first two techniques find nothing, the remaining techniques are skipped.
+     *
+     * @param inputImage    The image to detect faces in.
+     * @param detectionMode Whether to run the techniques one after another or at the same time.
+     * @return The faces agreed upon by the techniques, in descending order of score.
+     * @throws FaceDetectorException
+     */
+    public FeatureRects detectFaces(Mat inputImage, DetectionMode detectionMode) throws
+            FaceDetectorException {
 
         // ToDo: Check if image is actually colored image before applying second technique.
         int mergeTechnique = 0;
-        List<FeatureOfInterest> finalFaceRects = null;
+        FeatureRects finalFaceRects = null;
         if (mergeTechnique == 0) { // Face detected in at least 2 or more techniques should be considered a true face.
-            ClassifierTechnique techniques[] = {ClassifierTechnique.HAAR_FRONTAL_FACE, ClassifierTechnique
-                    .HAAR_PROFILE_FACE, ClassifierTechnique.LBP_FACE_VISIONARY};
-            List<List<FeatureOfInterest>> faceRects = new ArrayList<>(techniques.length);
-            int count = 0, index = 0;
-            for (ClassifierTechnique technique : techniques) {
-                if (index == 2 && count == 0) {
-                    break;
-                }
-                List<FeatureOfInterest> featureOfInterests = detectFaceRects(inputImage, technique);
-                faceRects.add(featureOfInterests);
-                count += featureOfInterests.size();
-                index++;
-                finalFaceRects = MathUtils.findIntersectingRects(faceRects);
+            Map<ClassifierTechnique, Long> techniqueTimings =
+                    Collections.synchronizedMap(new EnumMap<ClassifierTechnique, Long>(ClassifierTechnique.class));
+            long startTime = System.nanoTime();
+            List<FeatureRects> faceRects;
+            if (detectionMode == DetectionMode.PARALLEL) {
+                faceRects = detectFaceRectsInParallel(inputImage, techniqueTimings);
+            } else if (detectionMode == DetectionMode.PYRAMID) {
+                faceRects = detectFaceRectsOnPyramid(inputImage, techniqueTimings);
+            } else if (detectionMode == DetectionMode.COARSE_TO_FINE) {
+                faceRects = detectFaceRectsCoarseToFine(inputImage, techniqueTimings);
+            } else if (detectionMode == DetectionMode.TRIAGE) {
+                faceRects = detectFaceRectsByTriage(inputImage, techniqueTimings);
+            } else if (detectionMode == DetectionMode.TILED) {
+                faceRects = detectFaceRectsOnTiles(inputImage, techniqueTimings);
+            } else {
+                faceRects = detectFaceRectsSequentially(inputImage, techniqueTimings);
+            }
+            long voteStartTime = System.nanoTime();
+            finalFaceRects = MathUtils.voteOnRects(faceRects, MathUtils.SUPPRESS_ANY_OVERLAP);
+            VOTE_TIMER.recordSince(voteStartTime);
+            DETECT_TIMER.recordSince(startTime);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Face detection({}) took {} ms, per technique(ms): {}", detectionMode,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), techniqueTimings);
             }
         } else if (mergeTechnique == 1) {
             // ToDo: complete this logic.
             // Detect face using HAAR frontal
-            List<FeatureOfInterest> frontalHaarFaceRects = detectFaceRects(inputImage, ClassifierTechnique
+            FeatureRects frontalHaarFaceRects = detectFaceRects(inputImage, ClassifierTechnique
                     .HAAR_FRONTAL_FACE);
 
             // Verify each ROI using Skin Detection based on color
@@ -166,33 +337,774 @@ class FaceDetector {
         return finalFaceRects;
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        // This notifies if there is any concurrency issue.
-        if (haarFrontalClassifier != null || haarProfileClassifier != null || lbpFrontalClassifier != null) {
-            System.out.println("Returning critical resources for feature detection.");
-            deallocateResources();
+    private List<FeatureRects> detectFaceRectsSequentially(Mat inputImage,
+                                                           Map<ClassifierTechnique, Long> techniqueTimings)
+            throws FaceDetectorException {
+        List<FeatureRects> faceRects = new ArrayList<>(DETECTION_TECHNIQUES.length);
+        int count = 0, index = 0;
+        for (ClassifierTechnique technique : DETECTION_TECHNIQUES) {
+            if (index == 2 && count == 0) {
+                break;
+            }
+            FeatureRects featureRects = timedDetectFaceRects(inputImage, technique, techniqueTimings);
+            faceRects.add(featureRects);
+            count += featureRects.size();
+            index++;
         }
-        super.finalize();
+        return faceRects;
     }
 
-    public void deallocateResources() {
-        System.out.println("Returning critical resources for feature detection.");
-        CascadeClassifierFactory factory = CascadeClassifierFactory.getInstance();
-        if (haarFrontalClassifier != null) {
-            factory.giveBack(ClassifierTechnique.HAAR_FRONTAL_FACE, haarFrontalClassifier);
-            haarFrontalClassifier = null;
+    /**
+     * Two passes. The coarse pass runs the two required techniques with a large scale step over a half size proxy
+     * of the image, and proposes padded regions around whatever they find. The fine pass runs all techniques with
+     * the usual parameters only inside those regions. An image without candidates ends after the coarse pass, which
+     * costs a small fraction of a full scan.
+     * <p/>
+     * Faces smaller than twice the classifier window, 40px in the input image, are too small for the proxy and are
+     * not found.
+     */
+    private List<FeatureRects> detectFaceRectsCoarseToFine(Mat inputImage,
+                                                           Map<ClassifierTechnique, Long> techniqueTimings)
+            throws FaceDetectorException {
+        long startTime = System.nanoTime();
+        List<Rect> regions = proposeRegions(inputImage);
+        COARSE_TIMER.recordSince(startTime);
+
+        List<FeatureRects> faceRects = new ArrayList<>(DETECTION_TECHNIQUES.length);
+        if (regions.isEmpty()) {
+            COARSE_REJECTS.increment();
+            return faceRects;
         }
 
-        if (haarProfileClassifier != null) {
-            factory.giveBack(ClassifierTechnique.HAAR_PROFILE_FACE, haarProfileClassifier);
-            haarProfileClassifier = null;
+        int count = 0, index = 0;
+        for (ClassifierTechnique technique : DETECTION_TECHNIQUES) {
+            if (index == 2 && count == 0) {
+                break;
+            }
+            FeatureRects featureRects = detectFaceRectsInRegions(inputImage, technique, regions, techniqueTimings);
+            faceRects.add(featureRects);
+            count += featureRects.size();
+            index++;
+        }
+        return faceRects;
+    }
+
+    /**
+     * Runs a single technique inside each region of the image, with the usual parameters.
+     *
+     * @return Faces found in all regions, in coordinates of inputImage.
+     */
+    private FeatureRects detectFaceRectsInRegions(Mat inputImage, ClassifierTechnique technique, List<Rect> regions,
+                                                  Map<ClassifierTechnique, Long> techniqueTimings)
+            throws FaceDetectorException {
+        long startTime = System.nanoTime();
+        FeatureRects featureRects = new FeatureRects();
+        for (Rect region : regions) {
+            Mat regionImage = inputImage.submat(region);
+            try {
+                FeatureRects regionRects = detectFaceRects(regionImage, technique);
+                for (int i = 0; i < regionRects.size(); i++) {
+                    featureRects.add(regionRects.getX(i) + region.x, regionRects.getY(i) + region.y,
+                            regionRects.getWidth(i), regionRects.getHeight(i), regionRects.getFeatureType(i),
+                            regionRects.getScore(i));
+                }
+            } finally {
+                regionImage.release();
+            }
         }
+        long elapsedNanos = System.nanoTime() - startTime;
+        TECHNIQUE_TIMERS.get(technique).record(elapsedNanos);
+        techniqueTimings.put(technique, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        return featureRects;
+    }
 
-        if (lbpFrontalClassifier != null) {
-            factory.giveBack(ClassifierTechnique.LBP_FACE_VISIONARY, lbpFrontalClassifier);
-            lbpFrontalClassifier = null;
+    /**
+     * Runs the techniques cheapest first. LBP_FACE_VISIONARY scans the whole image, and the Haar techniques run only
+     * inside padded regions around what it detects. Regions are proposed from LBP detections grouped with a lower
+     * threshold than its vote, so a face LBP alone is not sure of is still checked by both Haar techniques. Results
+     * are in the usual technique order, so voting is the same as in sequential mode.
+     * <p/>
+     * Faces without any LBP detection, including all under the 50px LBP window, are not found.
+     */
+    private List<FeatureRects> detectFaceRectsByTriage(Mat inputImage,
+                                                       Map<ClassifierTechnique, Long> techniqueTimings)
+            throws FaceDetectorException {
+        long startTime = System.nanoTime();
+        MatOfRect rawProposals = detectRawFaceRects(inputImage, TRIAGE_PROPOSER);
+        List<Rect> regions = new ArrayList<>();
+        MatOfRect candidates = new MatOfRect();
+        MatOfInt weights = new MatOfInt();
+        try {
+            rawProposals.copyTo(candidates);
+            Objdetect.groupRectangles(candidates, weights, TRIAGE_GROUP_THRESHOLD, GROUP_EPS);
+            for (Rect candidate : candidates.toArray()) {
+                regions.add(padRegion(candidate, inputImage));
+            }
+        } finally {
+            candidates.release();
+            weights.release();
+        }
+        FeatureRects proposerRects = groupFaceRects(rawProposals, TRIAGE_PROPOSER);
+        long elapsedNanos = System.nanoTime() - startTime;
+        TECHNIQUE_TIMERS.get(TRIAGE_PROPOSER).record(elapsedNanos);
+        techniqueTimings.put(TRIAGE_PROPOSER, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+
+        List<FeatureRects> faceRects = new ArrayList<>(DETECTION_TECHNIQUES.length);
+        if (regions.isEmpty()) {
+            TRIAGE_REJECTS.increment();
+            return faceRects;
+        }
+        regions = mergeRegions(regions);
+
+        for (ClassifierTechnique technique : DETECTION_TECHNIQUES) {
+            if (technique == TRIAGE_PROPOSER) {
+                faceRects.add(proposerRects);
+            } else {
+                faceRects.add(detectFaceRectsInRegions(inputImage, technique, regions, techniqueTimings));
+            }
+        }
+        return faceRects;
+    }
+
+    /**
+     * Coarse pass of {@link #detectFaceRectsCoarseToFine(Mat, Map)}.
+     *
+     * @return Regions of inputImage to scan, padded around candidates, overlapping regions merged.
+     */
+    private List<Rect> proposeRegions(Mat inputImage) throws FaceDetectorException {
+        List<Rect> regions = new ArrayList<>();
+        Mat proxyImage = MatPool.borrow();
+        MatOfRect candidates = new MatOfRect();
+        try {
+            Imgproc.resize(inputImage, proxyImage, new Size(0, 0), PROXY_SCALE, PROXY_SCALE, Imgproc.INTER_AREA);
+            for (int i = 0; i < Math.min(2, DETECTION_TECHNIQUES.length); i++) {
+                getClassifier(DETECTION_TECHNIQUES[i]).detectMultiScale(proxyImage, candidates, COARSE_SCALE_FACTOR,
+                        COARSE_MIN_NEIGHBORS, DETECTION_FLAGS, new Size(0, 0), proxyImage.size());
+                for (Rect candidate : candidates.toArray()) {
+                    regions.add(padRegion(MathUtils.resizeRect(candidate, 1 / PROXY_SCALE), inputImage));
+                }
+            }
+        } finally {
+            candidates.release();
+            MatPool.giveBack(proxyImage);
+        }
+        return mergeRegions(regions);
+    }
+
+    private static Rect padRegion(Rect candidate, Mat image) {
+        int paddingX = (int) (candidate.width * REGION_PADDING);
+        int paddingY = (int) (candidate.height * REGION_PADDING);
+        int left = MathUtils.clip(candidate.x - paddingX, 0, image.cols());
+        int top = MathUtils.clip(candidate.y - paddingY, 0, image.rows());
+        int right = MathUtils.clip(candidate.x + candidate.width + paddingX, 0, image.cols());
+        int bottom = MathUtils.clip(candidate.y + candidate.height + paddingY, 0, image.rows());
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Replaces overlapping regions with their bounding rect until none overlap, so no part of the image is scanned
+     * twice and a face is never split between two regions.
+     */
+    private static List<Rect> mergeRegions(List<Rect> regions) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size() && !merged; i++) {
+                for (int j = i + 1; j < regions.size() && !merged; j++) {
+                    Rect first = regions.get(i);
+                    Rect second = regions.get(j);
+                    if (MathUtils.getIntersectionRect(first, second).area() > 0) {
+                        int left = Math.min(first.x, second.x);
+                        int top = Math.min(first.y, second.y);
+                        int right = Math.max(first.x + first.width, second.x + second.width);
+                        int bottom = Math.max(first.y + first.height, second.y + second.height);
+                        regions.set(i, new Rect(left, top, right - left, bottom - top));
+                        regions.remove(j);
+                        merged = true;
+                    }
+                }
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * For full resolution images. Splits the image into a {@link TileGrid} with a margin of half the largest tile
+     * face, and runs each technique over every tile on {@link #TILE_POOL}, finding faces up to TILE_FACE_SIZE.
+     * Larger faces are found by one more job per technique, over the small levels of an {@link ImagePyramid} of
+     * the image, as in pyramid mode. Raw detections of all jobs are grouped once per technique, which also merges
+     * faces found across tile seams. The first two techniques go first, so the remaining ones can be skipped as in
+     * sequential mode.
+     */
+    private List<FeatureRects> detectFaceRectsOnTiles(Mat inputImage, Map<ClassifierTechnique, Long> techniqueTimings)
+            throws FaceDetectorException {
+        Size smallestWindow = null;
+        double largestWindowWidth = 0;
+        for (ClassifierTechnique technique : DETECTION_TECHNIQUES) {
+            Size windowSize = getClassifier(technique).getOriginalWindowSize();
+            if (smallestWindow == null || windowSize.area() < smallestWindow.area()) {
+                smallestWindow = windowSize;
+            }
+            largestWindowWidth = Math.max(largestWindowWidth, windowSize.width);
+        }
+
+        long startTime = System.nanoTime();
+        List<TileGrid.Tile> tiles = new TileGrid(inputImage.size(), TILE_CORE_SIZE, TILE_FACE_SIZE / 2).getTiles();
+        List<Mat> tileImages = new ArrayList<>(tiles.size());
+        List<FeatureRects> faceRects = new ArrayList<>(DETECTION_TECHNIQUES.length);
+        // Levels where windows can be larger than the largest tile face.
+        try (ImagePyramid overview = new ImagePyramid(inputImage, SCALE_FACTOR, smallestWindow,
+                (TILE_FACE_SIZE + 1) / largestWindowWidth)) {
+            for (TileGrid.Tile tile : tiles) {
+                tileImages.add(inputImage.submat(tile.getExtent()));
+            }
+            int required = Math.min(2, DETECTION_TECHNIQUES.length);
+            int count = scanTiles(inputImage.size(), tiles, tileImages, overview, 0, required, faceRects,
+                    techniqueTimings);
+            if (count > 0) {
+                scanTiles(inputImage.size(), tiles, tileImages, overview, required, DETECTION_TECHNIQUES.length,
+                        faceRects, techniqueTimings);
+            }
+        } finally {
+            for (Mat tileImage : tileImages) {
+                tileImage.release();
+            }
+        }
+        TILES_TIMER.recordSince(startTime);
+        return faceRects;
+    }
+
+    /**
+     * Runs techniques fromTechnique to toTechnique(exclusive) over all tiles and the overview at once, and adds
+     * the faces each technique found to faceRects. Timings are the time each technique spent over all workers.
+     *
+     * @return The number of faces found.
+     */
+    private int scanTiles(Size imageSize, List<TileGrid.Tile> tiles, List<Mat> tileImages, ImagePyramid overview,
+                          int fromTechnique, int toTechnique, List<FeatureRects> faceRects,
+                          Map<ClassifierTechnique, Long> techniqueTimings) throws FaceDetectorException {
+        int jobsPerTechnique = tiles.size() + 1;
+        TileJob[] jobs = new TileJob[(toTechnique - fromTechnique) * jobsPerTechnique];
+        List<SharedClassifiers> sharedClassifiers = new ArrayList<>(toTechnique - fromTechnique);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Size tileMaxSize = new Size(TILE_FACE_SIZE, TILE_FACE_SIZE);
+        try {
+            int jobIndex = 0;
+            for (int i = fromTechnique; i < toTechnique; i++) {
+                ClassifierTechnique technique = DETECTION_TECHNIQUES[i];
+                SharedClassifiers classifiers = new SharedClassifiers(technique, getClassifier(technique));
+                sharedClassifiers.add(classifiers);
+                Size minSize = technique.getMinimumObjectSize();
+                for (int tileIndex = 0; tileIndex < tiles.size(); tileIndex++) {
+                    jobs[jobIndex++] = new TileJob(classifiers, tileImages.get(tileIndex), tiles.get(tileIndex),
+                            minSize, tileMaxSize, failure);
+                }
+                Size overviewMinSize = new Size(Math.max(minSize.width, TILE_FACE_SIZE + 1),
+                        Math.max(minSize.height, TILE_FACE_SIZE + 1));
+                jobs[jobIndex++] = new TileJob(classifiers, overview, imageSize, overviewMinSize, failure);
+            }
+            TILE_POOL.invoke(new TileTask(jobs, 0, jobs.length));
+        } finally {
+            // Jobs never throw, so all of them are done with the classifiers by now.
+            for (SharedClassifiers classifiers : sharedClassifiers) {
+                classifiers.close();
+            }
+        }
+        if (failure.get() != null) {
+            throw new FaceDetectorException("Tiled face detection failed: " + failure.get(), failure.get());
         }
-        System.out.println("Critical resource returned.");
+
+        int count = 0;
+        for (int i = fromTechnique; i < toTechnique; i++) {
+            ClassifierTechnique technique = DETECTION_TECHNIQUES[i];
+            List<Rect> rawRects = new ArrayList<>();
+            long elapsedNanos = 0;
+            int firstJob = (i - fromTechnique) * jobsPerTechnique;
+            for (int jobIndex = firstJob; jobIndex < firstJob + jobsPerTechnique; jobIndex++) {
+                rawRects.addAll(jobs[jobIndex].rects);
+                elapsedNanos += jobs[jobIndex].elapsedNanos;
+            }
+            TECHNIQUE_TIMERS.get(technique).record(elapsedNanos);
+            techniqueTimings.put(technique, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            MatOfRect faceDetected = new MatOfRect();
+            faceDetected.fromList(rawRects);
+            FeatureRects featureRects = groupFaceRects(faceDetected, technique);
+            faceRects.add(featureRects);
+            count += featureRects.size();
+        }
+        return count;
+    }
+
+    /**
+     * Runs the jobs of a tiled scan, splitting them in halves down to a single job.
+     */
+    private static final class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TileJob[] jobs;
+
+        private final int from;
+
+        private final int to;
+
+        TileTask(TileJob[] jobs, int from, int to) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                jobs[from].run();
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(jobs, from, middle), new TileTask(jobs, middle, to));
+        }
+    }
+
+    /**
+     * A single technique over a tile, or over the overview pyramid. Keeps raw detections in input image
+     * coordinates, of a tile only those centered in its core.
+     */
+    private static final class TileJob {
+
+        private final SharedClassifiers classifiers;
+
+        private final Mat tileImage;
+
+        private final TileGrid.Tile tile;
+
+        private final ImagePyramid overview;
+
+        private final Size imageSize;
+
+        private final Size minSize;
+
+        private final Size maxSize;
+
+        private final AtomicReference<Exception> failure;
+
+        private List<Rect> rects = Collections.emptyList();
+
+        private long elapsedNanos;
+
+        /**
+         * A job over a tile.
+         */
+        TileJob(SharedClassifiers classifiers, Mat tileImage, TileGrid.Tile tile, Size minSize, Size maxSize,
+                AtomicReference<Exception> failure) {
+            this(classifiers, tileImage, tile, null, null, minSize, maxSize, failure);
+        }
+
+        /**
+         * A job over the overview pyramid, for windows of at least minSize.
+         */
+        TileJob(SharedClassifiers classifiers, ImagePyramid overview, Size imageSize, Size minSize,
+                AtomicReference<Exception> failure) {
+            this(classifiers, null, null, overview, imageSize, minSize, null, failure);
+        }
+
+        private TileJob(SharedClassifiers classifiers, Mat tileImage, TileGrid.Tile tile, ImagePyramid overview,
+                        Size imageSize, Size minSize, Size maxSize, AtomicReference<Exception> failure) {
+            this.classifiers = classifiers;
+            this.tileImage = tileImage;
+            this.tile = tile;
+            this.overview = overview;
+            this.imageSize = imageSize;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.failure = failure;
+        }
+
+        /**
+         * Never throws, a failure is kept for the caller and skips the jobs which have not started yet.
+         */
+        void run() {
+            if (failure.get() != null) {
+                return;
+            }
+            long startTime = System.nanoTime();
+            MatOfRect faceDetected = new MatOfRect();
+            CascadeClassifier classifier = null;
+            try {
+                classifier = classifiers.take();
+                if (overview != null) {
+                    RawRects rawRects = new RawRects();
+                    Size windowSize = classifier.getOriginalWindowSize();
+                    for (ImagePyramid.Level level : overview.getLevels()) {
+                        detectOnLevel(classifier, windowSize, minSize, imageSize, level, faceDetected, rawRects);
+                    }
+                    MatOfRect levelRects = rawRects.toMatOfRect();
+                    rects = levelRects.toList();
+                    levelRects.release();
+                } else {
+                    classifier.detectMultiScale(tileImage, faceDetected, SCALE_FACTOR, 0, DETECTION_FLAGS, minSize,
+                            maxSize);
+                    Rect[] detectedRects = faceDetected.toArray();
+                    List<Rect> keptRects = new ArrayList<>(detectedRects.length);
+                    for (Rect rect : detectedRects) {
+                        rect.x += tile.getExtent().x;
+                        rect.y += tile.getExtent().y;
+                        if (tile.owns(rect.x, rect.y, rect.width, rect.height)) {
+                            keptRects.add(rect);
+                        }
+                    }
+                    rects = keptRects;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                if (classifier != null) {
+                    classifiers.put(classifier);
+                }
+                faceDetected.release();
+                elapsedNanos = System.nanoTime() - startTime;
+            }
+        }
+    }
+
+    /**
+     * Classifiers of a technique shared by the jobs of a tiled scan, as a classifier can't run on two threads at
+     * once. Starts with the leased classifier and borrows more from the factory while all are busy, so jobs run on
+     * as many workers as the pool allows.
+     */
+    private static final class SharedClassifiers implements AutoCloseable {
+
+        private final ClassifierTechnique technique;
+
+        private final BlockingQueue<CascadeClassifier> free = new LinkedBlockingQueue<>();
+
+        private final List<CascadeClassifier> borrowed = Collections.synchronizedList(
+                new ArrayList<CascadeClassifier>());
+
+        SharedClassifiers(ClassifierTechnique technique, CascadeClassifier leasedClassifier) {
+            this.technique = technique;
+            this.free.add(leasedClassifier);
+        }
+
+        CascadeClassifier take() throws FaceDetectorException, InterruptedException {
+            CascadeClassifier classifier = free.poll();
+            if (classifier == null) {
+                classifier = CascadeClassifierFactory.getInstance().tryBorrow(technique);
+                if (classifier != null) {
+                    borrowed.add(classifier);
+                } else {
+                    // Factory has none free, wait for another job of this scan.
+                    classifier = free.take();
+                }
+            }
+            return classifier;
+        }
+
+        void put(CascadeClassifier classifier) {
+            free.add(classifier);
+        }
+
+        /**
+         * Gives borrowed classifiers back to the factory. The leased one stays with the lease.
+         */
+        @Override
+        public void close() {
+            synchronized (borrowed) {
+                for (CascadeClassifier classifier : borrowed) {
+                    CascadeClassifierFactory.getInstance().giveBack(technique, classifier);
+                }
+                borrowed.clear();
+            }
+        }
+    }
+
+    /**
+     * Builds one image pyramid and runs the techniques over each of its levels, instead of each detectMultiScale
+     * call building its own pyramid of the same image. The first two techniques go first, so the remaining ones can
+     * be skipped as in sequential mode.
+     * <p/>
+     * Each level is scanned with a single scale detectMultiScale call(window size as both min and max size), the
+     * raw detections of all levels are mapped back to the input image and grouped once per technique. Like OpenCV,
+     * windows are placed every 2 pixels on levels scaled by less than 2, every pixel on the rest. Results match
+     * {@link #detectFaceRects(Mat, ClassifierTechnique)}.
+     */
+    private List<FeatureRects> detectFaceRectsOnPyramid(Mat inputImage,
+                                                        Map<ClassifierTechnique, Long> techniqueTimings)
+            throws FaceDetectorException {
+        int numTechniques = DETECTION_TECHNIQUES.length;
+        CascadeClassifier[] classifiers = new CascadeClassifier[numTechniques];
+        Size[] windowSizes = new Size[numTechniques];
+        Size minWindowSize = null;
+        for (int i = 0; i < numTechniques; i++) {
+            classifiers[i] = getClassifier(DETECTION_TECHNIQUES[i]);
+            windowSizes[i] = classifiers[i].getOriginalWindowSize();
+            if (minWindowSize == null || windowSizes[i].area() < minWindowSize.area()) {
+                minWindowSize = windowSizes[i];
+            }
+        }
+
+        long startTime = System.nanoTime();
+        List<FeatureRects> faceRects = new ArrayList<>(numTechniques);
+        try (ImagePyramid pyramid = new ImagePyramid(inputImage, SCALE_FACTOR, minWindowSize)) {
+            PYRAMID_TIMER.recordSince(startTime);
+            int required = Math.min(2, numTechniques);
+            int count = scanPyramid(pyramid, inputImage.size(), classifiers, windowSizes, 0, required, faceRects,
+                    techniqueTimings);
+            if (count > 0) {
+                scanPyramid(pyramid, inputImage.size(), classifiers, windowSizes, required, numTechniques, faceRects,
+                        techniqueTimings);
+            }
+        }
+        return faceRects;
+    }
+
+    /**
+     * Runs techniques from index first up to last over every level of pyramid, level by level, so a level is
+     * scanned by all of them while it is in cache. Adds faces of each technique to faceRects.
+     *
+     * @return Number of faces found.
+     */
+    private static int scanPyramid(ImagePyramid pyramid, Size imageSize, CascadeClassifier[] classifiers,
+                                   Size[] windowSizes, int first, int last, List<FeatureRects> faceRects,
+                                   Map<ClassifierTechnique, Long> techniqueTimings) {
+        long[] techniqueNanos = new long[last - first];
+        RawRects[] rawRects = new RawRects[last - first];
+        for (int i = first; i < last; i++) {
+            rawRects[i - first] = new RawRects();
+        }
+        MatOfRect levelRects = new MatOfRect();
+        try {
+            for (ImagePyramid.Level level : pyramid.getLevels()) {
+                for (int i = first; i < last; i++) {
+                    long startTime = System.nanoTime();
+                    detectOnLevel(classifiers[i], windowSizes[i], DETECTION_TECHNIQUES[i].getMinimumObjectSize(),
+                            imageSize, level, levelRects, rawRects[i - first]);
+                    techniqueNanos[i - first] += System.nanoTime() - startTime;
+                }
+            }
+        } finally {
+            levelRects.release();
+        }
+
+        int count = 0;
+        for (int i = first; i < last; i++) {
+            ClassifierTechnique technique = DETECTION_TECHNIQUES[i];
+            long startTime = System.nanoTime();
+            FeatureRects featureRects = groupFaceRects(rawRects[i - first].toMatOfRect(), technique);
+            long elapsedNanos = techniqueNanos[i - first] + System.nanoTime() - startTime;
+            TECHNIQUE_TIMERS.get(technique).record(elapsedNanos);
+            techniqueTimings.put(technique, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            faceRects.add(featureRects);
+            count += featureRects.size();
+        }
+        return count;
+    }
+
+    /**
+     * Scans one pyramid level with a classifier, if the level's window size is within the technique's object size
+     * limits, and adds detections to rawRects in input image coordinates.
+     */
+    private static void detectOnLevel(CascadeClassifier classifier, Size windowSize, Size minObjectSize,
+                                      Size imageSize, ImagePyramid.Level level, MatOfRect levelRects,
+                                      RawRects rawRects) {
+        double scale = level.getScale();
+        int scaledWindowWidth = (int) Math.rint(windowSize.width * scale);
+        int scaledWindowHeight = (int) Math.rint(windowSize.height * scale);
+        if (scaledWindowWidth > imageSize.width || scaledWindowHeight > imageSize.height ||
+                scaledWindowWidth < minObjectSize.width || scaledWindowHeight < minObjectSize.height) {
+            return;
+        }
+        Mat levelImage = level.getImage();
+        if (levelImage.cols() < windowSize.width || levelImage.rows() < windowSize.height) {
+            return;
+        }
+
+        // A single scale call places windows every 2 pixels. Where OpenCV would place them every pixel, scan the
+        // level shifted by one pixel too, views share level's data.
+        int offsets = (scale >= 2) ? 2 : 1;
+        for (int offsetY = 0; offsetY < offsets; offsetY++) {
+            for (int offsetX = 0; offsetX < offsets; offsetX++) {
+                Mat view = (offsetX == 0 && offsetY == 0) ? levelImage :
+                        levelImage.submat(offsetY, levelImage.rows(), offsetX, levelImage.cols());
+                if (view.cols() >= windowSize.width && view.rows() >= windowSize.height) {
+                    classifier.detectMultiScale(view, levelRects, SCALE_FACTOR, 0, DETECTION_FLAGS, windowSize,
+                            windowSize);
+                    rawRects.add(levelRects, offsetX, offsetY, scale, scaledWindowWidth, scaledWindowHeight);
+                }
+                if (view != levelImage) {
+                    view.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Raw detections of one technique gathered over pyramid levels, as x, y, width, height.
+     */
+    private static final class RawRects {
+
+        private int[] values = new int[4 * 64];
+
+        private int size;
+
+        private int[] levelValues = new int[4 * 64];
+
+        void add(MatOfRect levelRects, int offsetX, int offsetY, double scale, int width, int height) {
+            int numRects = (int) levelRects.total();
+            if (numRects == 0) {
+                return;
+            }
+            if (levelValues.length < 4 * numRects) {
+                levelValues = new int[4 * numRects];
+            }
+            levelRects.get(0, 0, levelValues);
+            if (values.length < 4 * (size + numRects)) {
+                values = Arrays.copyOf(values, Math.max(2 * values.length, 4 * (size + numRects)));
+            }
+            for (int i = 0; i < numRects; i++) {
+                int index = 4 * (size + i);
+                values[index] = (int) Math.rint((levelValues[4 * i] + offsetX) * scale);
+                values[index + 1] = (int) Math.rint((levelValues[4 * i + 1] + offsetY) * scale);
+                values[index + 2] = width;
+                values[index + 3] = height;
+            }
+            size += numRects;
+        }
+
+        MatOfRect toMatOfRect() {
+            MatOfRect rects = new MatOfRect();
+            if (size > 0) {
+                rects.alloc(size);
+                rects.put(0, 0, values);
+            }
+            return rects;
+        }
+    }
+
+    /**
+     * Runs every technique on {@link #DETECTION_EXECUTOR}. Each technique uses its own classifier instance, so the
+     * classifiers never share state, while the input image is only read.
+     */
+    private List<FeatureRects> detectFaceRectsInParallel(Mat inputImage,
+                                                         Map<ClassifierTechnique, Long> techniqueTimings)
+            throws FaceDetectorException {
+        List<TechniqueTask> tasks = new ArrayList<>(DETECTION_TECHNIQUES.length);
+        List<Future<FeatureRects>> futures = new ArrayList<>(DETECTION_TECHNIQUES.length);
+        List<FeatureRects> faceRects = new ArrayList<>(DETECTION_TECHNIQUES.length);
+        try {
+            for (ClassifierTechnique technique : DETECTION_TECHNIQUES) {
+                TechniqueTask task = new TechniqueTask(inputImage, technique, techniqueTimings);
+                tasks.add(task);
+                futures.add(DETECTION_EXECUTOR.submit(task));
+            }
+
+            int count = 0;
+            for (int index = 0; index < futures.size(); index++) {
+                if (index == 2 && count == 0) {
+                    // Same early exit as sequential mode. Techniques which have not started yet are never run.
+                    break;
+                }
+                FeatureRects featureRects = futures.get(index).get();
+                faceRects.add(featureRects);
+                count += featureRects.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FaceDetectorException("Interrupted while waiting for parallel face detection", e);
+        } catch (ExecutionException e) {
+            throw new FaceDetectorException("Parallel face detection failed: " + e.getCause(), e.getCause());
+        } finally {
+            // Classifiers are given back to the factory once detection completes. Never hand them back while a
+            // technique is still running on them.
+            for (TechniqueTask task : tasks) {
+                task.skipOrAwait();
+            }
+        }
+        return faceRects;
+    }
+
+    /**
+     * Runs a single technique on {@link #DETECTION_EXECUTOR}. A task can be skipped only before it has started,
+     * since a running detectMultiScale call can't be interrupted.
+     */
+    private final class TechniqueTask implements Callable<FeatureRects> {
+
+        private final Mat inputImage;
+
+        private final ClassifierTechnique technique;
+
+        private final Map<ClassifierTechnique, Long> techniqueTimings;
+
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        TechniqueTask(Mat inputImage, ClassifierTechnique technique, Map<ClassifierTechnique, Long> techniqueTimings) {
+            this.inputImage = inputImage;
+            this.technique = technique;
+            this.techniqueTimings = techniqueTimings;
+        }
+
+        @Override
+        public FeatureRects call() throws Exception {
+            if (!claimed.compareAndSet(false, true)) {
+                return new FeatureRects(1);
+            }
+            try {
+                return timedDetectFaceRects(inputImage, technique, techniqueTimings);
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Prevents the task from running if it has not started yet, else waits for it to finish.
+         */
+        void skipOrAwait() {
+            if (claimed.compareAndSet(false, true)) {
+                return;
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private FeatureRects timedDetectFaceRects(Mat inputImage, ClassifierTechnique technique,
+                                              Map<ClassifierTechnique, Long> techniqueTimings)
+            throws FaceDetectorException {
+        long startTime = System.nanoTime();
+        FeatureRects featureRects = detectFaceRects(inputImage, technique);
+        long elapsedNanos = System.nanoTime() - startTime;
+        TECHNIQUE_TIMERS.get(technique).record(elapsedNanos);
+        techniqueTimings.put(technique, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        return featureRects;
+    }
+
+    /**
+     * Returns classifiers to the factory. Same as {@link #close()}.
+     */
+    public void deallocateResources() {
+        close();
+    }
+
+    /**
+     * Returns classifiers to the factory. Calling it again has no effect.
+     */
+    @Override
+    public void close() {
+        classifierLease.close();
+        LOGGER.debug("Critical resource returned.");
     }
 }
@@ -7,4 +7,8 @@ public class FaceDetectorException extends Exception {
     public FaceDetectorException(String string) {
         super(string);
     }
+
+    public FaceDetectorException(String string, Throwable cause) {
+        super(string, cause);
+    }
 }
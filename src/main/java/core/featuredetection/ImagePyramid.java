@@ -0,0 +1,102 @@
+package main.java.core.featuredetection;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Downscaled copies of an image, one per scale that detectMultiScale would evaluate: level k is the image resized by
+ * 1 / scaleFactor^k, the same way and with the same rounding as OpenCV's cascade classifier builds its own pyramid.
+ * Built once and shared by all classifiers, instead of each detectMultiScale call building its own.
+ */
+class ImagePyramid implements AutoCloseable {
+
+    /**
+     * A level of the pyramid.
+     */
+    static final class Level {
+
+        private final double scale;
+
+        private final Mat image;
+
+        Level(double scale, Mat image) {
+            this.scale = scale;
+            this.image = image;
+        }
+
+        /**
+         * @return How much larger the original image is than this level.
+         */
+        double getScale() {
+            return scale;
+        }
+
+        Mat getImage() {
+            return image;
+        }
+    }
+
+    private final List<Level> levels;
+
+    /**
+     * @param image         The image, level 0 shares it without a copy.
+     * @param scaleFactor   How much each level is smaller than the previous one, as in detectMultiScale.
+     * @param minWindowSize Smallest classifier window. Levels smaller than it are not built.
+     */
+    ImagePyramid(Mat image, double scaleFactor, Size minWindowSize) {
+        this(image, scaleFactor, minWindowSize, 1);
+    }
+
+    /**
+     * @param image         The image, level 0 shares it without a copy.
+     * @param scaleFactor   How much each level is smaller than the previous one, as in detectMultiScale.
+     * @param minWindowSize Smallest classifier window. Levels smaller than it are not built.
+     * @param minScale      Levels scaled by less than this are not built, while the rest keep their scales.
+     */
+    ImagePyramid(Mat image, double scaleFactor, Size minWindowSize, double minScale) {
+        Size imageSize = image.size();
+        List<Level> builtLevels = new ArrayList<>();
+        for (double scale = 1; ; scale *= scaleFactor) {
+            if (scale < minScale) {
+                continue;
+            }
+            Size levelSize = new Size(Math.rint(imageSize.width / scale), Math.rint(imageSize.height / scale));
+            if (levelSize.width < minWindowSize.width || levelSize.height < minWindowSize.height) {
+                break;
+            }
+            Mat levelImage;
+            if (scale == 1) {
+                levelImage = image;
+            } else {
+                levelImage = new Mat();
+                Imgproc.resize(image, levelImage, levelSize, 0, 0, Imgproc.INTER_LINEAR);
+            }
+            builtLevels.add(new Level(scale, levelImage));
+        }
+        this.levels = Collections.unmodifiableList(builtLevels);
+    }
+
+    /**
+     * @return Levels from the largest(the image itself, unless skipped by minScale) to the smallest.
+     */
+    List<Level> getLevels() {
+        return levels;
+    }
+
+    /**
+     * Releases native memory of all levels, except level 0 which belongs to the caller.
+     */
+    @Override
+    public void close() {
+        for (Level level : levels) {
+            if (level.getScale() != 1) {
+                level.getImage().release();
+            }
+        }
+    }
+}
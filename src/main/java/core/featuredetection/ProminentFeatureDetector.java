@@ -1,99 +1,159 @@
 package main.java.core.featuredetection;
 
-import main.java.core.featuredetection.dataSorting.SortByScore;
+import com.drew.metadata.Metadata;
+import main.java.core.cache.ContentKey;
+import main.java.core.cache.ResultCaches;
+import main.java.core.featuredetection.datapojo.DetectionOptions;
 import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.featuredetection.datapojo.FeatureRects;
+import main.java.core.imagemetadataprocess.ImageMetadataAnalysisResult;
+import main.java.core.imagemetadataprocess.MetadataAnalyzer;
+import main.java.core.imageprocess.AnimationFrameReader;
+import main.java.core.imageprocess.DetectionFrame;
+import main.java.core.imageprocess.ImageProcessor;
+import main.java.core.imageprocess.PreprocessingPipeline;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.Counter;
+import main.java.core.metrics.MetricsRegistry;
 import main.java.utils.FileUtils;
-import main.java.utils.MathUtils;
-import main.java.utils.StrUtils;
-import org.opencv.core.Mat;
 import org.opencv.core.Size;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
 
-import java.util.Collections;
+import java.awt.Dimension;
+import java.nio.ByteBuffer;
 import java.util.List;
-
-import static main.java.core.constants.Constants.FACE_DETECTION_INPUT_IMAGE_SUFFIX;
+import java.util.concurrent.TimeUnit;
 
 public class ProminentFeatureDetector {
 
+    private static final Logger LOGGER = Logger.getLogger(ProminentFeatureDetector.class);
+
     private static final Size MAX_IMAGE_PROCESSING_SIZE = new Size(700, 700);
 
     /**
-     * This function takes an Image and detect all faces in it.
+     * Processing size of {@link DetectionMode#TILED}, which keeps images up to 64 mega pixels at full resolution.
+     */
+    private static final Size HIGH_RESOLUTION_PROCESSING_SIZE = new Size(8192, 8192);
+
+    private static final Counter IMAGES_COUNTER = MetricsRegistry.getInstance().counter("images.detected");
+
+    private static final Counter FACES_COUNTER = MetricsRegistry.getInstance().counter("faces.found");
+
+    /**
+     * This function takes an Image and detect all faces in it. Image is decoded in memory, local images are
+     * memory-mapped and url images are downloaded into memory. Exif orientation is applied to the decoded pixels.
      *
      * @return
      * @throws Exception
      */
-    private static List<FeatureOfInterest> extractFaces(String imagePath, int maxNumberOfFaces, boolean isUrl) throws
-            Exception {
-        FaceDetector faceDetector = null;
+    private static List<FeatureOfInterest> extractFaces(String imagePath, boolean isUrl, DetectionOptions options,
+                                                        Metadata metadata,
+                                                        ImageMetadataAnalysisResult metadataAnalysisResult)
+            throws Exception {
         List<FeatureOfInterest> featureOfInterests;
 
-        System.out.println("Started processing:" + imagePath);
+        LOGGER.debug("Started processing: {}", imagePath);
         try {
-            faceDetector = new FaceDetector(); // Fetch all required resources(classifiers)
-            Mat originalMat;
-            String destinationFilePath = null;
+            byte[] imageBytes;
             if (isUrl) {
-                // Note: This will download image to temporary folder and reorient it.
-                originalMat = FileUtils.loadMatImageFromUrl(imagePath);
-            } else {
-                // Create a copy of this image to generate re-oriented image
-                destinationFilePath = StrUtils.addSuffixToFileName(imagePath, FACE_DETECTION_INPUT_IMAGE_SUFFIX);
-                FileUtils.copyFile(imagePath, destinationFilePath);
-                originalMat = Imgcodecs.imread(destinationFilePath);
-            }
-            double scaleFactor = MathUtils.resizeToBoundingRect(originalMat, MAX_IMAGE_PROCESSING_SIZE);
-            Mat rescaledMat = new Mat();
-            if (scaleFactor < 1) {
-                Imgproc.resize(originalMat, rescaledMat, new Size(0, 0), scaleFactor, scaleFactor, Imgproc.INTER_CUBIC);
-                System.out.println("Image re-sized to: " + rescaledMat.size());
+                imageBytes = FileUtils.loadImageBytesFromUrl(imagePath);
             } else {
-                rescaledMat = originalMat;
-                System.out.println("No resizing required.");
+                imageBytes = ImageProcessor.toByteArray(FileUtils.mapFile(imagePath));
             }
 
-            featureOfInterests = faceDetector.detectFaces(rescaledMat);
+            // Use already parsed metadata for orientation if caller has it, else parse it from the bytes.
+            featureOfInterests = detectProminentFeatures(imageBytes, options, metadata, metadataAnalysisResult);
+        } catch (Exception e) {
+            LOGGER.error("Exception during face detection for image url: {}", imagePath, e);
+            throw e;
+        }
 
-            // Sort in descending order using detection score
-            Collections.sort(featureOfInterests, new SortByScore());
+        LOGGER.debug("End processing: {}", imagePath);
 
-            // Extract top detection score faces
-            if (featureOfInterests.size() > maxNumberOfFaces) {
-                featureOfInterests = featureOfInterests.subList(0, maxNumberOfFaces);
-            }
+        return featureOfInterests;
+    }
 
-            // Multiply each rect with 1/scaleFactor if scaleFactor is not 1
-            double inverseScaleFactor = 1.0 / scaleFactor;
-            for (FeatureOfInterest featureOfInterest : featureOfInterests) {
-                if (scaleFactor != 1.0) {
-                    featureOfInterest.setFeatureROI(MathUtils.resizeRect(featureOfInterest.getFeatureROI(),
-                            inverseScaleFactor));
+    /**
+     * This function detects all faces in an encoded image held in memory. With multi frame option, all distinct
+     * frames of an animated image are detected, see {@link AnimatedFeatureDetector}.
+     *
+     * @param storedImageDimension The image size from file header, before orientation. Needed for reduced decode,
+     *                             can be null.
+     */
+    private static List<FeatureOfInterest> extractFaces(byte[] imageBytes, DetectionOptions options,
+                                                        int orientationValue, Dimension storedImageDimension)
+            throws Exception {
+        if (options.isMultiFrame() && AnimationFrameReader.isAnimationFormat(imageBytes)) {
+            try (AnimationFrameReader reader = AnimationFrameReader.open(imageBytes)) {
+                if (reader != null) {
+                    return AnimatedFeatureDetector.extractFaces(reader, options);
                 }
-                // This function call adds computation for other image sizes used in Roposo
-                featureOfInterest.setImageSize(originalMat.size());
             }
+            LOGGER.debug("No frame reader for animated image, detecting its first frame only");
+        }
+        PreprocessingPipeline preprocessingPipeline = newPreprocessingPipeline(options);
+        try (DetectionFrame detectionFrame = preprocessingPipeline.process(imageBytes, orientationValue,
+                storedImageDimension)) {
+            return extractFaces(detectionFrame, options);
+        }
+    }
 
-            // Delete copied file
-            if (!isUrl)
-                FileUtils.deleteFile(destinationFilePath);
+    /**
+     * Same as {@link #extractFaces(byte[], DetectionOptions, int, Dimension)}, answered from
+     * {@link ResultCaches#detections()} if the same image was processed with the same options before. Orientation
+     * is only read on a miss.
+     */
+    private static List<FeatureOfInterest> extractFaces(byte[] imageBytes, ContentKey contentKey,
+                                                        DetectionOptions options, Metadata metadata,
+                                                        ImageMetadataAnalysisResult metadataAnalysisResult)
+            throws Exception {
+        Dimension storedImageDimension = (metadataAnalysisResult != null) ?
+                metadataAnalysisResult.getImageDimension() : null;
+        ContentKey key = ResultCaches.detectionKey(contentKey, options, storedImageDimension != null,
+                AnimationFrameReader.isAnimationFormat(imageBytes));
+        List<FeatureOfInterest> featureOfInterests = ResultCaches.detections().get(key);
+        if (featureOfInterests != null) {
+            LOGGER.debug("Detection result found in cache for image {}", contentKey);
+            return featureOfInterests;
+        }
 
+        int orientationValue;
+        if (metadata != null) {
+            orientationValue = ImageProcessor.imageOrientationValue(metadata);
+        } else if (metadataAnalysisResult != null && metadataAnalysisResult.getOrientationValue() > 0) {
+            orientationValue = metadataAnalysisResult.getOrientationValue();
+        } else {
+            orientationValue = ImageProcessor.imageOrientationValue(imageBytes);
+        }
+        featureOfInterests = extractFaces(imageBytes, options, orientationValue, storedImageDimension);
+        ResultCaches.detections().put(key, featureOfInterests);
+        return featureOfInterests;
+    }
 
-            // Release resources
-            faceDetector.deallocateResources();
+    /**
+     * This function detects all faces in a preprocessed frame and maps rects back to the original image.
+     */
+    private static List<FeatureOfInterest> extractFaces(DetectionFrame detectionFrame, DetectionOptions options)
+            throws Exception {
+        FeatureRects featureRects;
 
-            faceDetector = null;
-        } catch (Exception e) {
-            System.out.println("Exception during face detection for image url: " + imagePath + " " + e.getMessage());
-            throw e;
-        } finally {
-            if (faceDetector != null) {
-                faceDetector.deallocateResources();
-            }
+        // Fetch all required resources(classifiers), they are returned as soon as detection completes.
+        try (FaceDetector faceDetector = new FaceDetector(options.getBorrowTimeoutMillis(), TimeUnit.MILLISECONDS,
+                options.getBorrowPolicy())) {
+            featureRects = faceDetector.detectFaces(detectionFrame.getImage(), options.getDetectionMode());
         }
 
-        System.out.println("End processing:" + imagePath);
+        // Extract top detection score faces, in descending order of score
+        featureRects.selectTopK(options.getMaxNumberOfFeatures());
+        List<FeatureOfInterest> featureOfInterests = featureRects.toFeatureOfInterests();
+
+        // Map each rect from the downscaled frame to the original image
+        for (FeatureOfInterest featureOfInterest : featureOfInterests) {
+            featureOfInterest.setFeatureROI(detectionFrame.toOriginal(featureOfInterest.getFeatureROI()));
+            // This function call adds computation for other image sizes used in Roposo
+            featureOfInterest.setImageSize(detectionFrame.getOriginalImageSize());
+        }
+        IMAGES_COUNTER.increment();
+        FACES_COUNTER.add(featureOfInterests.size());
 
         return featureOfInterests;
     }
@@ -110,6 +170,135 @@ public class ProminentFeatureDetector {
      */
     public static List<FeatureOfInterest> detectProminentFeatures(String imagePath, int maxNumberOfFeatures, boolean
             isUrl) throws Exception {
-        return extractFaces(imagePath, maxNumberOfFeatures, isUrl);
+        return detectProminentFeatures(imagePath, maxNumberOfFeatures, isUrl, DetectionMode.SEQUENTIAL);
+    }
+
+    /**
+     * This function detects all faces in image and returns top N faces rect with highest detection score.
+     *
+     * @param imagePath           The image url or local image path
+     * @param maxNumberOfFeatures Maximum Number of Features to return
+     * @param isUrl               If the path to image is url or local path.
+     * @param detectionMode       How the classifier techniques are run over the image.
+     * @return The rect which stores the location of face in image. Location is in reference to top-left corner of
+     * the images.
+     * @throws Exception
+     */
+    public static List<FeatureOfInterest> detectProminentFeatures(String imagePath, int maxNumberOfFeatures, boolean
+            isUrl, DetectionMode detectionMode) throws Exception {
+        return extractFaces(imagePath, isUrl, new DetectionOptions(maxNumberOfFeatures, detectionMode), null, null);
+    }
+
+    /**
+     * This function detects all faces in image and returns top N faces rect with highest detection score. Callers
+     * that have already parsed and analysed image metadata pass it on, so that image is not parsed again.
+     *
+     * @param imagePath              The image url or local image path
+     * @param isUrl                  If the path to image is url or local path.
+     * @param options                The detection parameters.
+     * @param metadata               The already parsed metadata of the image, used for orientation. If null,
+     *                               orientation is read from the image.
+     * @param metadataAnalysisResult The metadata analysis of the image, used for image size in reduced decode. Can
+     *                               be null.
+     * @return The rect which stores the location of face in image. Location is in reference to top-left corner of
+     * the images.
+     * @throws Exception
+     */
+    public static List<FeatureOfInterest> detectProminentFeatures(String imagePath, boolean isUrl,
+                                                                  DetectionOptions options, Metadata metadata,
+                                                                  ImageMetadataAnalysisResult metadataAnalysisResult)
+            throws Exception {
+        return extractFaces(imagePath, isUrl, options, metadata, metadataAnalysisResult);
+    }
+
+    /**
+     * This function detects all faces in an encoded image held in memory and returns top N faces rect with highest
+     * detection score. Use this when image is already in memory(request payload, S3 object stream) to avoid
+     * writing it to disk.
+     *
+     * @param imageBytes          The encoded image(jpeg, png, webp...)
+     * @param maxNumberOfFeatures Maximum Number of Features to return
+     * @param detectionMode       How the classifier techniques are run over the image.
+     * @return The rect which stores the location of face in image. Location is in reference to top-left corner of
+     * the images.
+     * @throws Exception
+     */
+    public static List<FeatureOfInterest> detectProminentFeatures(byte[] imageBytes, int maxNumberOfFeatures,
+                                                                  DetectionMode detectionMode) throws Exception {
+        return extractFaces(imageBytes, ContentKey.of(imageBytes), new DetectionOptions(maxNumberOfFeatures,
+                detectionMode), null, null);
+    }
+
+    /**
+     * This function detects all faces in an encoded image held in memory, using metadata the caller has already
+     * parsed and analysed.
+     *
+     * @param imageBytes             The encoded image(jpeg, png, webp...)
+     * @param options                The detection parameters.
+     * @param metadata               The parsed metadata of the image, used for orientation. If null, orientation
+     *                               is read from the image.
+     * @param metadataAnalysisResult The metadata analysis of the image, used for image size in reduced decode. Can
+     *                               be null.
+     * @return The rect which stores the location of face in image.
+     * @throws Exception
+     */
+    public static List<FeatureOfInterest> detectProminentFeatures(byte[] imageBytes, DetectionOptions options,
+                                                                  Metadata metadata,
+                                                                  ImageMetadataAnalysisResult metadataAnalysisResult)
+            throws Exception {
+        return extractFaces(imageBytes, ContentKey.of(imageBytes), options, metadata, metadataAnalysisResult);
+    }
+
+    /**
+     * Same as {@link #detectProminentFeatures(byte[], DetectionOptions, Metadata, ImageMetadataAnalysisResult)},
+     * for callers which have already hashed the image, e.g. for {@link MetadataAnalyzer#analyzeImage(byte[],
+     * ContentKey)}. Orientation is taken from metadataAnalysisResult.
+     *
+     * @param imageBytes             The encoded image(jpeg, png, webp...)
+     * @param contentKey             Key of imageBytes, see {@link ContentKey#of(byte[])}.
+     * @param options                The detection parameters.
+     * @param metadataAnalysisResult The metadata analysis of the image. Can be null.
+     * @return The rect which stores the location of face in image.
+     * @throws Exception
+     */
+    public static List<FeatureOfInterest> detectProminentFeatures(byte[] imageBytes, ContentKey contentKey,
+                                                                  DetectionOptions options,
+                                                                  ImageMetadataAnalysisResult metadataAnalysisResult)
+            throws Exception {
+        return extractFaces(imageBytes, contentKey, options, null, metadataAnalysisResult);
+    }
+
+    /**
+     * Same as {@link #detectProminentFeatures(byte[], int, DetectionMode)} for an image held in a buffer, from its
+     * position up to its limit. Can be a heap, direct or memory-mapped buffer.
+     */
+    public static List<FeatureOfInterest> detectProminentFeatures(ByteBuffer imageBuffer, int maxNumberOfFeatures,
+                                                                  DetectionMode detectionMode) throws Exception {
+        return detectProminentFeatures(ImageProcessor.toByteArray(imageBuffer), maxNumberOfFeatures, detectionMode);
+    }
+
+    /**
+     * @param options The detection parameters.
+     * @return The preprocessing applied to images before detection, for callers that decode images themselves.
+     */
+    public static PreprocessingPipeline newPreprocessingPipeline(DetectionOptions options) {
+        Size maxProcessingSize = (options.getDetectionMode() == DetectionMode.TILED) ?
+                HIGH_RESOLUTION_PROCESSING_SIZE : MAX_IMAGE_PROCESSING_SIZE;
+        return new PreprocessingPipeline(maxProcessingSize, options.isReducedDecode(),
+                options.isEqualizeHistogram());
+    }
+
+    /**
+     * This function detects all faces in a frame from {@link #newPreprocessingPipeline(DetectionOptions)} and
+     * returns top N faces rect with highest detection score. Frame is not closed.
+     *
+     * @param detectionFrame The preprocessed image.
+     * @param options        The detection parameters.
+     * @return The rect which stores the location of face in original image.
+     * @throws Exception
+     */
+    public static List<FeatureOfInterest> detectProminentFeatures(DetectionFrame detectionFrame,
+                                                                  DetectionOptions options) throws Exception {
+        return extractFaces(detectionFrame, options);
     }
 }
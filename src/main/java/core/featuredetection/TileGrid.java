@@ -0,0 +1,87 @@
+package main.java.core.featuredetection;
+
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits an image into a grid of tiles of about equal size. Each tile owns a core, the cores cover the image without
+ * overlapping, and is scanned over its core plus a margin on every side, so that a window of up to twice the margin
+ * centered in the core lies inside the tile. A detection is kept only by the tile owning its center, so detections
+ * in the overlap are not counted twice.
+ */
+class TileGrid {
+
+    /**
+     * A tile of the grid.
+     */
+    static final class Tile {
+
+        private final Rect core;
+
+        private final Rect extent;
+
+        Tile(Rect core, Rect extent) {
+            this.core = core;
+            this.extent = extent;
+        }
+
+        /**
+         * @return The part of the image scanned, core plus margin, clipped to the image.
+         */
+        Rect getExtent() {
+            return extent;
+        }
+
+        /**
+         * @return True if center of rect, in image coordinates, lies in the core of this tile.
+         */
+        boolean owns(int x, int y, int width, int height) {
+            int centerX = x + width / 2;
+            int centerY = y + height / 2;
+            return centerX >= core.x && centerX < core.x + core.width && centerY >= core.y &&
+                    centerY < core.y + core.height;
+        }
+    }
+
+    private final List<Tile> tiles;
+
+    /**
+     * @param imageSize The image size.
+     * @param coreSize  Largest core width and height.
+     * @param margin    Space scanned beyond the core on every side.
+     */
+    TileGrid(Size imageSize, int coreSize, int margin) {
+        int width = (int) imageSize.width;
+        int height = (int) imageSize.height;
+        int columns = Math.max(1, (width + coreSize - 1) / coreSize);
+        int rows = Math.max(1, (height + coreSize - 1) / coreSize);
+        List<Tile> gridTiles = new ArrayList<>(columns * rows);
+        for (int row = 0; row < rows; row++) {
+            int top = row * height / rows;
+            int bottom = (row + 1) * height / rows;
+            for (int column = 0; column < columns; column++) {
+                int left = column * width / columns;
+                int right = (column + 1) * width / columns;
+                Rect core = new Rect(left, top, right - left, bottom - top);
+                int extentLeft = Math.max(0, left - margin);
+                int extentTop = Math.max(0, top - margin);
+                int extentRight = Math.min(width, right + margin);
+                int extentBottom = Math.min(height, bottom + margin);
+                gridTiles.add(new Tile(core, new Rect(extentLeft, extentTop, extentRight - extentLeft,
+                        extentBottom - extentTop)));
+            }
+        }
+        this.tiles = Collections.unmodifiableList(gridTiles);
+    }
+
+    /**
+     * @return Tiles row by row, from the top left one.
+     */
+    List<Tile> getTiles() {
+        return tiles;
+    }
+}
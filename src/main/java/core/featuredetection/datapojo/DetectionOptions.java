@@ -0,0 +1,127 @@
+package main.java.core.featuredetection.datapojo;
+
+import main.java.core.featuredetection.DetectionMode;
+import main.java.core.featuredetection.factory.BorrowPolicy;
+import main.java.core.featuredetection.factory.CascadeClassifierFactory;
+
+/**
+ * This class holds the parameters of a prominent feature detection request.
+ */
+public class DetectionOptions {
+
+    /**
+     * Maximum number of features to return, highest detection score first.
+     */
+    private int maxNumberOfFeatures;
+
+    /**
+     * How classifier techniques are run over the image.
+     */
+    private DetectionMode detectionMode;
+
+    /**
+     * Decode jpeg images directly at reduced resolution close to the processing size. Needs the stored image
+     * dimension from metadata, else image is decoded at full resolution.
+     */
+    private boolean reducedDecode;
+
+    /**
+     * Equalize histogram of the grayscale image before detection. Helps on low contrast images.
+     */
+    private boolean equalizeHistogram;
+
+    /**
+     * Detect faces in all distinct frames of animated images and keep the most prominent across them, instead of
+     * only the first frame.
+     */
+    private boolean multiFrame;
+
+    /**
+     * The maximum time to wait for free classifiers.
+     */
+    private long borrowTimeoutMillis;
+
+    /**
+     * What to do if classifiers are not free within borrowTimeoutMillis.
+     */
+    private BorrowPolicy borrowPolicy;
+
+    public DetectionOptions() {
+        maxNumberOfFeatures = 1;
+        detectionMode = DetectionMode.SEQUENTIAL;
+        reducedDecode = false;
+        equalizeHistogram = false;
+        multiFrame = false;
+        borrowTimeoutMillis = CascadeClassifierFactory.DEFAULT_BORROW_TIMEOUT_MILLIS;
+        borrowPolicy = BorrowPolicy.FAIL_FAST;
+    }
+
+    public DetectionOptions(int maxNumberOfFeatures, DetectionMode detectionMode) {
+        this();
+        this.maxNumberOfFeatures = maxNumberOfFeatures;
+        this.detectionMode = detectionMode;
+    }
+
+    public int getMaxNumberOfFeatures() {
+        return maxNumberOfFeatures;
+    }
+
+    public void setMaxNumberOfFeatures(int maxNumberOfFeatures) {
+        this.maxNumberOfFeatures = maxNumberOfFeatures;
+    }
+
+    public DetectionMode getDetectionMode() {
+        return detectionMode;
+    }
+
+    public void setDetectionMode(DetectionMode detectionMode) {
+        this.detectionMode = detectionMode;
+    }
+
+    public boolean isReducedDecode() {
+        return reducedDecode;
+    }
+
+    public void setReducedDecode(boolean reducedDecode) {
+        this.reducedDecode = reducedDecode;
+    }
+
+    public boolean isEqualizeHistogram() {
+        return equalizeHistogram;
+    }
+
+    public void setEqualizeHistogram(boolean equalizeHistogram) {
+        this.equalizeHistogram = equalizeHistogram;
+    }
+
+    public boolean isMultiFrame() {
+        return multiFrame;
+    }
+
+    public void setMultiFrame(boolean multiFrame) {
+        this.multiFrame = multiFrame;
+    }
+
+    public long getBorrowTimeoutMillis() {
+        return borrowTimeoutMillis;
+    }
+
+    public void setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+    }
+
+    public BorrowPolicy getBorrowPolicy() {
+        return borrowPolicy;
+    }
+
+    public void setBorrowPolicy(BorrowPolicy borrowPolicy) {
+        this.borrowPolicy = borrowPolicy;
+    }
+
+    @Override
+    public String toString() {
+        return "DetectionOptions [maxNumberOfFeatures=" + maxNumberOfFeatures + ", detectionMode=" + detectionMode
+                + ", reducedDecode=" + reducedDecode + ", equalizeHistogram=" + equalizeHistogram + ", multiFrame="
+                + multiFrame + ", borrowTimeoutMillis=" + borrowTimeoutMillis + ", borrowPolicy=" + borrowPolicy + "]";
+    }
+}
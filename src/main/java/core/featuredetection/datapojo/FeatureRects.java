@@ -0,0 +1,232 @@
+package main.java.core.featuredetection.datapojo;
+
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Detected rects held as parallel primitive arrays of x, y, width, height, score and type, so that detection results
+ * are not boxed rect by rect. Convert to {@link FeatureOfInterest} only at the API boundary, after
+ * {@link #selectTopK(int)} has kept the few rects that are returned.
+ */
+public class FeatureRects {
+
+    private static final FeatureOfInterest.FeatureType[] FEATURE_TYPES = FeatureOfInterest.FeatureType.values();
+
+    private int size;
+
+    private int[] x;
+
+    private int[] y;
+
+    private int[] width;
+
+    private int[] height;
+
+    private double[] score;
+
+    private int[] type;
+
+    public FeatureRects() {
+        this(8);
+    }
+
+    public FeatureRects(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        x = new int[capacity];
+        y = new int[capacity];
+        width = new int[capacity];
+        height = new int[capacity];
+        score = new double[capacity];
+        type = new int[capacity];
+    }
+
+    /**
+     * Reads rects and their weights from detectMultiScale/groupRectangles output in bulk.
+     *
+     * @param rects       The detected rects.
+     * @param weights     Weight of each rect, used as score. If it does not have a weight per rect, score is 0.
+     * @param featureType Type of all rects.
+     * @return The rects.
+     */
+    public static FeatureRects fromMat(MatOfRect rects, MatOfInt weights, FeatureOfInterest.FeatureType featureType) {
+        int numRects = (int) rects.total();
+        FeatureRects featureRects = new FeatureRects(numRects);
+        if (numRects == 0) {
+            return featureRects;
+        }
+        int[] rectValues = new int[4 * numRects];
+        rects.get(0, 0, rectValues);
+        int[] weightValues = new int[numRects];
+        if (weights != null && weights.total() == numRects) {
+            weights.get(0, 0, weightValues);
+        }
+        for (int i = 0; i < numRects; i++) {
+            featureRects.add(rectValues[4 * i], rectValues[4 * i + 1], rectValues[4 * i + 2],
+                    rectValues[4 * i + 3], featureType, weightValues[i]);
+        }
+        return featureRects;
+    }
+
+    public void add(int x, int y, int width, int height, FeatureOfInterest.FeatureType featureType, double score) {
+        if (size == this.x.length) {
+            grow(2 * size);
+        }
+        this.x[size] = x;
+        this.y[size] = y;
+        this.width[size] = width;
+        this.height[size] = height;
+        this.score[size] = score;
+        this.type[size] = featureType.ordinal();
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getX(int index) {
+        return x[index];
+    }
+
+    public int getY(int index) {
+        return y[index];
+    }
+
+    public int getWidth(int index) {
+        return width[index];
+    }
+
+    public int getHeight(int index) {
+        return height[index];
+    }
+
+    public double getScore(int index) {
+        return score[index];
+    }
+
+    public FeatureOfInterest.FeatureType getFeatureType(int index) {
+        return FEATURE_TYPES[type[index]];
+    }
+
+    public Rect getRect(int index) {
+        return new Rect(x[index], y[index], width[index], height[index]);
+    }
+
+    /**
+     * Keeps the k highest scored rects, in descending order of score. Rects with equal score keep their order, as
+     * with a stable sort. Only k rects are ever ordered, so it costs O(n * k) instead of a full sort when k is small.
+     *
+     * @param k Number of rects to keep.
+     */
+    public void selectTopK(int k) {
+        int numSelected = Math.min(Math.max(0, k), size);
+        int[] selected = new int[numSelected];
+        if (numSelected == size) {
+            // Everything is kept, only order is needed.
+            for (int i = 0; i < size; i++) {
+                selected[i] = i;
+            }
+            mergeSortByScoreDescending(selected);
+        } else {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (count == numSelected && (numSelected == 0 || score[i] <= score[selected[count - 1]])) {
+                    continue;
+                }
+                // Insert after all rects with equal or higher score.
+                int position = Math.min(count, numSelected - 1);
+                while (position > 0 && score[selected[position - 1]] < score[i]) {
+                    selected[position] = selected[position - 1];
+                    position--;
+                }
+                selected[position] = i;
+                count = Math.min(count + 1, numSelected);
+            }
+        }
+        reorder(selected);
+    }
+
+    /**
+     * @return A FeatureOfInterest per rect, in current order.
+     */
+    public List<FeatureOfInterest> toFeatureOfInterests() {
+        List<FeatureOfInterest> featureOfInterests = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            featureOfInterests.add(new FeatureOfInterest(getRect(i), getFeatureType(i), score[i]));
+        }
+        return featureOfInterests;
+    }
+
+    private void mergeSortByScoreDescending(int[] indices) {
+        int[] buffer = new int[indices.length];
+        for (int runWidth = 1; runWidth < indices.length; runWidth *= 2) {
+            for (int left = 0; left < indices.length - runWidth; left += 2 * runWidth) {
+                int middle = left + runWidth;
+                int right = Math.min(left + 2 * runWidth, indices.length);
+                int i = left, j = middle, k = left;
+                while (i < middle && j < right) {
+                    buffer[k++] = (score[indices[j]] > score[indices[i]]) ? indices[j++] : indices[i++];
+                }
+                while (i < middle) {
+                    buffer[k++] = indices[i++];
+                }
+                while (j < right) {
+                    buffer[k++] = indices[j++];
+                }
+                System.arraycopy(buffer, left, indices, left, right - left);
+            }
+        }
+    }
+
+    private void reorder(int[] indices) {
+        int[] newX = new int[Math.max(1, indices.length)];
+        int[] newY = new int[newX.length];
+        int[] newWidth = new int[newX.length];
+        int[] newHeight = new int[newX.length];
+        double[] newScore = new double[newX.length];
+        int[] newType = new int[newX.length];
+        for (int i = 0; i < indices.length; i++) {
+            newX[i] = x[indices[i]];
+            newY[i] = y[indices[i]];
+            newWidth[i] = width[indices[i]];
+            newHeight[i] = height[indices[i]];
+            newScore[i] = score[indices[i]];
+            newType[i] = type[indices[i]];
+        }
+        x = newX;
+        y = newY;
+        width = newWidth;
+        height = newHeight;
+        score = newScore;
+        type = newType;
+        size = indices.length;
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        score = Arrays.copyOf(score, capacity);
+        type = Arrays.copyOf(type, capacity);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            sb.append('{').append(x[i]).append(", ").append(y[i]).append(", ").append(width[i]).append(", ")
+                    .append(height[i]).append('}');
+        }
+        return sb.append(']').toString();
+    }
+}
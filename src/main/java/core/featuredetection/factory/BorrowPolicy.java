@@ -0,0 +1,16 @@
+package main.java.core.featuredetection.factory;
+
+/**
+ * What {@link CascadeClassifierFactory} does when no classifier is free within the borrow timeout.
+ */
+public enum BorrowPolicy {
+    /**
+     * Fail the borrow with a FaceDetectorException.
+     */
+    FAIL_FAST,
+
+    /**
+     * Load an extra classifier beyond the pool size. It is dropped on return if the pool is full.
+     */
+    OVERFLOW
+}
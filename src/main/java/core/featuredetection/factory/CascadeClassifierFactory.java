@@ -2,61 +2,338 @@ package main.java.core.featuredetection.factory;
 
 import main.java.core.featuredetection.ClassifierTechnique;
 import main.java.core.featuredetection.FaceDetectorException;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.Counter;
+import main.java.core.metrics.LatencyHistogram;
+import main.java.core.metrics.MetricsRegistry;
 import org.opencv.objdetect.CascadeClassifier;
 
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.Map;
-import java.util.concurrent.BlockingDeque;
+import java.util.Set;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Pools cascade classifiers per technique. Pools are elastic: no classifier is loaded until a technique is first
+ * borrowed, then one more is loaded whenever all are busy, up to the maximum pool size. Classifiers idle for longer
+ * than idle timeout are dropped on next return, keeping one per technique, so a burst does not hold memory forever.
+ * <p/>
+ * Pool size, idle timeout and classifier directory can be set with system properties
+ * serverlesscv.classifier.maxPoolSize, serverlesscv.classifier.idleTimeoutMillis and serverlesscv.classifier.dir.
+ *
  * @author SaurabhKhanduja
  */
 public class CascadeClassifierFactory {
 
-    private static final int MAX_NUM_CLASSIFIERS = Runtime.getRuntime().availableProcessors(); // This will allow as
-    // many threads as processors.
+    private static final int DEFAULT_MAX_POOL_SIZE = Integer.getInteger("serverlesscv.classifier.maxPoolSize",
+            Runtime.getRuntime().availableProcessors()); // This will allow as many threads as processors.
 
-    private Map<ClassifierTechnique, BlockingDeque<CascadeClassifier>> freeCascadeClassifiers;
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = Long.getLong("serverlesscv.classifier.idleTimeoutMillis",
+            5 * 60 * 1000L);
 
-    private static CascadeClassifierFactory factory;
+    private static final String CLASSIFIER_DIR = System.getProperty("serverlesscv.classifier.dir",
+            "resources/facedetectionclassifiers/");
 
-    static {
-        try {
-            factory = new CascadeClassifierFactory();
-            System.out.println(MAX_NUM_CLASSIFIERS + " Classifiers loaded.");
-        } catch (FaceDetectorException e) {
-            throw new ExceptionInInitializerError(e);
+    /**
+     * How long a borrow waits for a free classifier by default. A detection holds its classifiers for a few hundred
+     * milliseconds, so waiting longer than this means classifiers are leaking.
+     */
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(CascadeClassifierFactory.class);
+
+    private static final LatencyHistogram BORROW_TIMER = MetricsRegistry.getInstance().timer("pool.borrow");
+
+    private static final Counter TIMEOUT_COUNTER = MetricsRegistry.getInstance().counter("pool.timeouts");
+
+    private final int maxPoolSize;
+
+    private final long idleTimeoutNanos;
+
+    private final Map<ClassifierTechnique, TechniquePool> pools;
+
+    private static CascadeClassifierFactory factory = new CascadeClassifierFactory(DEFAULT_MAX_POOL_SIZE,
+            DEFAULT_IDLE_TIMEOUT_MILLIS);
+
+    /**
+     * Creates an empty factory. Use {@link #getInstance()}, unless a separately sized pool is needed.
+     *
+     * @param maxPoolSize       Maximum classifiers per technique, excluding overflow classifiers.
+     * @param idleTimeoutMillis Time after which an idle classifier is dropped, if more than one is loaded.
+     */
+    public CascadeClassifierFactory(int maxPoolSize, long idleTimeoutMillis) {
+        this.maxPoolSize = Math.max(1, maxPoolSize);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        pools = new EnumMap<>(ClassifierTechnique.class);
+        for (ClassifierTechnique technique : ClassifierTechnique.values()) {
+            pools.put(technique, new TechniquePool());
         }
+        LOGGER.info("Classifier pool created, up to {} classifiers per technique.", this.maxPoolSize);
     }
 
-    private CascadeClassifierFactory() throws FaceDetectorException {
-        freeCascadeClassifiers = new EnumMap<>(ClassifierTechnique.class);
-        ClassifierTechnique[] values = ClassifierTechnique.values();
+    private static CascadeClassifier loadClassifier(ClassifierTechnique technique) throws FaceDetectorException {
+        CascadeClassifier cascadeClassifier = new CascadeClassifier();
+        if (!cascadeClassifier.load(CLASSIFIER_DIR + technique.getResourceUrl())) {
+            throw new FaceDetectorException("Unable to load Classifier file: " + technique.getResourceUrl());
+        }
+        return cascadeClassifier;
+    }
+
+    public static CascadeClassifierFactory getInstance() {
+        return factory;
+    }
 
-        for (ClassifierTechnique value : values) {
+    /**
+     * @return Maximum classifiers per technique, the number of detections that can run at once without overflow.
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * Loads one classifier for each technique that has none yet. Call this during container warm up, so that first
+     * request does not pay for parsing classifier files.
+     *
+     * @param techniques The techniques which are going to be used.
+     * @throws FaceDetectorException If a classifier could not be loaded.
+     */
+    public void preload(Set<ClassifierTechnique> techniques) throws FaceDetectorException {
+        for (ClassifierTechnique technique : techniques) {
+            TechniquePool pool = pools.get(technique);
+            if (pool.tryReserve(1)) {
+                pool.idle.offerFirst(new IdleClassifier(loadReserved(technique, pool), System.nanoTime()));
+            }
+        }
+    }
 
-            freeCascadeClassifiers.put(value, new LinkedBlockingDeque<CascadeClassifier>(MAX_NUM_CLASSIFIERS));
-            for (int j = 0; j < MAX_NUM_CLASSIFIERS; j++) {
-                CascadeClassifier cascadeClassifier = new CascadeClassifier();
-                if (!cascadeClassifier.load("resources/facedetectionclassifiers/" + value.getResourceUrl())) {
-                    throw new FaceDetectorException("Unable to load Classifier file: " + value.getResourceUrl());
+    /**
+     * Borrows one classifier of each technique. All borrows share the timeout. If any of them fails, classifiers
+     * already borrowed are returned.
+     *
+     * @param techniques The techniques to borrow classifiers for.
+     * @param timeout    The maximum time to wait for all classifiers.
+     * @param unit       The unit of timeout.
+     * @param policy     What to do if no classifier is free within timeout.
+     * @return The lease, close it to return the classifiers.
+     * @throws FaceDetectorException If policy is FAIL_FAST and timeout elapsed, or a classifier could not be loaded.
+     * @throws InterruptedException
+     */
+    public ClassifierLease lease(Set<ClassifierTechnique> techniques, long timeout, TimeUnit unit,
+                                 BorrowPolicy policy) throws FaceDetectorException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        ClassifierLease lease = new ClassifierLease(this);
+        boolean leased = false;
+        try {
+            // Borrow in enum order, so concurrent leases never wait on each other in opposite order.
+            for (ClassifierTechnique technique : ClassifierTechnique.values()) {
+                if (techniques.contains(technique)) {
+                    lease.add(technique, borrow(technique, deadline - System.nanoTime(), policy));
                 }
-                freeCascadeClassifiers.get(value).add(cascadeClassifier);
+            }
+            leased = true;
+            return lease;
+        } finally {
+            if (!leased) {
+                lease.close();
             }
         }
     }
 
-    public static CascadeClassifierFactory getInstance() {
-        return factory;
+    /**
+     * Borrows a classifier, waiting at most {@link #DEFAULT_BORROW_TIMEOUT_MILLIS}. Prefer
+     * {@link #lease(Set, long, TimeUnit, BorrowPolicy)}, which returns classifiers on close.
+     */
+    public CascadeClassifier borrow(ClassifierTechnique technique) throws FaceDetectorException,
+            InterruptedException {
+        return borrow(technique, TimeUnit.MILLISECONDS.toNanos(DEFAULT_BORROW_TIMEOUT_MILLIS), BorrowPolicy.FAIL_FAST);
     }
 
-    public CascadeClassifier borrow(ClassifierTechnique technique) throws InterruptedException {
-        BlockingDeque<CascadeClassifier> classifiers = freeCascadeClassifiers.get(technique);
-        return classifiers.take();
+    private CascadeClassifier borrow(ClassifierTechnique technique, long timeoutNanos, BorrowPolicy policy)
+            throws FaceDetectorException, InterruptedException {
+        TechniquePool pool = pools.get(technique);
+
+        long startTime = System.nanoTime();
+        CascadeClassifier cascadeClassifier = null;
+        IdleClassifier idleClassifier = pool.idle.pollFirst();
+        if (idleClassifier == null && pool.tryReserve(maxPoolSize)) {
+            // All loaded classifiers are busy, grow the pool.
+            cascadeClassifier = loadReserved(technique, pool);
+        } else if (idleClassifier == null) {
+            idleClassifier = pool.idle.pollFirst(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+        }
+        if (idleClassifier != null) {
+            cascadeClassifier = idleClassifier.classifier;
+        }
+        long waitNanos = System.nanoTime() - startTime;
+        pool.recordBorrow(waitNanos);
+        BORROW_TIMER.record(waitNanos);
+
+        if (cascadeClassifier == null) {
+            pool.timeouts.incrementAndGet();
+            TIMEOUT_COUNTER.increment();
+            if (policy != BorrowPolicy.OVERFLOW) {
+                throw new FaceDetectorException("Timed out waiting for classifier " + technique + ", pool: " +
+                        getMetrics(technique));
+            }
+            LOGGER.warn("No free classifier for {}, loading an overflow classifier.", technique);
+            pool.loaded.incrementAndGet();
+            cascadeClassifier = loadReserved(technique, pool);
+            pool.overflows.incrementAndGet();
+        }
+        pool.borrowed.incrementAndGet();
+        return cascadeClassifier;
+    }
+
+    /**
+     * Borrows a classifier without waiting, for work that can go on with classifiers it already has.
+     *
+     * @return A free classifier, loading one if the pool is not full yet, or null if all are busy. Give it back
+     * with {@link #giveBack(ClassifierTechnique, CascadeClassifier)}.
+     * @throws FaceDetectorException If a classifier could not be loaded.
+     */
+    public CascadeClassifier tryBorrow(ClassifierTechnique technique) throws FaceDetectorException {
+        TechniquePool pool = pools.get(technique);
+        CascadeClassifier cascadeClassifier = null;
+        IdleClassifier idleClassifier = pool.idle.pollFirst();
+        if (idleClassifier != null) {
+            cascadeClassifier = idleClassifier.classifier;
+        } else if (pool.tryReserve(maxPoolSize)) {
+            cascadeClassifier = loadReserved(technique, pool);
+        }
+        if (cascadeClassifier != null) {
+            pool.borrowed.incrementAndGet();
+        }
+        return cascadeClassifier;
+    }
+
+    /**
+     * Loads a classifier for a slot already counted in pool.loaded, giving the slot back if loading fails.
+     */
+    private static CascadeClassifier loadReserved(ClassifierTechnique technique, TechniquePool pool)
+            throws FaceDetectorException {
+        boolean loaded = false;
+        try {
+            CascadeClassifier cascadeClassifier = loadClassifier(technique);
+            loaded = true;
+            return cascadeClassifier;
+        } finally {
+            if (!loaded) {
+                pool.loaded.decrementAndGet();
+            }
+        }
     }
 
     public void giveBack(ClassifierTechnique technique, CascadeClassifier cascadeClassifier) {
-        freeCascadeClassifiers.get(technique).addLast(cascadeClassifier);
+        TechniquePool pool = pools.get(technique);
+        pool.borrowed.decrementAndGet();
+
+        // Drop overflow classifiers as soon as they come back.
+        int loaded = pool.loaded.get();
+        while (loaded > maxPoolSize) {
+            if (pool.loaded.compareAndSet(loaded, loaded - 1)) {
+                return;
+            }
+            loaded = pool.loaded.get();
+        }
+
+        // Most recently used first, so the least recently used are at the tail for trimming.
+        long now = System.nanoTime();
+        pool.idle.offerFirst(new IdleClassifier(cascadeClassifier, now));
+        trimIdle(pool, now);
+    }
+
+    private void trimIdle(TechniquePool pool, long now) {
+        while (pool.idle.size() > 1) {
+            IdleClassifier leastRecentlyUsed = pool.idle.peekLast();
+            if (leastRecentlyUsed == null || now - leastRecentlyUsed.idleSinceNanos < idleTimeoutNanos) {
+                break;
+            }
+            if (pool.idle.removeLastOccurrence(leastRecentlyUsed)) {
+                pool.loaded.decrementAndGet();
+                pool.trimmed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param technique The classifier technique.
+     * @return A snapshot of the pool of given technique.
+     */
+    public ClassifierPoolMetrics getMetrics(ClassifierTechnique technique) {
+        TechniquePool pool = pools.get(technique);
+        return new ClassifierPoolMetrics(pool.loaded.get(), pool.borrowed.get(), pool.idle.size(),
+                pool.borrowCount.get(), pool.totalWaitNanos.get(), pool.maxWaitNanos.get(), pool.timeouts.get(),
+                pool.overflows.get(), pool.trimmed.get());
+    }
+
+    /**
+     * @return A snapshot of the pools of all techniques.
+     */
+    public Map<ClassifierTechnique, ClassifierPoolMetrics> getMetrics() {
+        Map<ClassifierTechnique, ClassifierPoolMetrics> metrics = new EnumMap<>(ClassifierTechnique.class);
+        for (ClassifierTechnique technique : ClassifierTechnique.values()) {
+            metrics.put(technique, getMetrics(technique));
+        }
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    private static final class IdleClassifier {
+        private final CascadeClassifier classifier;
+
+        private final long idleSinceNanos;
+
+        IdleClassifier(CascadeClassifier classifier, long idleSinceNanos) {
+            this.classifier = classifier;
+            this.idleSinceNanos = idleSinceNanos;
+        }
+    }
+
+    private static final class TechniquePool {
+        private final LinkedBlockingDeque<IdleClassifier> idle = new LinkedBlockingDeque<>();
+
+        private final AtomicInteger loaded = new AtomicInteger();
+
+        private final AtomicInteger borrowed = new AtomicInteger();
+
+        private final AtomicLong borrowCount = new AtomicLong();
+
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        private final AtomicLong timeouts = new AtomicLong();
+
+        private final AtomicLong overflows = new AtomicLong();
+
+        private final AtomicLong trimmed = new AtomicLong();
+
+        /**
+         * Counts one more loaded classifier if fewer than limit are loaded.
+         *
+         * @return true if caller should load the classifier.
+         */
+        boolean tryReserve(int limit) {
+            int current = loaded.get();
+            while (current < limit) {
+                if (loaded.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+                current = loaded.get();
+            }
+            return false;
+        }
+
+        void recordBorrow(long waitNanos) {
+            borrowCount.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            long currentMax = maxWaitNanos.get();
+            while (waitNanos > currentMax && !maxWaitNanos.compareAndSet(currentMax, waitNanos)) {
+                currentMax = maxWaitNanos.get();
+            }
+        }
     }
 }
@@ -0,0 +1,56 @@
+package main.java.core.featuredetection.factory;
+
+import main.java.core.featuredetection.ClassifierTechnique;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A set of classifiers, at most one per technique, borrowed from {@link CascadeClassifierFactory}. Closing the lease
+ * returns all of them to the factory, use it with try-with-resources so classifiers are returned even on failure.
+ * A lease is meant to be used by one detection at a time, while its classifiers may run on different threads.
+ */
+public class ClassifierLease implements AutoCloseable {
+
+    private final CascadeClassifierFactory factory;
+
+    private final Map<ClassifierTechnique, CascadeClassifier> classifiers =
+            new EnumMap<>(ClassifierTechnique.class);
+
+    private boolean closed = false;
+
+    ClassifierLease(CascadeClassifierFactory factory) {
+        this.factory = factory;
+    }
+
+    synchronized void add(ClassifierTechnique technique, CascadeClassifier classifier) {
+        classifiers.put(technique, classifier);
+    }
+
+    /**
+     * @param technique The classifier technique.
+     * @return The leased classifier, null if technique was not leased.
+     */
+    public synchronized CascadeClassifier get(ClassifierTechnique technique) {
+        if (closed) {
+            throw new IllegalStateException("Classifier lease is already closed");
+        }
+        return classifiers.get(technique);
+    }
+
+    /**
+     * Returns all classifiers to the factory. Calling it again has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Map.Entry<ClassifierTechnique, CascadeClassifier> entry : classifiers.entrySet()) {
+            factory.giveBack(entry.getKey(), entry.getValue());
+        }
+        classifiers.clear();
+    }
+}
@@ -0,0 +1,106 @@
+package main.java.core.featuredetection.factory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time snapshot of the classifier pool of one technique.
+ */
+public class ClassifierPoolMetrics {
+
+    private final int loaded;
+
+    private final int borrowed;
+
+    private final int idle;
+
+    private final long borrowCount;
+
+    private final long totalWaitNanos;
+
+    private final long maxWaitNanos;
+
+    private final long timeouts;
+
+    private final long overflows;
+
+    private final long trimmed;
+
+    ClassifierPoolMetrics(int loaded, int borrowed, int idle, long borrowCount, long totalWaitNanos,
+                          long maxWaitNanos, long timeouts, long overflows, long trimmed) {
+        this.loaded = loaded;
+        this.borrowed = borrowed;
+        this.idle = idle;
+        this.borrowCount = borrowCount;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.timeouts = timeouts;
+        this.overflows = overflows;
+        this.trimmed = trimmed;
+    }
+
+    /**
+     * @return Classifiers currently loaded, borrowed or idle.
+     */
+    public int getLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return Classifiers currently borrowed.
+     */
+    public int getBorrowed() {
+        return borrowed;
+    }
+
+    /**
+     * @return Classifiers currently free in the pool.
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * @return Borrow attempts so far, including the ones that timed out.
+     */
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * @return Borrows which found no free classifier within timeout.
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * @return Extra classifiers loaded beyond pool size due to {@link BorrowPolicy#OVERFLOW}.
+     */
+    public long getOverflows() {
+        return overflows;
+    }
+
+    /**
+     * @return Idle classifiers dropped after idle timeout.
+     */
+    public long getTrimmed() {
+        return trimmed;
+    }
+
+    @Override
+    public String toString() {
+        long averageWaitMicros = (borrowCount == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos / borrowCount);
+        return "ClassifierPoolMetrics [loaded=" + loaded + ", borrowed=" + borrowed + ", idle=" + idle
+                + ", borrowCount=" + borrowCount + ", averageWaitMicros=" + averageWaitMicros + ", maxWaitMicros="
+                + TimeUnit.NANOSECONDS.toMicros(maxWaitNanos) + ", timeouts=" + timeouts + ", overflows="
+                + overflows + ", trimmed=" + trimmed + "]";
+    }
+}
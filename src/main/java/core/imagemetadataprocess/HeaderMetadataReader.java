@@ -0,0 +1,91 @@
+package main.java.core.imagemetadataprocess;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.imaging.jpeg.JpegMetadataReader;
+import com.drew.imaging.jpeg.JpegSegmentMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifReader;
+import com.drew.metadata.iptc.IptcReader;
+import com.drew.metadata.jpeg.JpegReader;
+import com.drew.metadata.photoshop.DuckyReader;
+import com.drew.metadata.photoshop.PhotoshopReader;
+import com.drew.metadata.xmp.XmpReader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads only the metadata this project uses. For jpeg, only the segments of the readers below are read: SOF for
+ * image size, APP1 for exif(orientation, subject area, maker notes) and xmp(face regions), APP13 for iptc and
+ * APP12 for ducky. Reading stops at start of scan, so compressed image data is never read, and segments such as ICC
+ * profiles and huffman tables are skipped without being parsed. Other formats are read with
+ * {@link ImageMetadataReader}.
+ */
+public class HeaderMetadataReader {
+
+    private static final List<JpegSegmentMetadataReader> JPEG_READERS = Collections.unmodifiableList(Arrays
+            .<JpegSegmentMetadataReader>asList(new JpegReader(), new ExifReader(), new XmpReader(), new IptcReader(),
+                    new PhotoshopReader(), new DuckyReader()));
+
+    /**
+     * @param inputStream The image, read up to the end of its metadata. Not closed.
+     */
+    public static Metadata readMetadata(InputStream inputStream) throws ImageProcessingException, IOException {
+        BufferedInputStream bufferedInputStream = (inputStream instanceof BufferedInputStream) ?
+                (BufferedInputStream) inputStream : new BufferedInputStream(inputStream);
+        bufferedInputStream.mark(2);
+        int first = bufferedInputStream.read();
+        int second = bufferedInputStream.read();
+        bufferedInputStream.reset();
+        if (first == 0xFF && second == 0xD8) {
+            return JpegMetadataReader.readMetadata(bufferedInputStream, JPEG_READERS);
+        }
+        return ImageMetadataReader.readMetadata(bufferedInputStream);
+    }
+
+    /**
+     * @param imageBytes The encoded image held in memory.
+     */
+    public static Metadata readMetadata(byte[] imageBytes) throws ImageProcessingException, IOException {
+        if (imageBytes.length > 1 && (imageBytes[0] & 0xFF) == 0xFF && (imageBytes[1] & 0xFF) == 0xD8) {
+            return JpegMetadataReader.readMetadata(new ByteArrayInputStream(imageBytes), JPEG_READERS);
+        }
+        return ImageMetadataReader.readMetadata(new BufferedInputStream(new ByteArrayInputStream(imageBytes)),
+                imageBytes.length);
+    }
+
+    /**
+     * @param file The local image file. Only its header is read for jpeg.
+     */
+    public static Metadata readMetadata(File file) throws ImageProcessingException, IOException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            return readMetadata(inputStream);
+        }
+    }
+
+    /**
+     * @param url The image url. For jpeg, the connection is closed once header is read, so the image is not
+     *            downloaded.
+     */
+    public static Metadata readMetadata(URL url) throws ImageProcessingException, IOException {
+        URLConnection connection = url.openConnection();
+        try (InputStream inputStream = connection.getInputStream()) {
+            return readMetadata(inputStream);
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+}
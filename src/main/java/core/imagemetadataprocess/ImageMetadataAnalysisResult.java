@@ -11,6 +11,17 @@ import java.awt.*;
  */
 public class ImageMetadataAnalysisResult {
 
+    /**
+     * Where in metadata the subject area was found, in order of preference.
+     */
+    public enum SubjectAreaSource {
+        XMP_MWG_REGION,
+        XMP_MICROSOFT_REGION,
+        PANASONIC_MAKERNOTE,
+        FUJIFILM_MAKERNOTE,
+        EXIF_SUBJECT_AREA
+    }
+
     /**
      * This flag tells whether image has a subject area.
      * Subject Area tag tells where face was if the capturing device has the support of face detection, like in Apple
@@ -19,15 +30,25 @@ public class ImageMetadataAnalysisResult {
     private boolean subjectAreaPresent;
 
     /**
-     * The ROI location.
+     * The ROI location, in display orientation i.e. after applying exif orientation.
      */
     private Rectangle subjectAreaRect;
 
     /**
-     * The Image Size
+     * Where subject area was read from. Null if subject area is not present.
+     */
+    private SubjectAreaSource subjectAreaSource;
+
+    /**
+     * The Image Size as stored in file, i.e. before applying exif orientation. Null if it could not be read.
      */
     private Dimension imageDimension;
 
+    /**
+     * Exif orientation of the image, 1 if it has none. 0 if metadata was not analysed.
+     */
+    private int orientationValue;
+
     /**
      * Feature Type - Face or any other object.
      */
@@ -65,6 +86,14 @@ public class ImageMetadataAnalysisResult {
         this.subjectAreaRect = subjectAreaRect;
     }
 
+    public SubjectAreaSource getSubjectAreaSource() {
+        return subjectAreaSource;
+    }
+
+    public void setSubjectAreaSource(SubjectAreaSource subjectAreaSource) {
+        this.subjectAreaSource = subjectAreaSource;
+    }
+
     public Dimension getImageDimension() {
         return imageDimension;
     }
@@ -73,6 +102,14 @@ public class ImageMetadataAnalysisResult {
         this.imageDimension = imageDimension;
     }
 
+    public int getOrientationValue() {
+        return orientationValue;
+    }
+
+    public void setOrientationValue(int orientationValue) {
+        this.orientationValue = orientationValue;
+    }
+
     public FeatureOfInterest.FeatureType getFeatureType() {
         return featureType;
     }
@@ -1,14 +1,26 @@
 package main.java.core.imagemetadataprocess;
 
-import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Directory;
 import com.drew.metadata.Metadata;
+import com.drew.metadata.MetadataException;
 import com.drew.metadata.Tag;
 import com.drew.metadata.exif.ExifDirectoryBase;
+import com.drew.metadata.gif.GifHeaderDirectory;
 import com.drew.metadata.iptc.IptcDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
 import com.drew.metadata.photoshop.DuckyDirectory;
-import main.java.utils.FileUtils;
-
+import com.drew.metadata.png.PngDirectory;
+import com.drew.metadata.webp.WebpDirectory;
+import main.java.core.cache.ContentKey;
+import main.java.core.cache.ResultCaches;
+import main.java.core.imageprocess.ImageProcessor;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.LatencyHistogram;
+import main.java.core.metrics.MetricsRegistry;
+
+import java.awt.*;
 import java.io.File;
+import java.net.URL;
 import java.util.List;
 
 
@@ -21,13 +33,18 @@ public class MetadataAnalyzer {
     /**
      * The Exif Metadata tags to ignore.
      */
-    private static String[] exifTagsToIgnore = {"Orientation", "Exif Image Height", "Exif Image Width"};
+    private static final Logger LOGGER = Logger.getLogger(MetadataAnalyzer.class);
+
+    private static final LatencyHistogram ANALYZE_TIMER = MetricsRegistry.getInstance().timer("metadata.analyze");
+
+    private static final int[] EXIF_TAGS_TO_IGNORE = {ExifDirectoryBase.TAG_ORIENTATION,
+            ExifDirectoryBase.TAG_EXIF_IMAGE_HEIGHT, ExifDirectoryBase.TAG_EXIF_IMAGE_WIDTH};
 
     /**
      * This function analyzes metadata and returns ImageMetadataAnalysisResult.
      * <p/>
-     * It supports detecting if image is copied from FB/Instagram and checks if face detection result(not done yet) is
-     * present in metadata. For images with no metadata at all, it results in setting score to 0.
+     * It supports detecting if image is copied from FB/Instagram and checks if face detection result is present in
+     * metadata. For images with no metadata at all, it results in setting score to 0.
      *
      * @param imagePath The local path of image or its url.
      * @param isUrl     true if path is Url.
@@ -36,34 +53,16 @@ public class MetadataAnalyzer {
     public static ImageMetadataAnalysisResult analyzeImage(String imagePath, boolean isUrl) {
         ImageMetadataAnalysisResult analysisResult = null;
 
-        File imageFile = null;
         try {
-            if (isUrl) {
-                imageFile = FileUtils.loadImageFromUrl(imagePath);
-            } else {
-                imageFile = new File(imagePath);
-            }
-
-            // Fetch all image metadata
-            Metadata fileMetadata = ImageMetadataReader.readMetadata(imageFile);
+            // Only the header is read, url images are not downloaded as a whole.
+            Metadata fileMetadata = isUrl ? HeaderMetadataReader.readMetadata(new URL(imagePath)) :
+                    HeaderMetadataReader.readMetadata(new File(imagePath));
 
             // Analyse image metadata
             analysisResult = analyzeMetadata(fileMetadata);
-
-            // Only delete if this function downloaded the image. Else deletion is caller function responsibility.
-            if (isUrl) {
-                FileUtils.deleteFile(imageFile);
-            }
-
-            imageFile = null;
         } catch (Exception e) {
-            System.out.println("Metadata Analysis: Exception Caught in processing image " + imagePath);
-            e.printStackTrace();
+            LOGGER.warn("Metadata Analysis: Exception Caught in processing image {}", imagePath, e);
         } finally {
-            if (imageFile != null && isUrl) {
-                FileUtils.deleteFile(imageFile);
-            }
-
             if (analysisResult == null)
                 analysisResult = new ImageMetadataAnalysisResult();
         }
@@ -74,8 +73,8 @@ public class MetadataAnalyzer {
     /**
      * This function analyzes metadata and returns ImageMetadataAnalysisResult.
      * <p/>
-     * It supports detecting if image is copied from FB/Instagram and checks if face detection result(not done yet) is
-     * present in metadata. For images with no metadata at all, it results in setting score to 0.
+     * It supports detecting if image is copied from FB/Instagram and checks if face detection result is present in
+     * metadata. For images with no metadata at all, it results in setting score to 0.
      *
      * @param fileMetadata The metadata of the file.
      * @return The ImageMetadataAnalysisResult. On error returns default ImageMetadataAnalysisResult object.
@@ -83,22 +82,45 @@ public class MetadataAnalyzer {
     public static ImageMetadataAnalysisResult analyzeImage(Metadata fileMetadata) {
         ImageMetadataAnalysisResult analysisResult = null;
 
+        long startTime = System.nanoTime();
         try {
             // Analyse image metadata
             analysisResult = analyzeMetadata(fileMetadata);
         } catch (Exception e) {
-            System.out.println("Metadata Analysis: Exception Caught in processing image " + e);
+            LOGGER.warn("Metadata Analysis: Exception Caught in processing image", e);
         } finally {
             if (analysisResult == null)
                 analysisResult = new ImageMetadataAnalysisResult();
         }
+        ANALYZE_TIMER.recordSince(startTime);
 
         return analysisResult;
     }
 
+    /**
+     * This function analyzes metadata of an encoded image held in memory. Result is cached by content of image, so
+     * metadata of a re-uploaded image is not parsed again.
+     *
+     * @param imageBytes The encoded image.
+     * @param contentKey Key of imageBytes, see {@link ContentKey#of(byte[])}.
+     * @return The ImageMetadataAnalysisResult. On error returns default ImageMetadataAnalysisResult object.
+     */
+    public static ImageMetadataAnalysisResult analyzeImage(byte[] imageBytes, ContentKey contentKey) {
+        ContentKey key = ResultCaches.metadataKey(contentKey);
+        ImageMetadataAnalysisResult analysisResult = ResultCaches.metadata().get(key);
+        if (analysisResult == null) {
+            analysisResult = analyzeImage(ImageProcessor.getMetadata(imageBytes));
+            ResultCaches.metadata().put(key, analysisResult);
+        }
+        return analysisResult;
+    }
+
     private static ImageMetadataAnalysisResult analyzeMetadata(Metadata metadata) {
         ImageMetadataAnalysisResult metadataAnalysisResult = new ImageMetadataAnalysisResult();
 
+        // Orientation is kept with the result, so that a cached result is enough to detect on the image.
+        metadataAnalysisResult.setOrientationValue(ImageProcessor.imageOrientationValue(metadata));
+
         // Don't change score when unable to read image metadata
         if (metadata == null)
             return metadataAnalysisResult;
@@ -114,28 +136,76 @@ public class MetadataAnalyzer {
         // Analyze Ducky Directory - Optimized for web
         analyzeDuckyMetadata(metadata, metadataAnalysisResult);
 
+        // Image size from file header, so that callers need not decode the image to know it.
+        analyzeImageDimension(metadata, metadataAnalysisResult);
+
+        // Face regions written by camera or photo apps. Needs image dimension.
+        MetadataFaceExtractor.extractFace(metadata, metadataAnalysisResult);
+
         return metadataAnalysisResult;
     }
 
+    /**
+     * Sets the stored(before exif orientation) image size from the jpeg SOF, png IHDR, gif or webp header. The exif
+     * image width and height are not used, since editing apps often leave them stale.
+     */
+    private static void analyzeImageDimension(Metadata metadata, ImageMetadataAnalysisResult metadataAnalysisResult) {
+        try {
+            JpegDirectory jpegDirectory = metadata.getFirstDirectoryOfType(JpegDirectory.class);
+            if (jpegDirectory != null) {
+                metadataAnalysisResult.setImageDimension(new Dimension(jpegDirectory.getImageWidth(),
+                        jpegDirectory.getImageHeight()));
+                return;
+            }
+
+            for (PngDirectory pngDirectory : metadata.getDirectoriesOfType(PngDirectory.class)) {
+                if (setImageDimension(pngDirectory, PngDirectory.TAG_IMAGE_WIDTH, PngDirectory.TAG_IMAGE_HEIGHT,
+                        metadataAnalysisResult)) {
+                    return;
+                }
+            }
+
+            if (setImageDimension(metadata.getFirstDirectoryOfType(WebpDirectory.class), WebpDirectory
+                    .TAG_IMAGE_WIDTH, WebpDirectory.TAG_IMAGE_HEIGHT, metadataAnalysisResult)) {
+                return;
+            }
+
+            setImageDimension(metadata.getFirstDirectoryOfType(GifHeaderDirectory.class), GifHeaderDirectory
+                    .TAG_IMAGE_WIDTH, GifHeaderDirectory.TAG_IMAGE_HEIGHT, metadataAnalysisResult);
+        } catch (MetadataException e) {
+            LOGGER.warn("Metadata Analysis: Unable to read image dimension", e);
+        }
+    }
+
+    private static boolean setImageDimension(Directory directory, int widthTag, int heightTag,
+                                             ImageMetadataAnalysisResult metadataAnalysisResult)
+            throws MetadataException {
+        if (directory == null || !directory.containsTag(widthTag) || !directory.containsTag(heightTag)) {
+            return false;
+        }
+        metadataAnalysisResult.setImageDimension(new Dimension(directory.getInt(widthTag),
+                directory.getInt(heightTag)));
+        return true;
+    }
+
     private static void analyzeExifMetadata(Metadata metadata, ImageMetadataAnalysisResult metadataAnalysisResult) {
         boolean anyExifMetadataFound = false;
         List<ExifDirectoryBase> exifDirectory = (List<ExifDirectoryBase>) metadata.getDirectoriesOfType
                 (ExifDirectoryBase.class);
 
         for (ExifDirectoryBase exifIFD0Directory : exifDirectory) {
-            for (Tag tag : exifIFD0Directory.getTags()) {
-                anyExifMetadataFound = true;
-
-                // Logging for analysis
-                if (tag.getTagName().equals("Copyright")) {
-                    System.out.println("Metadata Analysis: Copyright EXIF metadata found, value: " + tag.getDescription());
-                }
+            // Logging for analysis
+            if (LOGGER.isDebugEnabled() && exifIFD0Directory.containsTag(ExifDirectoryBase.TAG_COPYRIGHT)) {
+                LOGGER.debug("Metadata Analysis: Copyright EXIF metadata found, value: {}",
+                        exifIFD0Directory.getDescription(ExifDirectoryBase.TAG_COPYRIGHT));
+            }
 
+            for (Tag tag : exifIFD0Directory.getTags()) {
                 // The metadata Orientation, EXIF Image Height,Width is added just by rotating an image in windows
                 // preview or mac preview, etc. Thus ignoring it.
                 boolean ignoreMetadata = false;
-                for (String anExifTagsToIgnore : exifTagsToIgnore) {
-                    if (tag.getTagName().equals(anExifTagsToIgnore)) {
+                for (int exifTagToIgnore : EXIF_TAGS_TO_IGNORE) {
+                    if (tag.getTagType() == exifTagToIgnore) {
                         ignoreMetadata = true;
                         break;
                     }
@@ -148,7 +218,7 @@ public class MetadataAnalyzer {
 
         if (!anyExifMetadataFound) {
             // Works on Flipkart, Amazon, Jabong
-            System.out.println("Metadata Analysis: No exif metadata found, setting uocScore to 0.");
+            LOGGER.debug("Metadata Analysis: No exif metadata found, setting uocScore to 0.");
 
             // No metadata is probably because of social sites removing this information to reduce the image size.
             // Add count of exif Metadata in ImageMetadataAnalysisResult. Needs further analysis of which tags represent
@@ -158,21 +228,18 @@ public class MetadataAnalyzer {
     }
 
     private static void analyzeIPTCMetadata(Metadata metadata, ImageMetadataAnalysisResult metadataAnalysisResult) {
-        List<IptcDirectory> iptcDirectories = (List<IptcDirectory>) metadata.getDirectoriesOfType(IptcDirectory.class);
-        for (IptcDirectory iptcDirectory : iptcDirectories) {
-            for (Tag tag : iptcDirectory.getTags()) {
-
-                // Logging for analysis
-                if (tag.getTagName().equals("Copyright Notice")) {
-                    System.out.println("Metadata Analysis: Copyright Notice IPTC metadata found, value: " +
-                            tag.getDescription());
-                }
+        for (IptcDirectory iptcDirectory : metadata.getDirectoriesOfType(IptcDirectory.class)) {
+            // Logging for analysis
+            if (LOGGER.isDebugEnabled() && iptcDirectory.containsTag(IptcDirectory.TAG_COPYRIGHT_NOTICE)) {
+                LOGGER.debug("Metadata Analysis: Copyright Notice IPTC metadata found, value: {}",
+                        iptcDirectory.getDescription(IptcDirectory.TAG_COPYRIGHT_NOTICE));
+            }
 
-                // Check for FB and Instagram Images.
-                if (tag.getTagName().equals("Special Instructions") && tag.getDescription().startsWith("FBMD")) {
-                    System.out.println("Metadata Analysis: Facebook metadata found, setting uocScore to 0");
-                    metadataAnalysisResult.setFacebookPlagiarized(true);
-                }
+            // Check for FB and Instagram Images.
+            String specialInstructions = iptcDirectory.getString(IptcDirectory.TAG_SPECIAL_INSTRUCTIONS);
+            if (specialInstructions != null && specialInstructions.startsWith("FBMD")) {
+                LOGGER.debug("Metadata Analysis: Facebook metadata found, setting uocScore to 0");
+                metadataAnalysisResult.setFacebookPlagiarized(true);
             }
         }
     }
@@ -182,7 +249,7 @@ public class MetadataAnalyzer {
                 (List<DuckyDirectory>) metadata.getDirectoriesOfType(DuckyDirectory.class);
         if (!duckyDirectories.isEmpty()) {
             // Photoshop - Optimize for web images
-            System.out.println("Metadata Analysis: Ducky Directory found, setting uocScore to 0.");
+            LOGGER.debug("Metadata Analysis: Ducky Directory found, setting uocScore to 0.");
             metadataAnalysisResult.setDuckyPlagiarized(true);
         }
     }
@@ -0,0 +1,359 @@
+package main.java.core.imagemetadataprocess;
+
+import com.adobe.xmp.XMPException;
+import com.adobe.xmp.XMPMeta;
+import com.adobe.xmp.XMPMetaFactory;
+import com.adobe.xmp.XMPPathFactory;
+import com.adobe.xmp.XMPSchemaRegistry;
+import com.drew.metadata.Face;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifDirectoryBase;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.exif.makernotes.FujifilmMakernoteDirectory;
+import com.drew.metadata.exif.makernotes.PanasonicMakernoteDirectory;
+import com.drew.metadata.xmp.XmpDirectory;
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.imageprocess.ImageProcessor;
+import main.java.core.logging.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads face regions written by cameras and photo apps into image metadata, so that face detection can be skipped
+ * for such images. Sources in order of preference:
+ * <ol>
+ * <li>XMP MWG regions(mwg-rs) of type Face, written by Picasa, Lightroom, digiKam and most phones.</li>
+ * <li>XMP Microsoft Photo regions(MP:RegionInfo), written by Windows Photo Gallery.</li>
+ * <li>Panasonic and Fujifilm maker note face positions.</li>
+ * <li>EXIF SubjectArea rectangle or circle.</li>
+ * </ol>
+ * All rects are returned in display orientation, i.e. after applying exif orientation.
+ */
+class MetadataFaceExtractor {
+
+    private static final Logger LOGGER = Logger.getLogger(MetadataFaceExtractor.class);
+
+    private static final String MWG_REGIONS_NS = "http://www.metadataworkinggroup.com/schemas/regions/";
+
+    private static final String ST_AREA_NS = "http://ns.adobe.com/xmp/sType/Area#";
+
+    private static final String ST_DIMENSIONS_NS = "http://ns.adobe.com/xap/1.0/sType/Dimensions#";
+
+    private static final String MICROSOFT_PHOTO_NS = "http://ns.microsoft.com/photo/1.2/";
+
+    private static final String MICROSOFT_REGION_INFO_NS = "http://ns.microsoft.com/photo/1.2/t/RegionInfo#";
+
+    private static final String MICROSOFT_REGION_NS = "http://ns.microsoft.com/photo/1.2/t/Region#";
+
+    /**
+     * Panasonic face positions are relative to a 320x240 frame.
+     */
+    private static final Size PANASONIC_FACE_FRAME_SIZE = new Size(320, 240);
+
+    /**
+     * Cameras write their default focus area, centered in the frame, as SubjectArea when no face is found. Subject
+     * areas centered within this fraction of image size are not taken as faces.
+     */
+    private static final double CENTERED_SUBJECT_AREA_TOLERANCE = 0.02;
+
+    /**
+     * Rects covering more than this fraction of the image are focus areas rather than faces.
+     */
+    private static final double MAX_FACE_AREA_FRACTION = 0.5;
+
+    static {
+        try {
+            XMPSchemaRegistry schemaRegistry = XMPMetaFactory.getSchemaRegistry();
+            schemaRegistry.registerNamespace(MWG_REGIONS_NS, "mwg-rs");
+            schemaRegistry.registerNamespace(ST_AREA_NS, "stArea");
+            schemaRegistry.registerNamespace(ST_DIMENSIONS_NS, "stDim");
+            schemaRegistry.registerNamespace(MICROSOFT_PHOTO_NS, "MP");
+            schemaRegistry.registerNamespace(MICROSOFT_REGION_INFO_NS, "MPRI");
+            schemaRegistry.registerNamespace(MICROSOFT_REGION_NS, "MPReg");
+        } catch (XMPException e) {
+            LOGGER.warn("Metadata Analysis: Unable to register XMP region namespaces", e);
+        }
+    }
+
+    /**
+     * Finds the largest face of the most reliable source in metadata and sets it as subject area of analysis result.
+     *
+     * @param metadata               The metadata of the image.
+     * @param metadataAnalysisResult The result to fill. Image dimension must already be set, else nothing is done.
+     */
+    static void extractFace(Metadata metadata, ImageMetadataAnalysisResult metadataAnalysisResult) {
+        Dimension imageDimension = metadataAnalysisResult.getImageDimension();
+        if (imageDimension == null || imageDimension.width <= 0 || imageDimension.height <= 0) {
+            return;
+        }
+        Size storedImageSize = new Size(imageDimension.width, imageDimension.height);
+        int orientationValue = ImageProcessor.imageOrientationValue(metadata);
+
+        Size displayImageSize = ImageProcessor.orientSize(storedImageSize, orientationValue);
+        for (ImageMetadataAnalysisResult.SubjectAreaSource source : ImageMetadataAnalysisResult.SubjectAreaSource
+                .values()) {
+            List<Rect> faceRects;
+            try {
+                faceRects = readFaces(source, metadata, storedImageSize, orientationValue);
+            } catch (Exception e) {
+                LOGGER.warn("Metadata Analysis: Unable to read faces from {}", source, e);
+                continue;
+            }
+
+            Rect largestFace = null;
+            for (Rect faceRect : faceRects) {
+                Rect validFaceRect = validateFaceRect(faceRect, displayImageSize);
+                if (validFaceRect != null && (largestFace == null || validFaceRect.area() > largestFace.area())) {
+                    largestFace = validFaceRect;
+                }
+            }
+
+            if (largestFace != null) {
+                metadataAnalysisResult.setSubjectAreaPresent(true);
+                metadataAnalysisResult.setSubjectAreaRect(new Rectangle(largestFace.x, largestFace.y,
+                        largestFace.width, largestFace.height));
+                metadataAnalysisResult.setFeatureType(FeatureOfInterest.FeatureType.FACE);
+                metadataAnalysisResult.setSubjectAreaSource(source);
+                LOGGER.info("Metadata Analysis: Face found in {} at {}", source, largestFace);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Face rects of given source in display orientation. Empty if source has none.
+     */
+    private static List<Rect> readFaces(ImageMetadataAnalysisResult.SubjectAreaSource source, Metadata metadata,
+                                        Size storedImageSize, int orientationValue) throws Exception {
+        switch (source) {
+            case XMP_MWG_REGION:
+                return readMwgRegions(metadata, storedImageSize, orientationValue);
+            case XMP_MICROSOFT_REGION:
+                return readMicrosoftRegions(metadata, storedImageSize, orientationValue);
+            case PANASONIC_MAKERNOTE:
+                return readPanasonicFaces(metadata, storedImageSize, orientationValue);
+            case FUJIFILM_MAKERNOTE:
+                return readFujifilmFaces(metadata, storedImageSize, orientationValue);
+            case EXIF_SUBJECT_AREA:
+                return readExifSubjectArea(metadata, storedImageSize, orientationValue);
+            default:
+                return new ArrayList<>();
+        }
+    }
+
+    private static List<Rect> readMwgRegions(Metadata metadata, Size storedImageSize, int orientationValue)
+            throws XMPException {
+        List<Rect> faceRects = new ArrayList<>();
+        for (XmpDirectory xmpDirectory : metadata.getDirectoriesOfType(XmpDirectory.class)) {
+            XMPMeta xmpMeta = xmpDirectory.getXMPMeta();
+            String regionListPath = "Regions" + XMPPathFactory.composeStructFieldPath(MWG_REGIONS_NS, "RegionList");
+            if (xmpMeta == null || !xmpMeta.doesPropertyExist(MWG_REGIONS_NS, regionListPath)) {
+                continue;
+            }
+
+            // Regions are relative to displayed image, unless applied dimensions show they were applied to stored.
+            boolean storedOrientation = false;
+            String appliedToDimensionsPath = "Regions" + XMPPathFactory.composeStructFieldPath(MWG_REGIONS_NS,
+                    "AppliedToDimensions");
+            Double appliedWidth = getDouble(xmpMeta, MWG_REGIONS_NS, appliedToDimensionsPath + XMPPathFactory
+                    .composeStructFieldPath(ST_DIMENSIONS_NS, "w"));
+            Double appliedHeight = getDouble(xmpMeta, MWG_REGIONS_NS, appliedToDimensionsPath + XMPPathFactory
+                    .composeStructFieldPath(ST_DIMENSIONS_NS, "h"));
+            if (appliedWidth != null && appliedHeight != null && orientationValue >= 5 &&
+                    storedImageSize.width != storedImageSize.height) {
+                storedOrientation = appliedWidth == storedImageSize.width && appliedHeight == storedImageSize.height;
+            }
+
+            int numRegions = xmpMeta.countArrayItems(MWG_REGIONS_NS, regionListPath);
+            for (int i = 1; i <= numRegions; i++) {
+                String regionPath = XMPPathFactory.composeArrayItemPath(regionListPath, i);
+                String type = xmpMeta.getPropertyString(MWG_REGIONS_NS, regionPath + XMPPathFactory
+                        .composeStructFieldPath(MWG_REGIONS_NS, "Type"));
+                if (!"Face".equalsIgnoreCase(type)) {
+                    continue;
+                }
+                String areaPath = regionPath + XMPPathFactory.composeStructFieldPath(MWG_REGIONS_NS, "Area");
+                Double x = getDouble(xmpMeta, MWG_REGIONS_NS, areaPath + XMPPathFactory.composeStructFieldPath
+                        (ST_AREA_NS, "x"));
+                Double y = getDouble(xmpMeta, MWG_REGIONS_NS, areaPath + XMPPathFactory.composeStructFieldPath
+                        (ST_AREA_NS, "y"));
+                Double w = getDouble(xmpMeta, MWG_REGIONS_NS, areaPath + XMPPathFactory.composeStructFieldPath
+                        (ST_AREA_NS, "w"));
+                Double h = getDouble(xmpMeta, MWG_REGIONS_NS, areaPath + XMPPathFactory.composeStructFieldPath
+                        (ST_AREA_NS, "h"));
+                if (x == null || y == null || w == null || h == null) {
+                    continue;
+                }
+                // MWG area is normalized, x and y are the center of region.
+                faceRects.add(normalizedToDisplayRect(x - w / 2, y - h / 2, w, h, storedImageSize,
+                        orientationValue, storedOrientation));
+            }
+        }
+        return faceRects;
+    }
+
+    private static List<Rect> readMicrosoftRegions(Metadata metadata, Size storedImageSize, int orientationValue)
+            throws XMPException {
+        List<Rect> faceRects = new ArrayList<>();
+        for (XmpDirectory xmpDirectory : metadata.getDirectoriesOfType(XmpDirectory.class)) {
+            XMPMeta xmpMeta = xmpDirectory.getXMPMeta();
+            String regionsPath = "RegionInfo" + XMPPathFactory.composeStructFieldPath(MICROSOFT_REGION_INFO_NS,
+                    "Regions");
+            if (xmpMeta == null || !xmpMeta.doesPropertyExist(MICROSOFT_PHOTO_NS, regionsPath)) {
+                continue;
+            }
+
+            int numRegions = xmpMeta.countArrayItems(MICROSOFT_PHOTO_NS, regionsPath);
+            for (int i = 1; i <= numRegions; i++) {
+                String rectangle = xmpMeta.getPropertyString(MICROSOFT_PHOTO_NS, XMPPathFactory
+                        .composeArrayItemPath(regionsPath, i) + XMPPathFactory.composeStructFieldPath
+                        (MICROSOFT_REGION_NS, "Rectangle"));
+                if (rectangle == null) {
+                    continue;
+                }
+                // Normalized "x, y, w, h" with x and y the top left corner, relative to displayed image.
+                String[] values = rectangle.split(",");
+                if (values.length != 4) {
+                    continue;
+                }
+                try {
+                    faceRects.add(normalizedToDisplayRect(Double.parseDouble(values[0].trim()), Double.parseDouble
+                                    (values[1].trim()), Double.parseDouble(values[2].trim()),
+                            Double.parseDouble(values[3].trim()), storedImageSize, orientationValue, false));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Metadata Analysis: Invalid Microsoft region rectangle {}", rectangle);
+                }
+            }
+        }
+        return faceRects;
+    }
+
+    private static List<Rect> readPanasonicFaces(Metadata metadata, Size storedImageSize, int orientationValue) {
+        List<Rect> faceRects = new ArrayList<>();
+        PanasonicMakernoteDirectory panasonicDirectory = metadata.getFirstDirectoryOfType
+                (PanasonicMakernoteDirectory.class);
+        Face[] faces = (panasonicDirectory != null) ? panasonicDirectory.getDetectedFaces() : null;
+        if (faces == null) {
+            return faceRects;
+        }
+        double scaleX = storedImageSize.width / PANASONIC_FACE_FRAME_SIZE.width;
+        double scaleY = storedImageSize.height / PANASONIC_FACE_FRAME_SIZE.height;
+        for (Face face : faces) {
+            // Position is the center of face in sensor orientation.
+            Rect storedRect = new Rect((int) Math.round((face.getX() - face.getWidth() / 2.0) * scaleX),
+                    (int) Math.round((face.getY() - face.getHeight() / 2.0) * scaleY),
+                    (int) Math.round(face.getWidth() * scaleX), (int) Math.round(face.getHeight() * scaleY));
+            faceRects.add(ImageProcessor.orientRect(storedRect, storedImageSize, orientationValue));
+        }
+        return faceRects;
+    }
+
+    private static List<Rect> readFujifilmFaces(Metadata metadata, Size storedImageSize, int orientationValue)
+            throws Exception {
+        List<Rect> faceRects = new ArrayList<>();
+        FujifilmMakernoteDirectory fujifilmDirectory = metadata.getFirstDirectoryOfType
+                (FujifilmMakernoteDirectory.class);
+        if (fujifilmDirectory == null || !fujifilmDirectory.containsTag(FujifilmMakernoteDirectory
+                .TAG_FACE_POSITIONS)) {
+            return faceRects;
+        }
+        // Left, top, right and bottom of each face, in full size stored image.
+        int[] positions = fujifilmDirectory.getIntArray(FujifilmMakernoteDirectory.TAG_FACE_POSITIONS);
+        for (int i = 0; positions != null && i + 3 < positions.length; i += 4) {
+            Rect storedRect = new Rect(positions[i], positions[i + 1], positions[i + 2] - positions[i],
+                    positions[i + 3] - positions[i + 1]);
+            faceRects.add(ImageProcessor.orientRect(storedRect, storedImageSize, orientationValue));
+        }
+        return faceRects;
+    }
+
+    private static List<Rect> readExifSubjectArea(Metadata metadata, Size storedImageSize, int orientationValue)
+            throws Exception {
+        List<Rect> faceRects = new ArrayList<>();
+        ExifSubIFDDirectory exifSubIFDDirectory = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+        // Tag 0x9214 is SubjectArea in exif 2.2, metadata-extractor names it after its TIFF/EP predecessor.
+        int subjectAreaTag = ExifDirectoryBase.TAG_SUBJECT_LOCATION_TIFF_EP;
+        if (exifSubIFDDirectory == null || !exifSubIFDDirectory.containsTag(subjectAreaTag)) {
+            return faceRects;
+        }
+        int[] subjectArea = exifSubIFDDirectory.getIntArray(subjectAreaTag);
+        if (subjectArea == null) {
+            return faceRects;
+        }
+
+        // 2 values is a point, 3 a circle(center, diameter) and 4 a rectangle(center, width, height).
+        int centerX = subjectArea.length >= 3 ? subjectArea[0] : -1;
+        int centerY = subjectArea.length >= 3 ? subjectArea[1] : -1;
+        int width = subjectArea.length == 3 ? subjectArea[2] : (subjectArea.length >= 4 ? subjectArea[2] : 0);
+        int height = subjectArea.length == 3 ? subjectArea[2] : (subjectArea.length >= 4 ? subjectArea[3] : 0);
+        if (width <= 0 || height <= 0) {
+            return faceRects;
+        }
+        if (Math.abs(centerX - storedImageSize.width / 2) <= CENTERED_SUBJECT_AREA_TOLERANCE * storedImageSize
+                .width && Math.abs(centerY - storedImageSize.height / 2) <= CENTERED_SUBJECT_AREA_TOLERANCE *
+                storedImageSize.height) {
+            return faceRects;
+        }
+        Rect storedRect = new Rect(centerX - width / 2, centerY - height / 2, width, height);
+        faceRects.add(ImageProcessor.orientRect(storedRect, storedImageSize, orientationValue));
+        return faceRects;
+    }
+
+    private static Rect normalizedToDisplayRect(double x, double y, double w, double h, Size storedImageSize,
+                                                int orientationValue, boolean storedOrientation) {
+        if (storedOrientation) {
+            Rect storedRect = new Rect((int) Math.round(x * storedImageSize.width), (int) Math.round(y *
+                    storedImageSize.height), (int) Math.round(w * storedImageSize.width), (int) Math.round(h *
+                    storedImageSize.height));
+            return ImageProcessor.orientRect(storedRect, storedImageSize, orientationValue);
+        }
+        Size displayImageSize = ImageProcessor.orientSize(storedImageSize, orientationValue);
+        return new Rect((int) Math.round(x * displayImageSize.width), (int) Math.round(y * displayImageSize
+                .height), (int) Math.round(w * displayImageSize.width), (int) Math.round(h * displayImageSize
+                .height));
+    }
+
+    /**
+     * Clips rect to image. Rects mostly outside the image(stale metadata of a resized or cropped image) and rects
+     * too large to be a face are discarded.
+     *
+     * @return The clipped rect, null if rect is discarded.
+     */
+    @Nullable
+    private static Rect validateFaceRect(Rect rect, Size imageSize) {
+        if (rect.width <= 0 || rect.height <= 0) {
+            return null;
+        }
+        int left = Math.max(0, rect.x);
+        int top = Math.max(0, rect.y);
+        int right = (int) Math.min(imageSize.width, rect.x + rect.width);
+        int bottom = (int) Math.min(imageSize.height, rect.y + rect.height);
+        if (right <= left || bottom <= top) {
+            return null;
+        }
+        Rect clippedRect = new Rect(left, top, right - left, bottom - top);
+        if (clippedRect.area() < 0.5 * rect.area() ||
+                clippedRect.area() > MAX_FACE_AREA_FRACTION * imageSize.area()) {
+            return null;
+        }
+        return clippedRect;
+    }
+
+    @Nullable
+    private static Double getDouble(XMPMeta xmpMeta, String schemaNS, String path) throws XMPException {
+        String value = xmpMeta.getPropertyString(schemaNS, path);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
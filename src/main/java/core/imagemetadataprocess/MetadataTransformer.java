@@ -25,16 +25,17 @@ public class MetadataTransformer {
      */
     public static boolean stripImageMetadata(@NotNull String inputImagePath,
                                              @Nullable String outputImagePath) {
-        String command;
+        String[] command;
         if (outputImagePath == null) {
-            command = "mogrify -quality 100% -strip -synchronize " + inputImagePath;
+            command = new String[]{"mogrify", "-quality", "100%", "-strip", "-synchronize", inputImagePath};
         } else {
-            command = "convert -quality 100% -strip -synchronize " + inputImagePath + " " + outputImagePath;
+            command = new String[]{"convert", "-quality", "100%", "-strip", "-synchronize", inputImagePath,
+                    outputImagePath};
         }
 
         boolean stripped = true;
         try {
-            BashUtils.runBashCommand(command);
+            BashUtils.runCommand(command);
         } catch (Exception e) {
             stripped = false;
             System.out.println("Failed to strip metadata from image: " + inputImagePath + e);
@@ -0,0 +1,348 @@
+package main.java.core.imageprocess;
+
+import main.java.core.logging.Logger;
+import main.java.core.metrics.Counter;
+import main.java.core.metrics.MetricsRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads frames of an animated image(GIF, or any multi frame format an ImageIO plugin is installed for) one at a time,
+ * and skips frames which look the same as the last returned one. GIF frames usually hold only the part of the image
+ * that changed, so they are drawn over a canvas by their disposal method to get the full image at every frame. Only
+ * the canvas and two thumbnails are held, however long the animation is.
+ */
+public class AnimationFrameReader implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(AnimationFrameReader.class);
+
+    private static final String GIF_IMAGE_METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+
+    private static final String GIF_STREAM_METADATA_FORMAT = "javax_imageio_gif_stream_1.0";
+
+    /**
+     * Delay of GIF frames which have none or a very short one, as browsers show them.
+     */
+    private static final int DEFAULT_FRAME_DELAY_MILLIS = 100;
+
+    private static final int THUMBNAIL_WIDTH = 64;
+
+    /**
+     * Mean absolute difference of thumbnails, from 0 to 1, below which a frame is the same as the last returned one.
+     */
+    private static final double DUPLICATE_THRESHOLD = 0.02;
+
+    private static final Counter FRAMES_COUNTER = MetricsRegistry.getInstance().counter("animation.frames");
+
+    private static final Counter DUPLICATES_COUNTER = MetricsRegistry.getInstance().counter("animation.duplicates");
+
+    /**
+     * A frame which differs from the one returned before it.
+     */
+    public static final class Frame {
+
+        private final int index;
+
+        private final long startMillis;
+
+        private final Mat image;
+
+        Frame(int index, long startMillis, Mat image) {
+            this.index = index;
+            this.startMillis = startMillis;
+            this.image = image;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return Time the frame is first shown, from start of animation. It stays on screen till the next returned
+         * frame starts.
+         */
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        /**
+         * @return The full BGR image at this frame, canvas sized. Caller must release it.
+         */
+        public Mat getImage() {
+            return image;
+        }
+    }
+
+    private final ImageInputStream imageInputStream;
+
+    private final ImageReader imageReader;
+
+    private BufferedImage canvas;
+
+    private Mat thumbnail = new Mat();
+
+    private Mat lastThumbnail = new Mat();
+
+    private final Mat scaledImage = new Mat();
+
+    private final Mat difference = new Mat();
+
+    private boolean hasLastThumbnail = false;
+
+    private int frameIndex = 0;
+
+    private long elapsedMillis = 0;
+
+    private boolean finished = false;
+
+    private AnimationFrameReader(ImageInputStream imageInputStream, ImageReader imageReader) {
+        this.imageInputStream = imageInputStream;
+        this.imageReader = imageReader;
+    }
+
+    /**
+     * @param imageBytes The encoded image.
+     * @return true if bytes are a GIF or WebP, the formats which can be animated.
+     */
+    public static boolean isAnimationFormat(@NotNull byte[] imageBytes) {
+        boolean isGif = imageBytes.length > 6 && imageBytes[0] == 'G' && imageBytes[1] == 'I' && imageBytes[2] ==
+                'F' && imageBytes[3] == '8';
+        boolean isWebp = imageBytes.length > 12 && imageBytes[0] == 'R' && imageBytes[1] == 'I' && imageBytes[2] ==
+                'F' && imageBytes[3] == 'F' && imageBytes[8] == 'W' && imageBytes[9] == 'E' && imageBytes[10] ==
+                'B' && imageBytes[11] == 'P';
+        return isGif || isWebp;
+    }
+
+    /**
+     * @param imageBytes The encoded image.
+     * @return Reader over the frames of the image, null if no ImageIO reader is installed for its format. The JDK
+     * has one for GIF but not for WebP.
+     * @throws IOException If image stream can't be created.
+     */
+    @Nullable
+    public static AnimationFrameReader open(@NotNull byte[] imageBytes) throws IOException {
+        ImageInputStream imageInputStream = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes));
+        if (imageInputStream == null) {
+            return null;
+        }
+        Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+        if (!imageReaders.hasNext()) {
+            imageInputStream.close();
+            return null;
+        }
+        ImageReader imageReader = imageReaders.next();
+        // Frames are read in order, so reader need not keep what it has read for seeking back.
+        imageReader.setInput(imageInputStream, true, false);
+        return new AnimationFrameReader(imageInputStream, imageReader);
+    }
+
+    /**
+     * Reads frames till one differs from the last returned frame.
+     *
+     * @return The next distinct frame, null once all frames are read.
+     * @throws IOException If the first frame can't be read. A broken frame later on ends the animation instead, as
+     *                     browsers show truncated GIFs till the broken frame.
+     */
+    @Nullable
+    public Frame nextDistinctFrame() throws IOException {
+        while (!finished) {
+            BufferedImage frameImage;
+            IIOMetadata frameMetadata;
+            try {
+                frameImage = imageReader.read(frameIndex);
+                frameMetadata = imageReader.getImageMetadata(frameIndex);
+            } catch (IndexOutOfBoundsException e) {
+                finished = true;
+                break;
+            } catch (IOException | RuntimeException e) {
+                if (frameIndex == 0) {
+                    throw e;
+                }
+                LOGGER.warn("Unable to read frame {} of animation, ignoring rest of it", frameIndex, e);
+                finished = true;
+                break;
+            }
+
+            int index = frameIndex++;
+            long startMillis = elapsedMillis;
+            FRAMES_COUNTER.increment();
+            Mat image = drawFrame(frameImage, frameMetadata);
+            if (isDuplicate(image)) {
+                image.release();
+                DUPLICATES_COUNTER.increment();
+                continue;
+            }
+            return new Frame(index, startMillis, image);
+        }
+        return null;
+    }
+
+    /**
+     * Draws a frame over the canvas and disposes it as the frame asks, ready for the next frame.
+     *
+     * @return Copy of the canvas with the frame drawn, BGR.
+     */
+    private Mat drawFrame(BufferedImage frameImage, IIOMetadata frameMetadata) throws IOException {
+        Node gifImageMetadata = GIF_IMAGE_METADATA_FORMAT.equals(frameMetadata.getNativeMetadataFormatName()) ?
+                frameMetadata.getAsTree(GIF_IMAGE_METADATA_FORMAT) : null;
+        int left = 0;
+        int top = 0;
+        String disposalMethod = "none";
+        int delayMillis = DEFAULT_FRAME_DELAY_MILLIS;
+        if (gifImageMetadata != null) {
+            for (Node node = gifImageMetadata.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if ("ImageDescriptor".equals(node.getNodeName())) {
+                    left = intAttribute(node, "imageLeftPosition", 0);
+                    top = intAttribute(node, "imageTopPosition", 0);
+                } else if ("GraphicControlExtension".equals(node.getNodeName())) {
+                    disposalMethod = stringAttribute(node, "disposalMethod", disposalMethod);
+                    int delayTime = intAttribute(node, "delayTime", 0);
+                    if (delayTime > 1) {
+                        delayMillis = 10 * delayTime;
+                    }
+                }
+            }
+        }
+        if (canvas == null) {
+            Size canvasSize = canvasSize(frameImage);
+            canvas = new BufferedImage((int) canvasSize.width, (int) canvasSize.height,
+                    BufferedImage.TYPE_3BYTE_BGR);
+        }
+
+        BufferedImage previousCanvas = null;
+        if ("restoreToPrevious".equals(disposalMethod)) {
+            previousCanvas = new BufferedImage(canvas.getWidth(), canvas.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            previousCanvas.setData(canvas.getRaster());
+        }
+        Graphics2D graphics = canvas.createGraphics();
+        try {
+            graphics.drawImage(frameImage, left, top, null);
+            Mat image = toMat(canvas);
+
+            // Transparent canvas is shown as black.
+            if ("restoreToBackgroundColor".equals(disposalMethod)) {
+                graphics.setColor(Color.BLACK);
+                graphics.fillRect(left, top, frameImage.getWidth(), frameImage.getHeight());
+            } else if (previousCanvas != null) {
+                canvas = previousCanvas;
+            }
+            elapsedMillis += delayMillis;
+            return image;
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * @return Logical screen size of a GIF, else size of the first frame.
+     */
+    private Size canvasSize(BufferedImage firstFrameImage) throws IOException {
+        IIOMetadata streamMetadata = imageReader.getStreamMetadata();
+        if (streamMetadata != null && GIF_STREAM_METADATA_FORMAT.equals(streamMetadata
+                .getNativeMetadataFormatName())) {
+            Node gifStreamMetadata = streamMetadata.getAsTree(GIF_STREAM_METADATA_FORMAT);
+            for (Node node = gifStreamMetadata.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if ("LogicalScreenDescriptor".equals(node.getNodeName())) {
+                    int width = intAttribute(node, "logicalScreenWidth", 0);
+                    int height = intAttribute(node, "logicalScreenHeight", 0);
+                    if (width > 0 && height > 0) {
+                        return new Size(width, height);
+                    }
+                }
+            }
+        }
+        return new Size(firstFrameImage.getWidth(), firstFrameImage.getHeight());
+    }
+
+    private static String stringAttribute(Node node, String name, String defaultValue) {
+        NamedNodeMap attributes = node.getAttributes();
+        Node attribute = (attributes != null) ? attributes.getNamedItem(name) : null;
+        return (attribute != null) ? attribute.getNodeValue() : defaultValue;
+    }
+
+    private static int intAttribute(Node node, String name, int defaultValue) {
+        String value = stringAttribute(node, name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Mat toMat(BufferedImage bgrImage) {
+        byte[] pixels = ((DataBufferByte) bgrImage.getRaster().getDataBuffer()).getData();
+        Mat image = new Mat(bgrImage.getHeight(), bgrImage.getWidth(), CvType.CV_8UC3);
+        image.put(0, 0, pixels);
+        return image;
+    }
+
+    /**
+     * Compares grayscale thumbnail of image with that of the last returned frame, which is replaced if image
+     * differs.
+     */
+    private boolean isDuplicate(Mat image) {
+        Size thumbnailSize = new Size(THUMBNAIL_WIDTH, Math.max(1, Math.rint(THUMBNAIL_WIDTH * image.rows() /
+                (double) image.cols())));
+        Imgproc.resize(image, scaledImage, thumbnailSize, 0, 0, Imgproc.INTER_AREA);
+        Imgproc.cvtColor(scaledImage, thumbnail, Imgproc.COLOR_BGR2GRAY);
+        if (hasLastThumbnail) {
+            Core.absdiff(thumbnail, lastThumbnail, difference);
+            if (Core.mean(difference).val[0] / 255 < DUPLICATE_THRESHOLD) {
+                return true;
+            }
+        }
+
+        Mat swap = lastThumbnail;
+        lastThumbnail = thumbnail;
+        thumbnail = swap;
+        hasLastThumbnail = true;
+        return false;
+    }
+
+    /**
+     * @return Number of frames read so far, including skipped ones.
+     */
+    public int getFrameCount() {
+        return frameIndex;
+    }
+
+    /**
+     * @return Display time of frames read so far. Once all frames are read, the animation length.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        imageReader.dispose();
+        canvas = null;
+        thumbnail.release();
+        lastThumbnail.release();
+        scaledImage.release();
+        difference.release();
+        imageInputStream.close();
+    }
+}
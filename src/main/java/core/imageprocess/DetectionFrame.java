@@ -0,0 +1,67 @@
+package main.java.core.imageprocess;
+
+import main.java.utils.MathUtils;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+/**
+ * An 8-bit single channel image prepared by {@link PreprocessingPipeline}, shared read-only by all classifiers.
+ * Its buffer is pooled, so close the frame once detection is complete.
+ */
+public class DetectionFrame implements AutoCloseable {
+
+    private final Mat image;
+
+    private final Size originalImageSize;
+
+    private final double scaleToOriginal;
+
+    private boolean closed = false;
+
+    DetectionFrame(Mat image, Size originalImageSize, double scaleToOriginal) {
+        this.image = image;
+        this.originalImageSize = originalImageSize;
+        this.scaleToOriginal = scaleToOriginal;
+    }
+
+    /**
+     * @return The grayscale image. Must not be modified, it is read concurrently by classifiers.
+     */
+    public Mat getImage() {
+        if (closed) {
+            throw new IllegalStateException("Detection frame is already closed");
+        }
+        return image;
+    }
+
+    /**
+     * @return The size of the image rects should be reported against, i.e. oriented image at full resolution.
+     */
+    public Size getOriginalImageSize() {
+        return originalImageSize;
+    }
+
+    /**
+     * @return The factor which maps coordinates in this frame to the original image.
+     */
+    public double getScaleToOriginal() {
+        return scaleToOriginal;
+    }
+
+    /**
+     * @param rect A rect in this frame.
+     * @return The rect in original image.
+     */
+    public Rect toOriginal(Rect rect) {
+        return (scaleToOriginal == 1.0) ? rect : MathUtils.resizeRect(rect, scaleToOriginal);
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            MatPool.giveBack(image);
+        }
+    }
+}
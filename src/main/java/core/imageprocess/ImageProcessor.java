@@ -1,24 +1,40 @@
 package main.java.core.imageprocess;
 
-import com.drew.imaging.ImageMetadataReader;
 import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.Directory;
 import com.drew.metadata.Metadata;
+import com.drew.metadata.MetadataException;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import main.java.core.imagemetadataprocess.HeaderMetadataReader;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.LatencyHistogram;
+import main.java.core.metrics.MetricsRegistry;
 import main.java.utils.BashUtils;
-import org.apache.commons.lang.StringUtils;
+import main.java.utils.FileUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
 
+import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 /**
  * Created by tapansharma on 12/10/17.
  */
 public class ImageProcessor {
 
+    private static final Logger LOGGER = Logger.getLogger(ImageProcessor.class);
+
+    private static final LatencyHistogram METADATA_READ_TIMER = MetricsRegistry.getInstance().timer("metadata.read");
+
     /**
      * This method validates if the image file exists has valid content.
      *
@@ -35,11 +51,11 @@ public class ImageProcessor {
             // Check the resolution of image. The right way to know if a file is valid image file is to load it.
             String size = getSize(filePath);
             if (size == null || size.equals("0x0")) {
-                System.out.println("IS_IMAGE_FILE_VALID: Image resolution is " + size + " for " + filePath);
+                LOGGER.warn("IS_IMAGE_FILE_VALID: Image resolution is {} for {}", size, filePath);
                 isValid = false;
             }
         } else {
-            System.out.println("IS_IMAGE_FILE_VALID: Image file size is 0 or it doesn't exists for " + filePath);
+            LOGGER.warn("IS_IMAGE_FILE_VALID: Image file size is 0 or it doesn't exists for {}", filePath);
             isValid = false;
         }
         return isValid;
@@ -58,12 +74,11 @@ public class ImageProcessor {
         // The comma at the end formats output as 640x640,640x640,640x640,640x640
         // Assumption made: All frames have same width and height. ToDo: Need proof.
         // For Jpeg/PNG, output is "720x718,"
-        String command = "identify -format '%wx%h,' " + imagePath;
         String size = null;
         try {
-            size = BashUtils.runBashCommand(command);
+            size = BashUtils.runCommand("identify", "-format", "%wx%h,", imagePath);
         } catch (Exception e) {
-            System.out.println("Image resolution fetch command failed: " + e);
+            LOGGER.warn("Image resolution fetch command failed", e);
         }
 
         if (size != null) {
@@ -95,51 +110,61 @@ public class ImageProcessor {
     }
 
     /**
-     * This method is used to obtain orientation data of image by checking it in exif metadata.
+     * This method is used to obtain orientation data of image by checking it in exif metadata. Metadata is read
+     * in-process, no ImageMagick command is run.
      *
-     * @param imagePath Path of image or url for which orientation should be found.
-     * @return int value of orientation. Returns 1 by default if command fails or multiple values are fetched by
-     * command.
+     * @param imagePath Local path of image for which orientation should be found.
+     * @return int value of orientation. Returns 1 by default if metadata can't be read or has invalid orientation.
      * @throws Exception
      */
     public static int imageOrientationValue(String imagePath) throws Exception {
+        return imageOrientationValue(getMetadata(imagePath));
+    }
+
+    /**
+     * This method is used to obtain orientation data of image from its already parsed metadata.
+     *
+     * @param metadata The metadata of the image, null if it could not be read.
+     * @return int value of orientation. Returns 1 by default if tag is missing or has invalid value.
+     */
+    public static int imageOrientationValue(@Nullable Metadata metadata) {
         int orientation = 1; // Orientation should be set to 1 by default.
-        String command = "identify -format '%[exif:orientation]' " + imagePath;
-        String output = BashUtils.runBashCommand(command).trim();
-        System.out.println("orientation is `{}`" + output);
-        if (StringUtils.isBlank(output)) {
-            System.out.println("IMAGE_ORIENTATION_VALUE: Received blank or Null value of image orientation for: {}." +
-                    imagePath);
-        } else {
-            // Split into numbers(only positive)
-            output = output.replaceAll("[^0-9]+", " ");
-            // Yes, multiple values are also fetched. This is not joke.
-            List<String> values = Arrays.asList(output.trim().split(" "));
-            if (values.size() != 1) {
-                System.out.println("unknown orientation of " + imagePath + " as `{}`" + output);
-            } else {
-                orientation = Integer.parseInt(values.get(0));
-                if (orientation < 2 || orientation > 8) {
-                    if (orientation > 8) {
-                        System.out.println("Invalid orientation of " + imagePath + " as `{}`" + output);
-                    }
-                    orientation = 1;
+        if (metadata == null) {
+            return orientation;
+        }
+
+        ExifIFD0Directory exifIFD0Directory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+        if (exifIFD0Directory != null && exifIFD0Directory.containsTag(ExifIFD0Directory.TAG_ORIENTATION)) {
+            try {
+                orientation = exifIFD0Directory.getInt(ExifIFD0Directory.TAG_ORIENTATION);
+            } catch (MetadataException e) {
+                LOGGER.warn("IMAGE_ORIENTATION_VALUE: Unable to read orientation tag", e);
+            }
+            if (orientation < 2 || orientation > 8) {
+                if (orientation > 8) {
+                    LOGGER.warn("Invalid orientation as {}", orientation);
                 }
+                orientation = 1;
             }
         }
         return orientation;
     }
 
+    /**
+     * Rewrites the image file with its pixels in display orientation using ImageMagick. Use
+     * {@link #autoOrientImage(Mat, int)} instead when image is decoded anyways, it neither forks a process nor
+     * re-encodes the image.
+     */
     public static boolean autoOrientImage(String inputImagePath, String outputImagePath) {
-        String command = "convert -synchronize -auto-orient " + inputImagePath + " " + outputImagePath;
-        return BashUtils.runBashCommand0(command);
+        return BashUtils.runCommand0("convert", "-synchronize", "-auto-orient", inputImagePath, outputImagePath);
     }
 
     @Nullable
     public static Metadata getMetadata(String imagePath) {
         Metadata metadata = null;
+        long startTime = System.nanoTime();
         try {
-            metadata = ImageMetadataReader.readMetadata(new File(imagePath));
+            metadata = HeaderMetadataReader.readMetadata(new File(imagePath));
 
             // Log if any directory has errors.
             boolean hasErrors = false;
@@ -157,11 +182,271 @@ public class ImageProcessor {
                 }
             }
             if (hasErrors) {
-                System.out.println("Errors in image: " + imagePath + " found as " + System.lineSeparator() + sb);
+                LOGGER.warn("Errors in image: {} found as {}", imagePath, sb);
             }
         } catch (ImageProcessingException | IOException e) {
-            System.out.println("Failed to read metadata of file: " + imagePath + " " + e);
+            LOGGER.warn("Failed to read metadata of file: {}", imagePath, e);
         }
+        METADATA_READ_TIMER.recordSince(startTime);
         return metadata;
     }
+
+    /**
+     * Decodes an encoded image(jpeg, png, webp...) held in memory. Nothing is written to disk.
+     *
+     * @param imageBytes The encoded image.
+     * @return The decoded BGR image. Empty Mat if bytes could not be decoded.
+     */
+    public static Mat decodeImage(@NotNull byte[] imageBytes) {
+        return decodeImage(imageBytes, Imgcodecs.IMREAD_COLOR);
+    }
+
+    /**
+     * Decodes a jpeg held in memory at reduced resolution, close to but not smaller than what the image would be
+     * after fitting it in boundingRectSize. Reduction is done by libjpeg while decoding(DCT scaling), so a full
+     * resolution image is never materialized. Other formats are decoded at full resolution.
+     *
+     * @param imageBytes           The encoded image.
+     * @param storedImageDimension The stored image size, as read from file header.
+     * @param boundingRectSize     The size image is going to be fit into.
+     * @return The decoded BGR image. Empty Mat if bytes could not be decoded.
+     */
+    public static Mat decodeReducedImage(@NotNull byte[] imageBytes, @NotNull Dimension storedImageDimension,
+                                         @NotNull Size boundingRectSize) {
+        int reductionFactor = isJpeg(imageBytes) ? jpegReductionFactor(storedImageDimension, boundingRectSize) : 1;
+        int flags;
+        switch (reductionFactor) {
+            case 2:
+                flags = Imgcodecs.IMREAD_REDUCED_COLOR_2;
+                break;
+            case 4:
+                flags = Imgcodecs.IMREAD_REDUCED_COLOR_4;
+                break;
+            case 8:
+                flags = Imgcodecs.IMREAD_REDUCED_COLOR_8;
+                break;
+            default:
+                flags = Imgcodecs.IMREAD_COLOR;
+        }
+        Mat decodedMat = decodeImage(imageBytes, flags);
+
+        // Some OpenCV builds honour reduced flags only in imread, not in imdecode. Keep the output size same anyways.
+        Size reducedSize = new Size(Math.ceil((double) storedImageDimension.width / reductionFactor),
+                Math.ceil((double) storedImageDimension.height / reductionFactor));
+        if (reductionFactor > 1 && !decodedMat.empty() && decodedMat.width() > reducedSize.width) {
+            LOGGER.debug("Reduced decode not supported by imdecode, resizing decoded image.");
+            Mat reducedMat = new Mat();
+            Imgproc.resize(decodedMat, reducedMat, reducedSize, 0, 0, Imgproc.INTER_AREA);
+            decodedMat.release();
+            decodedMat = reducedMat;
+        }
+        return decodedMat;
+    }
+
+    private static Mat decodeImage(byte[] imageBytes, int flags) {
+        Mat encodedMat = new Mat(1, imageBytes.length, CvType.CV_8UC1);
+        try {
+            encodedMat.put(0, 0, imageBytes);
+            // Orientation is applied explicitly by callers, ignore it here so no OpenCV version applies it twice.
+            return Imgcodecs.imdecode(encodedMat, flags | Imgcodecs.IMREAD_IGNORE_ORIENTATION);
+        } finally {
+            // Encoded copy is only needed for decoding, free native memory now instead of waiting for GC.
+            encodedMat.release();
+        }
+    }
+
+    /**
+     * Finds the largest jpeg decode reduction factor for which the decoded image is still at least as large as the
+     * image would be after fitting it in boundingRectSize. Remaining downscale, less than 2x, is left to resize.
+     *
+     * @param storedImageDimension The stored image size, as read from file header.
+     * @param boundingRectSize     The size image is going to be fit into.
+     * @return 1, 2, 4 or 8.
+     */
+    public static int jpegReductionFactor(@NotNull Dimension storedImageDimension, @NotNull Size boundingRectSize) {
+        if (storedImageDimension.width <= 0 || storedImageDimension.height <= 0) {
+            return 1;
+        }
+        double scaleFactor = Math.min(boundingRectSize.height / storedImageDimension.height,
+                boundingRectSize.width / storedImageDimension.width);
+        int reductionFactor = 1;
+        while (reductionFactor < 8 && reductionFactor * 2 * scaleFactor <= 1.0) {
+            reductionFactor *= 2;
+        }
+        return reductionFactor;
+    }
+
+    /**
+     * @param imageBytes The encoded image.
+     * @return true if bytes start with jpeg SOI marker.
+     */
+    public static boolean isJpeg(@NotNull byte[] imageBytes) {
+        return imageBytes.length > 2 && (imageBytes[0] & 0xFF) == 0xFF && (imageBytes[1] & 0xFF) == 0xD8;
+    }
+
+    /**
+     * Decodes an encoded image held in a buffer, from its position up to its limit. The buffer position is not
+     * changed.
+     *
+     * @param imageBuffer The encoded image. Can be a heap, direct or memory-mapped buffer.
+     * @return The decoded BGR image. Empty Mat if buffer could not be decoded.
+     */
+    public static Mat decodeImage(@NotNull ByteBuffer imageBuffer) {
+        return decodeImage(toByteArray(imageBuffer));
+    }
+
+    /**
+     * Decodes a local image by memory-mapping it, instead of copying the file and reading the copy back. Exif
+     * orientation is applied, same as imread.
+     *
+     * @param imagePath The local path of the image.
+     * @return The decoded and oriented BGR image. Empty Mat if file could not be decoded.
+     * @throws IOException If file can't be mapped.
+     */
+    public static Mat decodeMappedImage(@NotNull String imagePath) throws IOException {
+        return decodeOrientedImage(toByteArray(FileUtils.mapFile(imagePath)));
+    }
+
+    /**
+     * Decodes an encoded image and applies its exif orientation in memory, so that the decoded image is same as
+     * what imread would return for the file.
+     *
+     * @param imageBytes The encoded image.
+     * @return The decoded and oriented BGR image. Empty Mat if bytes could not be decoded.
+     */
+    public static Mat decodeOrientedImage(@NotNull byte[] imageBytes) {
+        Mat decodedMat = decodeImage(imageBytes);
+        if (decodedMat.empty()) {
+            return decodedMat;
+        }
+        return autoOrientImage(decodedMat, imageOrientationValue(imageBytes));
+    }
+
+    /**
+     * Reads exif orientation of an encoded image held in memory.
+     *
+     * @param imageBytes The encoded image.
+     * @return int value of orientation. Returns 1 by default if orientation is missing or invalid.
+     */
+    public static int imageOrientationValue(@NotNull byte[] imageBytes) {
+        return imageOrientationValue(getMetadata(imageBytes));
+    }
+
+    /**
+     * Reads metadata of an encoded image held in memory.
+     *
+     * @param imageBytes The encoded image.
+     * @return The metadata, null if it could not be read.
+     */
+    @Nullable
+    public static Metadata getMetadata(@NotNull byte[] imageBytes) {
+        Metadata metadata = null;
+        long startTime = System.nanoTime();
+        try {
+            metadata = HeaderMetadataReader.readMetadata(imageBytes);
+        } catch (ImageProcessingException | IOException e) {
+            LOGGER.warn("Unable to read metadata from image bytes", e);
+        }
+        METADATA_READ_TIMER.recordSince(startTime);
+        return metadata;
+    }
+
+    /**
+     * Applies exif orientation to a decoded image in memory. This is the in-memory equivalent of
+     * {@link #autoOrientImage(String, String)}.
+     *
+     * @param image            The decoded image.
+     * @param orientationValue Exif orientation value of the image.
+     * @return The oriented image. Same Mat is returned if image has default orientation.
+     */
+    public static Mat autoOrientImage(@NotNull Mat image, int orientationValue) {
+        if (!shouldAutoOrientImage(orientationValue)) {
+            return image;
+        }
+
+        Mat orientedImage = new Mat();
+        switch (orientationValue) {
+            case 2: // Mirror horizontal
+                Core.flip(image, orientedImage, 1);
+                break;
+            case 3: // Rotate 180
+                Core.rotate(image, orientedImage, Core.ROTATE_180);
+                break;
+            case 4: // Mirror vertical
+                Core.flip(image, orientedImage, 0);
+                break;
+            case 5: // Mirror horizontal and rotate 270 CW
+                Core.transpose(image, orientedImage);
+                break;
+            case 6: // Rotate 90 CW
+                Core.rotate(image, orientedImage, Core.ROTATE_90_CLOCKWISE);
+                break;
+            case 7: // Mirror horizontal and rotate 90 CW
+                Core.rotate(image, orientedImage, Core.ROTATE_90_CLOCKWISE);
+                Core.flip(orientedImage, orientedImage, 0);
+                break;
+            case 8: // Rotate 270 CW
+                Core.rotate(image, orientedImage, Core.ROTATE_90_COUNTERCLOCKWISE);
+                break;
+        }
+        image.release();
+        return orientedImage;
+    }
+
+    /**
+     * Maps a rect found in the stored(not oriented) image to the image in display orientation. Use this when
+     * rects come from the stored pixels, e.g. exif subject area, and the image itself is never oriented.
+     *
+     * @param rect             The rect in stored image coordinates.
+     * @param storedImageSize  The size of stored image, as decoded without orientation.
+     * @param orientationValue Exif orientation value of the image.
+     * @return The rect in oriented image coordinates.
+     */
+    public static Rect orientRect(@NotNull Rect rect, @NotNull Size storedImageSize, int orientationValue) {
+        int w = (int) storedImageSize.width, h = (int) storedImageSize.height;
+        switch (orientationValue) {
+            case 2: // Mirror horizontal
+                return new Rect(w - rect.x - rect.width, rect.y, rect.width, rect.height);
+            case 3: // Rotate 180
+                return new Rect(w - rect.x - rect.width, h - rect.y - rect.height, rect.width, rect.height);
+            case 4: // Mirror vertical
+                return new Rect(rect.x, h - rect.y - rect.height, rect.width, rect.height);
+            case 5: // Mirror horizontal and rotate 270 CW
+                return new Rect(rect.y, rect.x, rect.height, rect.width);
+            case 6: // Rotate 90 CW
+                return new Rect(h - rect.y - rect.height, rect.x, rect.height, rect.width);
+            case 7: // Mirror horizontal and rotate 90 CW
+                return new Rect(h - rect.y - rect.height, w - rect.x - rect.width, rect.height, rect.width);
+            case 8: // Rotate 270 CW
+                return new Rect(rect.y, w - rect.x - rect.width, rect.height, rect.width);
+            default:
+                return rect;
+        }
+    }
+
+    /**
+     * @param storedImageSize  The size of stored image, as decoded without orientation.
+     * @param orientationValue Exif orientation value of the image.
+     * @return The size of image in display orientation.
+     */
+    public static Size orientSize(@NotNull Size storedImageSize, int orientationValue) {
+        if (orientationValue >= 5 && orientationValue <= 8) {
+            return new Size(storedImageSize.height, storedImageSize.width);
+        }
+        return storedImageSize;
+    }
+
+    /**
+     * Returns the bytes of a buffer from its position up to its limit, without changing the position. Backing array
+     * is returned as is when it holds exactly these bytes.
+     */
+    public static byte[] toByteArray(@NotNull ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 &&
+                buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
 }
@@ -0,0 +1,37 @@
+package main.java.core.imageprocess;
+
+import org.opencv.core.Mat;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * A bounded pool of Mat buffers reused across invocations. Opencv functions reallocate an output Mat only when its
+ * size or type changes, so on a warm container a returned buffer is usually written in place without any native
+ * allocation.
+ */
+public class MatPool {
+
+    private static final int MAX_POOLED_MATS = 4 * Runtime.getRuntime().availableProcessors();
+
+    private static final BlockingDeque<Mat> freeMats = new LinkedBlockingDeque<>(MAX_POOLED_MATS);
+
+    /**
+     * @return A free buffer, most recently returned first. Its content and size are undefined.
+     */
+    public static Mat borrow() {
+        Mat mat = freeMats.pollFirst();
+        return (mat != null) ? mat : new Mat();
+    }
+
+    /**
+     * Returns a buffer to the pool. If pool is full, its native memory is released right away.
+     *
+     * @param mat The buffer, must not be used by caller afterwards.
+     */
+    public static void giveBack(Mat mat) {
+        if (mat != null && !freeMats.offerFirst(mat)) {
+            mat.release();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package main.java.core.imageprocess;
+
+import main.java.core.logging.Logger;
+import main.java.core.metrics.LatencyHistogram;
+import main.java.core.metrics.MetricsRegistry;
+import main.java.utils.MathUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.awt.Dimension;
+
+/**
+ * This class prepares an image for feature detection in a fixed order: decode, orient, downscale, grayscale and
+ * optionally equalize histogram. Cascade classifiers work on grayscale images, doing the conversion once here saves
+ * every classifier converting the same image again. Intermediate images are released as soon as next stage is done.
+ */
+public class PreprocessingPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(PreprocessingPipeline.class);
+
+    private static final LatencyHistogram DECODE_TIMER = MetricsRegistry.getInstance().timer("decode");
+
+    private static final LatencyHistogram ORIENT_TIMER = MetricsRegistry.getInstance().timer("orient");
+
+    private static final LatencyHistogram RESIZE_TIMER = MetricsRegistry.getInstance().timer("resize");
+
+    private static final LatencyHistogram GRAYSCALE_TIMER = MetricsRegistry.getInstance().timer("grayscale");
+
+    private final Size maxProcessingSize;
+
+    private final boolean reducedDecode;
+
+    private final boolean equalizeHistogram;
+
+    /**
+     * @param maxProcessingSize The size image is fit into before detection.
+     * @param reducedDecode     Decode jpeg at reduced resolution close to maxProcessingSize, when stored image size
+     *                          is known.
+     * @param equalizeHistogram Equalize histogram of grayscale image.
+     */
+    public PreprocessingPipeline(@NotNull Size maxProcessingSize, boolean reducedDecode, boolean equalizeHistogram) {
+        this.maxProcessingSize = maxProcessingSize;
+        this.reducedDecode = reducedDecode;
+        this.equalizeHistogram = equalizeHistogram;
+    }
+
+    /**
+     * Runs all stages over an encoded image.
+     *
+     * @param imageBytes           The encoded image.
+     * @param orientationValue     Exif orientation value of the image.
+     * @param storedImageDimension The image size from file header, before orientation. Needed for reduced decode,
+     *                             can be null.
+     * @return The frame to run detection on. Caller must close it.
+     * @throws Exception If image can't be decoded.
+     */
+    public DetectionFrame process(@NotNull byte[] imageBytes, int orientationValue,
+                                  @Nullable Dimension storedImageDimension) throws Exception {
+        boolean decodeReduced = reducedDecode && storedImageDimension != null;
+
+        // Decode
+        long startTime = System.nanoTime();
+        Mat decodedMat;
+        if (decodeReduced) {
+            decodedMat = ImageProcessor.decodeReducedImage(imageBytes, storedImageDimension, maxProcessingSize);
+        } else {
+            decodedMat = ImageProcessor.decodeImage(imageBytes);
+        }
+        if (decodedMat.empty()) {
+            decodedMat.release();
+            throw new Exception("Decoded image is empty, image size is: " + imageBytes.length + " bytes");
+        }
+        DECODE_TIMER.recordSince(startTime);
+
+        // Orient
+        startTime = System.nanoTime();
+        Mat orientedMat = ImageProcessor.autoOrientImage(decodedMat, orientationValue);
+        ORIENT_TIMER.recordSince(startTime);
+        try {
+            // Rects are reported against the real image, not the reduced one.
+            Size originalImageSize;
+            if (decodeReduced) {
+                originalImageSize = ImageProcessor.orientSize(new Size(storedImageDimension.width,
+                        storedImageDimension.height), orientationValue);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Image of size {} decoded as: {}", originalImageSize, orientedMat.size());
+                }
+            } else {
+                originalImageSize = orientedMat.size();
+            }
+            return process(orientedMat, originalImageSize);
+        } finally {
+            orientedMat.release();
+        }
+    }
+
+    /**
+     * Runs downscale, grayscale and equalize stages over a decoded and oriented image. The input is not modified.
+     *
+     * @param orientedImage     The decoded image in display orientation, BGR, BGRA or grayscale.
+     * @param originalImageSize The size of the image rects should be reported against.
+     * @return The frame to run detection on. Caller must close it.
+     */
+    public DetectionFrame process(@NotNull Mat orientedImage, @NotNull Size originalImageSize) {
+        // Downscale
+        long startTime = System.nanoTime();
+        double scaleFactor = MathUtils.resizeToBoundingRect(orientedImage, maxProcessingSize);
+        Mat scaledMat = orientedImage;
+        Mat resizeBuffer = null;
+        if (scaleFactor < 1) {
+            resizeBuffer = MatPool.borrow();
+            Imgproc.resize(orientedImage, resizeBuffer, new Size(0, 0), scaleFactor, scaleFactor,
+                    Imgproc.INTER_CUBIC);
+            scaledMat = resizeBuffer;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Image re-sized to: {}", scaledMat.size());
+            }
+        } else {
+            LOGGER.debug("No resizing required.");
+        }
+        RESIZE_TIMER.recordSince(startTime);
+
+        // Grayscale
+        startTime = System.nanoTime();
+        Mat grayMat = MatPool.borrow();
+        try {
+            switch (scaledMat.channels()) {
+                case 1:
+                    scaledMat.copyTo(grayMat);
+                    break;
+                case 4:
+                    Imgproc.cvtColor(scaledMat, grayMat, Imgproc.COLOR_BGRA2GRAY);
+                    break;
+                default:
+                    Imgproc.cvtColor(scaledMat, grayMat, Imgproc.COLOR_BGR2GRAY);
+            }
+        } catch (RuntimeException e) {
+            MatPool.giveBack(grayMat);
+            throw e;
+        } finally {
+            MatPool.giveBack(resizeBuffer);
+        }
+
+        // Equalize histogram
+        if (equalizeHistogram) {
+            Imgproc.equalizeHist(grayMat, grayMat);
+        }
+        GRAYSCALE_TIMER.recordSince(startTime);
+
+        double scaleToOriginal = (1.0 / scaleFactor) * (originalImageSize.width / orientedImage.width());
+        return new DetectionFrame(grayMat, originalImageSize, scaleToOriginal);
+    }
+}
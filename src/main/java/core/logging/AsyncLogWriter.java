@@ -0,0 +1,261 @@
+package main.java.core.logging;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves formatting and printing of log events off the logging thread. Events are queued in a {@link LogRingBuffer}
+ * and a daemon thread formats each as one json line on stdout:
+ * {"timestamp", "level", "logger", "thread", "requestId", "message", "error"}.
+ * <p/>
+ * If the buffer is full, events are dropped rather than blocking the request, and a count of dropped events is
+ * logged. Buffer size can be set with system property serverlesscv.log.bufferSize.
+ */
+final class AsyncLogWriter implements Runnable {
+
+    private static final int BUFFER_SIZE = Integer.getInteger("serverlesscv.log.bufferSize", 8192);
+
+    /**
+     * Longest the writer sleeps when idle, in case a wake up is missed.
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long FLUSH_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final AsyncLogWriter INSTANCE = new AsyncLogWriter(BUFFER_SIZE);
+
+    private final LogRingBuffer buffer;
+
+    private final Thread thread;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean idle;
+
+    // Used by the writer thread only.
+    private final StringBuilder line = new StringBuilder(256);
+
+    private final StringBuilder message = new StringBuilder(128);
+
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+    private AsyncLogWriter(int bufferSize) {
+        this.buffer = new LogRingBuffer(bufferSize);
+        this.timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        this.thread = new Thread(this, "serverlesscv-log-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread("serverlesscv-log-flush") {
+            @Override
+            public void run() {
+                flush(TimeUnit.SECONDS.toMillis(1));
+            }
+        });
+    }
+
+    static AsyncLogWriter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues an event. Arguments which may change later are converted to string now, others are formatted by the
+     * writer thread.
+     */
+    void append(LogLevel level, String loggerName, String format, int argCount, Object arg0, Object arg1,
+                Object arg2, Object[] args) {
+        long position = buffer.claim();
+        if (position < 0) {
+            dropped.incrementAndGet();
+            return;
+        }
+        LogEvent event = buffer.get(position);
+        event.timestampMillis = System.currentTimeMillis();
+        event.level = level;
+        event.loggerName = loggerName;
+        event.threadName = Thread.currentThread().getName();
+        event.requestId = LogContext.getRequestId();
+        event.format = format;
+        event.argCount = argCount;
+        if (args != null) {
+            Object[] capturedArgs = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                capturedArgs[i] = capture(args[i]);
+            }
+            event.args = capturedArgs;
+        } else {
+            event.arg0 = capture(arg0);
+            event.arg1 = capture(arg1);
+            event.arg2 = capture(arg2);
+        }
+        buffer.publish(position);
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Waits until all events queued before this call are printed.
+     *
+     * @return False if timeout elapsed first.
+     */
+    boolean flush(long timeoutMillis) {
+        long target = buffer.getClaimed();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        LockSupport.unpark(thread);
+        while (buffer.getReleased() < target || dropped.get() > 0) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(FLUSH_POLL_NANOS);
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            LogEvent event = buffer.peek();
+            if (event != null) {
+                try {
+                    System.out.println(toJson(event));
+                } catch (RuntimeException e) {
+                    // An argument failed to format, keep writing other events.
+                    System.out.println("Failed to write log event: " + event.format + " " + e);
+                }
+                buffer.release();
+                continue;
+            }
+
+            long droppedCount = dropped.get();
+            if (droppedCount > 0) {
+                System.out.println("{\"timestamp\":\"" + timestampFormat.format(new Date()) + "\",\"level\":\"WARN\"," +
+                        "\"logger\":\"AsyncLogWriter\",\"message\":\"Log buffer of " + buffer.getCapacity() +
+                        " events full, dropped " + droppedCount + " events\"}");
+                // Subtract only what was reported, so flush waits for drops which happened meanwhile too.
+                dropped.addAndGet(-droppedCount);
+                continue;
+            }
+
+            idle = true;
+            if (buffer.peek() == null) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            idle = false;
+        }
+    }
+
+    private String toJson(LogEvent event) {
+        Throwable error = formatMessage(event);
+        line.setLength(0);
+        line.append("{\"timestamp\":\"").append(timestampFormat.format(new Date(event.timestampMillis)));
+        line.append("\",\"level\":\"").append(event.level);
+        line.append("\",\"logger\":");
+        appendJsonString(line, event.loggerName);
+        line.append(",\"thread\":");
+        appendJsonString(line, event.threadName);
+        if (event.requestId != null) {
+            line.append(",\"requestId\":");
+            appendJsonString(line, event.requestId);
+        }
+        line.append(",\"message\":");
+        appendJsonString(line, message);
+        if (error != null) {
+            StringWriter stackTrace = new StringWriter();
+            error.printStackTrace(new PrintWriter(stackTrace));
+            line.append(",\"error\":");
+            appendJsonString(line, stackTrace.toString());
+        }
+        line.append('}');
+        return line.toString();
+    }
+
+    /**
+     * Replaces each {} of format with the next argument, into message. As with slf4j, a last argument which is a
+     * throwable and has no {} left for it is not part of the message.
+     *
+     * @return The throwable, null if there is none.
+     */
+    private Throwable formatMessage(LogEvent event) {
+        message.setLength(0);
+        String format = event.format;
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while (argIndex < event.argCount && (placeholder = format.indexOf("{}", start)) >= 0) {
+            message.append(format, start, placeholder).append(String.valueOf(event.getArg(argIndex++)));
+            start = placeholder + 2;
+        }
+        message.append(format, start, format.length());
+
+        if (argIndex == event.argCount - 1 && event.getArg(argIndex) instanceof Throwable) {
+            return (Throwable) event.getArg(argIndex);
+        }
+        return null;
+    }
+
+    /**
+     * Strings, boxed primitives, enums and throwables are kept as they are. Anything else, e.g. a Mat which may be
+     * released before the writer gets to it, is converted to string by the logging thread.
+     */
+    private static Object capture(Object arg) {
+        if (arg == null || arg instanceof String || arg instanceof Number || arg instanceof Boolean ||
+                arg instanceof Character || arg instanceof Enum || arg instanceof Throwable) {
+            return arg;
+        }
+        if (arg instanceof Object[]) {
+            return Arrays.deepToString((Object[]) arg);
+        }
+        if (arg instanceof int[]) {
+            return Arrays.toString((int[]) arg);
+        }
+        if (arg instanceof long[]) {
+            return Arrays.toString((long[]) arg);
+        }
+        if (arg instanceof double[]) {
+            return Arrays.toString((double[]) arg);
+        }
+        return String.valueOf(arg);
+    }
+
+    private static void appendJsonString(StringBuilder sb, CharSequence value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
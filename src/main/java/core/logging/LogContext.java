@@ -0,0 +1,31 @@
+package main.java.core.logging;
+
+/**
+ * Request id of the current thread, added to every log event the thread writes, so that logs of concurrent or
+ * back to back requests can be told apart.
+ */
+public class LogContext {
+
+    private static final ThreadLocal<String> REQUEST_ID = new ThreadLocal<>();
+
+    /**
+     * @param requestId Id of the request the current thread works on, e.g. aws request id or image path.
+     */
+    public static void setRequestId(String requestId) {
+        REQUEST_ID.set(requestId);
+    }
+
+    /**
+     * @return Request id of the current thread, null if none is set.
+     */
+    public static String getRequestId() {
+        return REQUEST_ID.get();
+    }
+
+    /**
+     * Removes request id of the current thread, call once request is done so a pooled thread does not keep it.
+     */
+    public static void clear() {
+        REQUEST_ID.remove();
+    }
+}
@@ -0,0 +1,63 @@
+package main.java.core.logging;
+
+/**
+ * A slot of {@link LogRingBuffer}. Slots are allocated once and reused, an event is filled by the logging thread and
+ * read by the writer thread once published.
+ */
+final class LogEvent {
+
+    long timestampMillis;
+
+    LogLevel level;
+
+    String loggerName;
+
+    String threadName;
+
+    String requestId;
+
+    String format;
+
+    /**
+     * Number of arguments. Up to 3 are held in arg0, arg1 and arg2, more in args.
+     */
+    int argCount;
+
+    Object arg0;
+
+    Object arg1;
+
+    Object arg2;
+
+    Object[] args;
+
+    Object getArg(int index) {
+        if (args != null) {
+            return args[index];
+        }
+        switch (index) {
+            case 0:
+                return arg0;
+            case 1:
+                return arg1;
+            default:
+                return arg2;
+        }
+    }
+
+    /**
+     * Drops references, so a slot does not keep objects of old events alive.
+     */
+    void clear() {
+        level = null;
+        loggerName = null;
+        threadName = null;
+        requestId = null;
+        format = null;
+        argCount = 0;
+        arg0 = null;
+        arg1 = null;
+        arg2 = null;
+        args = null;
+    }
+}
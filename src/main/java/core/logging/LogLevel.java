@@ -0,0 +1,27 @@
+package main.java.core.logging;
+
+/**
+ * Severity of a log event, in increasing order.
+ */
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF;
+
+    /**
+     * @param value        Name of a level, case ignored.
+     * @param defaultLevel Level to use if value is null or not a level.
+     */
+    static LogLevel parse(String value, LogLevel defaultLevel) {
+        if (value == null) {
+            return defaultLevel;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultLevel;
+        }
+    }
+}
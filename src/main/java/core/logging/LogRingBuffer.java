@@ -0,0 +1,112 @@
+package main.java.core.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of preallocated {@link LogEvent}s, for many logging threads and a single writer thread.
+ * <p/>
+ * Each slot has a sequence number. A logging thread claims position p with a CAS on tail once slot sequence is p,
+ * fills the event and publishes it by setting sequence to p + 1. The writer reads slot at head once its sequence is
+ * head + 1, and hands it back by setting sequence to head + capacity. If the queue is full, claim fails at once
+ * instead of waiting for the writer.
+ */
+final class LogRingBuffer {
+
+    private final LogEvent[] events;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next position to read, written by the writer thread only.
+     */
+    private volatile long head;
+
+    /**
+     * @param minCapacity Events the buffer holds, rounded up to a power of 2.
+     */
+    LogRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity) - 1) << 1;
+        this.mask = capacity - 1;
+        this.events = new LogEvent[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new LogEvent();
+            sequences.set(i, i);
+        }
+    }
+
+    int getCapacity() {
+        return events.length;
+    }
+
+    /**
+     * @return Position of a free slot, which must be filled and then {@link #publish(long)}ed, or -1 if full.
+     */
+    long claim() {
+        long position = tail.get();
+        while (true) {
+            long difference = sequences.get((int) position & mask) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return -1;
+            } else {
+                // Another thread claimed this position, retry at the current tail.
+                position = tail.get();
+            }
+        }
+    }
+
+    LogEvent get(long position) {
+        return events[(int) position & mask];
+    }
+
+    void publish(long position) {
+        sequences.set((int) position & mask, position + 1);
+    }
+
+    /**
+     * Writer thread only.
+     *
+     * @return Event at head, null if it is not published yet.
+     */
+    LogEvent peek() {
+        long position = head;
+        if (sequences.get((int) position & mask) != position + 1) {
+            return null;
+        }
+        return events[(int) position & mask];
+    }
+
+    /**
+     * Writer thread only. Clears event at head and hands its slot back to logging threads.
+     */
+    void release() {
+        long position = head;
+        events[(int) position & mask].clear();
+        sequences.set((int) position & mask, position + events.length);
+        head = position + 1;
+    }
+
+    /**
+     * @return Number of events claimed so far.
+     */
+    long getClaimed() {
+        return tail.get();
+    }
+
+    /**
+     * @return Number of events written and released so far.
+     */
+    long getReleased() {
+        return head;
+    }
+}
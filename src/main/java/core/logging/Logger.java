@@ -0,0 +1,142 @@
+package main.java.core.logging;
+
+/**
+ * Leveled logger with slf4j style "{}" placeholders, written asynchronously as json lines by
+ * {@link AsyncLogWriter}. Level is checked before anything else, so a disabled call with up to 3 arguments costs a
+ * comparison and allocates nothing, as long as its arguments are already objects. Where an argument has to be built
+ * or boxed, or there are more than 3, guard the call with {@link #isDebugEnabled()}.
+ * <p/>
+ * Level is set with system property serverlesscv.log.level(DEBUG, INFO, WARN, ERROR or OFF), INFO by default.
+ */
+public class Logger {
+
+    private static volatile LogLevel threshold = LogLevel.parse(System.getProperty("serverlesscv.log.level"),
+            LogLevel.INFO);
+
+    private final String name;
+
+    private Logger(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return A logger named after simple name of type.
+     */
+    public static Logger getLogger(Class<?> type) {
+        return new Logger(type.getSimpleName());
+    }
+
+    public static void setLevel(LogLevel level) {
+        threshold = level;
+    }
+
+    /**
+     * Waits until events logged so far are printed. Lambda freezes the container once handler returns, so call
+     * this before returning to keep logs of an invocation with it.
+     *
+     * @return False if timeout elapsed first.
+     */
+    public static boolean flush(long timeoutMillis) {
+        return AsyncLogWriter.getInstance().flush(timeoutMillis);
+    }
+
+    public boolean isEnabled(LogLevel level) {
+        return level.ordinal() >= threshold.ordinal();
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    public void debug(String message) {
+        log(LogLevel.DEBUG, message, 0, null, null, null);
+    }
+
+    public void debug(String format, Object arg) {
+        log(LogLevel.DEBUG, format, 1, arg, null, null);
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        log(LogLevel.DEBUG, format, 2, arg1, arg2, null);
+    }
+
+    public void debug(String format, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.DEBUG, format, 3, arg1, arg2, arg3);
+    }
+
+    public void debug(String format, Object... args) {
+        log(LogLevel.DEBUG, format, args);
+    }
+
+    public void info(String message) {
+        log(LogLevel.INFO, message, 0, null, null, null);
+    }
+
+    public void info(String format, Object arg) {
+        log(LogLevel.INFO, format, 1, arg, null, null);
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        log(LogLevel.INFO, format, 2, arg1, arg2, null);
+    }
+
+    public void info(String format, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.INFO, format, 3, arg1, arg2, arg3);
+    }
+
+    public void info(String format, Object... args) {
+        log(LogLevel.INFO, format, args);
+    }
+
+    public void warn(String message) {
+        log(LogLevel.WARN, message, 0, null, null, null);
+    }
+
+    public void warn(String format, Object arg) {
+        log(LogLevel.WARN, format, 1, arg, null, null);
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        log(LogLevel.WARN, format, 2, arg1, arg2, null);
+    }
+
+    public void warn(String format, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.WARN, format, 3, arg1, arg2, arg3);
+    }
+
+    public void warn(String format, Object... args) {
+        log(LogLevel.WARN, format, args);
+    }
+
+    public void error(String message) {
+        log(LogLevel.ERROR, message, 0, null, null, null);
+    }
+
+    public void error(String format, Object arg) {
+        log(LogLevel.ERROR, format, 1, arg, null, null);
+    }
+
+    public void error(String format, Object arg1, Object arg2) {
+        log(LogLevel.ERROR, format, 2, arg1, arg2, null);
+    }
+
+    public void error(String format, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.ERROR, format, 3, arg1, arg2, arg3);
+    }
+
+    public void error(String format, Object... args) {
+        log(LogLevel.ERROR, format, args);
+    }
+
+    private void log(LogLevel level, String format, int argCount, Object arg0, Object arg1, Object arg2) {
+        if (isEnabled(level)) {
+            AsyncLogWriter.getInstance().append(level, name, format, argCount, arg0, arg1, arg2, null);
+        }
+    }
+
+    private void log(LogLevel level, String format, Object[] args) {
+        if (isEnabled(level)) {
+            AsyncLogWriter.getInstance().append(level, name, format, args.length, null, null, null, args);
+        }
+    }
+}
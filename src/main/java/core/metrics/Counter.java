@@ -0,0 +1,37 @@
+package main.java.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count of events, e.g. faces found or cache hits.
+ */
+public class Counter {
+
+    private final String name;
+
+    private final AtomicLong value = new AtomicLong();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    public long get() {
+        return value.get();
+    }
+
+    long get(boolean reset) {
+        return reset ? value.getAndSet(0) : value.get();
+    }
+}
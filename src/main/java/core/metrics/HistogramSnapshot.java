@@ -0,0 +1,100 @@
+package main.java.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies of one stage over an interval, see {@link LatencyHistogram}.
+ */
+public class HistogramSnapshot {
+
+    private final String name;
+
+    private final long[] bucketCounts;
+
+    private final long count;
+
+    private final long totalNanos;
+
+    private final long maxNanos;
+
+    HistogramSnapshot(String name, long[] bucketCounts, long totalNanos, long maxNanos) {
+        this.name = name;
+        this.bucketCounts = bucketCounts;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        long sum = 0;
+        for (long bucketCount : bucketCounts) {
+            sum += bucketCount;
+        }
+        this.count = sum;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public double getMeanNanos() {
+        return (count == 0) ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * @return The smallest recorded value, within bucket precision.
+     */
+    public long getMinNanos() {
+        for (int i = 0; i < bucketCounts.length; i++) {
+            if (bucketCounts[i] > 0) {
+                return LatencyHistogram.lowerBoundOf(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param percentile In range (0, 100].
+     * @return The value below or at which percentile of values lie, 0 if there are none.
+     */
+    public double getPercentileNanos(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.valueOf(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    /**
+     * @return Count of each bucket, index by bucket.
+     */
+    long[] getBucketCounts() {
+        return bucketCounts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms", name, count,
+                toMillis(getMeanNanos()), toMillis(getPercentileNanos(50)), toMillis(getPercentileNanos(90)),
+                toMillis(getPercentileNanos(99)), toMillis(maxNanos));
+    }
+
+    static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
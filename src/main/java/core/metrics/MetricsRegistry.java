@@ -0,0 +1,203 @@
+package main.java.core.metrics;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In process latency histograms and counters of the detection pipeline. Stages look up their timer once, keep it
+ * in a static field and record into it, which costs two nanoTime calls and a few atomic increments per call.
+ * <p/>
+ * Snapshots are exported as CloudWatch embedded metric format(EMF) json lines, which Lambda turns into metrics when
+ * printed to stdout, or as plain text for local runs.
+ */
+public class MetricsRegistry {
+
+    public static final String NAMESPACE_PROPERTY = "serverlesscv.metrics.namespace";
+
+    /**
+     * EMF allows at most 100 distinct values per metric.
+     */
+    private static final int MAX_EMF_VALUES = 100;
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentMap<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return The timer of name, created on first call.
+     */
+    public LatencyHistogram timer(String name) {
+        LatencyHistogram timer = timers.get(name);
+        if (timer == null) {
+            LatencyHistogram newTimer = new LatencyHistogram(name);
+            timer = timers.putIfAbsent(name, newTimer);
+            if (timer == null) {
+                timer = newTimer;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * @return The counter of name, created on first call.
+     */
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter newCounter = new Counter(name);
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @param reset Start a new interval for all timers and counters.
+     * @return Timers which recorded anything, by name.
+     */
+    public Map<String, HistogramSnapshot> snapshotTimers(boolean reset) {
+        Map<String, HistogramSnapshot> snapshots = new TreeMap<>();
+        for (LatencyHistogram timer : timers.values()) {
+            HistogramSnapshot snapshot = timer.snapshot(reset);
+            if (snapshot.getCount() > 0) {
+                snapshots.put(timer.getName(), snapshot);
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * @param reset Set counters to 0 after reading.
+     * @return Value of every counter, by name.
+     */
+    public Map<String, Long> snapshotCounters(boolean reset) {
+        Map<String, Long> snapshots = new TreeMap<>();
+        for (Counter counter : counters.values()) {
+            snapshots.put(counter.getName(), counter.get(reset));
+        }
+        return snapshots;
+    }
+
+    /**
+     * @param reset Start a new interval after reading.
+     * @return One line per timer with p50, p90, p99 and max, then one line of counters.
+     */
+    public String toText(boolean reset) {
+        StringBuilder sb = new StringBuilder();
+        for (HistogramSnapshot snapshot : snapshotTimers(reset).values()) {
+            sb.append(snapshot).append(System.lineSeparator());
+        }
+        sb.append("counters ").append(snapshotCounters(reset));
+        return sb.toString();
+    }
+
+    /**
+     * Formats metrics as CloudWatch embedded metric format, one json object per line: a line per timer, with the
+     * timer name as "Stage" dimension and its distribution as values and counts in milliseconds, and a line with
+     * all counters. Timers which recorded nothing are left out.
+     *
+     * @param reset Start a new interval after reading, so that each export only has new values.
+     * @return The json lines, to be printed to stdout.
+     */
+    public List<String> toEmf(boolean reset) {
+        String namespace = System.getProperty(NAMESPACE_PROPERTY, "ServerlessCV");
+        long timestamp = System.currentTimeMillis();
+        List<String> lines = new ArrayList<>();
+        for (HistogramSnapshot snapshot : snapshotTimers(reset).values()) {
+            JSONObject line = emfLine(namespace, timestamp, new JSONArray().put("Stage"),
+                    new JSONArray().put(new JSONObject().put("Name", "Latency").put("Unit", "Milliseconds")));
+            line.put("Stage", snapshot.getName());
+            line.put("Latency", emfDistribution(snapshot));
+            lines.add(line.toString());
+        }
+
+        Map<String, Long> counterValues = snapshotCounters(reset);
+        if (!counterValues.isEmpty()) {
+            JSONArray metrics = new JSONArray();
+            for (String name : counterValues.keySet()) {
+                metrics.put(new JSONObject().put("Name", name).put("Unit", "Count"));
+            }
+            JSONObject line = emfLine(namespace, timestamp, new JSONArray(), metrics);
+            for (Map.Entry<String, Long> entry : counterValues.entrySet()) {
+                line.put(entry.getKey(), entry.getValue());
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private static JSONObject emfLine(String namespace, long timestamp, JSONArray dimensions, JSONArray metrics) {
+        JSONObject directive = new JSONObject();
+        directive.put("Namespace", namespace);
+        directive.put("Dimensions", new JSONArray().put(dimensions));
+        directive.put("Metrics", metrics);
+        JSONObject aws = new JSONObject();
+        aws.put("Timestamp", timestamp);
+        aws.put("CloudWatchMetrics", new JSONArray().put(directive));
+        return new JSONObject().put("_aws", aws);
+    }
+
+    /**
+     * Non empty buckets as values and counts. If there are more than EMF allows, neighbouring buckets are merged
+     * into their count weighted mean. Values are capped at max, so that a bucket middle never exceeds it.
+     */
+    private static JSONObject emfDistribution(HistogramSnapshot snapshot) {
+        long[] bucketCounts = snapshot.getBucketCounts();
+        int nonEmpty = 0;
+        for (long bucketCount : bucketCounts) {
+            if (bucketCount > 0) {
+                nonEmpty++;
+            }
+        }
+        int bucketsPerValue = (nonEmpty + MAX_EMF_VALUES - 1) / MAX_EMF_VALUES;
+
+        JSONArray values = new JSONArray();
+        JSONArray counts = new JSONArray();
+        double weightedSum = 0;
+        long mergedCount = 0;
+        int merged = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            if (bucketCounts[i] == 0) {
+                continue;
+            }
+            weightedSum += LatencyHistogram.valueOf(i) * bucketCounts[i];
+            mergedCount += bucketCounts[i];
+            merged++;
+            if (merged == bucketsPerValue) {
+                values.put(HistogramSnapshot.toMillis(Math.min(weightedSum / mergedCount, snapshot.getMaxNanos())));
+                counts.put(mergedCount);
+                weightedSum = 0;
+                mergedCount = 0;
+                merged = 0;
+            }
+        }
+        if (merged > 0) {
+            values.put(HistogramSnapshot.toMillis(Math.min(weightedSum / mergedCount, snapshot.getMaxNanos())));
+            counts.put(mergedCount);
+        }
+
+        JSONObject distribution = new JSONObject();
+        distribution.put("Values", values);
+        distribution.put("Counts", counts);
+        distribution.put("Min", HistogramSnapshot.toMillis(snapshot.getMinNanos()));
+        distribution.put("Max", HistogramSnapshot.toMillis(snapshot.getMaxNanos()));
+        distribution.put("Sum", HistogramSnapshot.toMillis(snapshot.getTotalNanos()));
+        distribution.put("Count", snapshot.getCount());
+        return distribution;
+    }
+}
@@ -0,0 +1,178 @@
+package main.java.core.video;
+
+import main.java.utils.MathUtils;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Follows faces between keyframes by template matching. Each face is searched for in a window around its last
+ * position, and is dropped once its best match is too weak, until the next keyframe finds it again. A face found
+ * again at a keyframe keeps its track id.
+ */
+class FaceTracker implements AutoCloseable {
+
+    /**
+     * Search window is the face grown by this much of its size on every side.
+     */
+    private static final double SEARCH_MARGIN = 0.5;
+
+    /**
+     * Weakest normalized correlation accepted as the same face.
+     */
+    private static final double MIN_MATCH_SCORE = 0.6;
+
+    /**
+     * Smallest overlap, as intersection over union, for a detected face to continue a track.
+     */
+    private static final double MIN_TRACK_OVERLAP = 0.3;
+
+    /**
+     * A followed face.
+     */
+    static final class Track {
+
+        private final int id;
+
+        private Rect rect;
+
+        private double matchScore = 1;
+
+        private final Mat template = new Mat();
+
+        Track(int id, Rect rect) {
+            this.id = id;
+            this.rect = rect;
+        }
+
+        int getId() {
+            return id;
+        }
+
+        /**
+         * @return Position in the tracking frame.
+         */
+        Rect getRect() {
+            return rect;
+        }
+
+        /**
+         * @return Correlation of the last match, 1 at a keyframe.
+         */
+        double getMatchScore() {
+            return matchScore;
+        }
+    }
+
+    private final List<Track> tracks = new ArrayList<>();
+
+    private final Mat matchScores = new Mat();
+
+    private int nextTrackId = 1;
+
+    /**
+     * Replaces tracks with faces detected in a keyframe. A face overlapping an existing track continues it.
+     *
+     * @param grayFrame The tracking frame, 8-bit grayscale.
+     * @param faces     Faces in tracking frame coordinates.
+     */
+    void reset(Mat grayFrame, List<Rect> faces) {
+        List<Track> previousTracks = new ArrayList<>(tracks);
+        tracks.clear();
+        for (Rect face : faces) {
+            Rect clipped = MathUtils.getIntersectionRect(face, new Rect(0, 0, grayFrame.cols(), grayFrame.rows()));
+            if (clipped.area() <= 0) {
+                continue;
+            }
+            Track track = null;
+            double bestOverlap = MIN_TRACK_OVERLAP;
+            for (Track previousTrack : previousTracks) {
+                double overlap = MathUtils.intersectionOverUnion(previousTrack.rect, clipped);
+                if (overlap >= bestOverlap) {
+                    bestOverlap = overlap;
+                    track = previousTrack;
+                }
+            }
+            if (track != null) {
+                previousTracks.remove(track);
+                track.rect = clipped;
+                track.matchScore = 1;
+            } else {
+                track = new Track(nextTrackId++, clipped);
+            }
+            copyRegion(grayFrame, clipped, track.template);
+            tracks.add(track);
+        }
+        for (Track lostTrack : previousTracks) {
+            lostTrack.template.release();
+        }
+    }
+
+    /**
+     * Moves every track to its best match in a later frame, dropping those without a good one.
+     *
+     * @param grayFrame The tracking frame, 8-bit grayscale, same size as at {@link #reset(Mat, List)}.
+     */
+    void update(Mat grayFrame) {
+        Rect frameRect = new Rect(0, 0, grayFrame.cols(), grayFrame.rows());
+        Iterator<Track> iterator = tracks.iterator();
+        while (iterator.hasNext()) {
+            Track track = iterator.next();
+            int marginX = (int) Math.ceil(track.rect.width * SEARCH_MARGIN);
+            int marginY = (int) Math.ceil(track.rect.height * SEARCH_MARGIN);
+            Rect searchRect = MathUtils.getIntersectionRect(new Rect(track.rect.x - marginX, track.rect.y - marginY,
+                    track.rect.width + 2 * marginX, track.rect.height + 2 * marginY), frameRect);
+            if (searchRect.width < track.template.cols() || searchRect.height < track.template.rows()) {
+                track.template.release();
+                iterator.remove();
+                continue;
+            }
+
+            Mat searchImage = grayFrame.submat(searchRect);
+            Core.MinMaxLocResult bestMatch;
+            try {
+                Imgproc.matchTemplate(searchImage, track.template, matchScores, Imgproc.TM_CCOEFF_NORMED);
+                bestMatch = Core.minMaxLoc(matchScores);
+            } finally {
+                searchImage.release();
+            }
+            if (bestMatch.maxVal < MIN_MATCH_SCORE) {
+                track.template.release();
+                iterator.remove();
+                continue;
+            }
+            track.rect = new Rect(searchRect.x + (int) bestMatch.maxLoc.x, searchRect.y + (int) bestMatch.maxLoc.y,
+                    track.template.cols(), track.template.rows());
+            track.matchScore = bestMatch.maxVal;
+            // Follow slow changes of pose and light, keyframes correct the drift this allows.
+            copyRegion(grayFrame, track.rect, track.template);
+        }
+    }
+
+    List<Track> getTracks() {
+        return tracks;
+    }
+
+    private static void copyRegion(Mat image, Rect region, Mat destination) {
+        Mat regionImage = image.submat(region);
+        try {
+            regionImage.copyTo(destination);
+        } finally {
+            regionImage.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Track track : tracks) {
+            track.template.release();
+        }
+        tracks.clear();
+        matchScores.release();
+    }
+}
@@ -0,0 +1,52 @@
+package main.java.core.video;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Measures how much a frame differs from the one before it, as mean absolute difference of small grayscale
+ * thumbnails. Cheap enough to run on every sampled frame, and only two thumbnails are kept.
+ */
+class SceneChangeDetector implements AutoCloseable {
+
+    private static final int THUMBNAIL_WIDTH = 64;
+
+    private Mat previous = new Mat();
+
+    private Mat current = new Mat();
+
+    private final Mat difference = new Mat();
+
+    private boolean hasPrevious = false;
+
+    /**
+     * @param grayFrame The frame, 8-bit grayscale.
+     * @return Change since the previous frame, from 0(same) to 1. 1 for the first frame.
+     */
+    double measure(Mat grayFrame) {
+        Size thumbnailSize = new Size(THUMBNAIL_WIDTH, Math.max(1, Math.rint(THUMBNAIL_WIDTH * grayFrame.rows() /
+                (double) grayFrame.cols())));
+        Imgproc.resize(grayFrame, current, thumbnailSize, 0, 0, Imgproc.INTER_AREA);
+        double change = 1;
+        if (hasPrevious && previous.size().equals(current.size())) {
+            Core.absdiff(current, previous, difference);
+            change = Core.mean(difference).val[0] / 255;
+        }
+
+        // Current thumbnail becomes the previous one, reusing both buffers.
+        Mat swap = previous;
+        previous = current;
+        current = swap;
+        hasPrevious = true;
+        return change;
+    }
+
+    @Override
+    public void close() {
+        previous.release();
+        current.release();
+        difference.release();
+    }
+}
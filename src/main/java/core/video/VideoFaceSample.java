@@ -0,0 +1,89 @@
+package main.java.core.video;
+
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+
+import java.util.List;
+
+/**
+ * Faces in a sampled frame of a video, an entry of its face timeline.
+ */
+public class VideoFaceSample {
+
+    /**
+     * A face with the id of the track it belongs to, the same for a face across samples.
+     */
+    public static class TrackedFace {
+
+        private final int trackId;
+
+        private final FeatureOfInterest featureOfInterest;
+
+        public TrackedFace(int trackId, FeatureOfInterest featureOfInterest) {
+            this.trackId = trackId;
+            this.featureOfInterest = featureOfInterest;
+        }
+
+        public int getTrackId() {
+            return trackId;
+        }
+
+        /**
+         * @return The face, rect in video frame coordinates. Score is the detection score at keyframes, and the
+         * template match score in between.
+         */
+        public FeatureOfInterest getFeatureOfInterest() {
+            return featureOfInterest;
+        }
+    }
+
+    private final int frameIndex;
+
+    private final long timeMillis;
+
+    private final boolean keyframe;
+
+    private final double sceneChange;
+
+    private final List<TrackedFace> faces;
+
+    public VideoFaceSample(int frameIndex, long timeMillis, boolean keyframe, double sceneChange,
+                           List<TrackedFace> faces) {
+        this.frameIndex = frameIndex;
+        this.timeMillis = timeMillis;
+        this.keyframe = keyframe;
+        this.sceneChange = sceneChange;
+        this.faces = faces;
+    }
+
+    public int getFrameIndex() {
+        return frameIndex;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return True if faces were detected in this frame, false if they were tracked from an earlier one.
+     */
+    public boolean isKeyframe() {
+        return keyframe;
+    }
+
+    /**
+     * @return Change since the previous sample, from 0 to 1.
+     */
+    public double getSceneChange() {
+        return sceneChange;
+    }
+
+    public List<TrackedFace> getFaces() {
+        return faces;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoFaceSample [frameIndex=" + frameIndex + ", timeMillis=" + timeMillis + ", keyframe=" + keyframe +
+                ", faces=" + faces.size() + "]";
+    }
+}
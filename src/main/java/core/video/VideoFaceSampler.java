@@ -0,0 +1,217 @@
+package main.java.core.video;
+
+import main.java.core.featuredetection.ProminentFeatureDetector;
+import main.java.core.featuredetection.datapojo.DetectionOptions;
+import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.imageprocess.DetectionFrame;
+import main.java.core.imageprocess.PreprocessingPipeline;
+import main.java.core.logging.Logger;
+import main.java.core.metrics.Counter;
+import main.java.core.metrics.LatencyHistogram;
+import main.java.core.metrics.MetricsRegistry;
+import main.java.utils.MathUtils;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the face timeline of a video without detecting faces in every frame. Frames are decoded one by one with
+ * VideoCapture and sampled at an adaptive rate: every frame while the scene moves, backing off to one per
+ * MAX_SAMPLE_INTERVAL_MILLIS while it stands still. Faces are detected only in keyframes, which are the first frame,
+ * a sample that differs a lot from the previous one(a scene change), and a sample MAX_KEYFRAME_INTERVAL_MILLIS after
+ * the last keyframe, to pick up faces entering the scene. In between, faces are followed by a {@link FaceTracker}.
+ * <p/>
+ * Only the current frame and small grayscale copies of it are held, so memory does not grow with video length.
+ * Samples are handed to a listener as they are made.
+ */
+public class VideoFaceSampler {
+
+    public interface SampleListener {
+        /**
+         * Called for every sample, in frame order.
+         */
+        void onSample(VideoFaceSample sample) throws Exception;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(VideoFaceSampler.class);
+
+    /**
+     * Width of the grayscale frame used for scene change and tracking.
+     */
+    private static final int TRACKING_WIDTH = 480;
+
+    /**
+     * Change above which a sample is a new scene, and is detected again.
+     */
+    private static final double SCENE_CHANGE_THRESHOLD = 0.12;
+
+    /**
+     * Change above which the next frame is sampled.
+     */
+    private static final double MOTION_THRESHOLD = 0.03;
+
+    /**
+     * Change below which sampling slows down.
+     */
+    private static final double STILL_THRESHOLD = 0.01;
+
+    private static final long MAX_SAMPLE_INTERVAL_MILLIS = 500;
+
+    private static final long MAX_KEYFRAME_INTERVAL_MILLIS = 5000;
+
+    /**
+     * Used if the container does not tell frame rate.
+     */
+    private static final double DEFAULT_FRAMES_PER_SECOND = 25;
+
+    private static final Counter FRAMES_COUNTER = MetricsRegistry.getInstance().counter("video.frames");
+
+    private static final Counter SAMPLES_COUNTER = MetricsRegistry.getInstance().counter("video.samples");
+
+    private static final Counter KEYFRAMES_COUNTER = MetricsRegistry.getInstance().counter("video.keyframes");
+
+    private static final LatencyHistogram TRACK_TIMER = MetricsRegistry.getInstance().timer("video.track");
+
+    private final DetectionOptions options;
+
+    private final PreprocessingPipeline preprocessingPipeline;
+
+    /**
+     * @param options The detection parameters for keyframes.
+     */
+    public VideoFaceSampler(DetectionOptions options) {
+        this.options = options;
+        this.preprocessingPipeline = ProminentFeatureDetector.newPreprocessingPipeline(options);
+    }
+
+    /**
+     * Decodes the video and reports faces of every sampled frame to listener.
+     *
+     * @param videoPath Path of a video file VideoCapture can decode.
+     * @param listener  Receives samples in frame order.
+     * @return Number of frames in the video.
+     * @throws IOException If the video can't be opened.
+     */
+    public int process(String videoPath, SampleListener listener) throws Exception {
+        VideoCapture capture = new VideoCapture(videoPath);
+        if (!capture.isOpened()) {
+            capture.release();
+            throw new IOException("Unable to open video: " + videoPath);
+        }
+        double framesPerSecond = capture.get(Videoio.CAP_PROP_FPS);
+        if (!(framesPerSecond > 0)) {
+            framesPerSecond = DEFAULT_FRAMES_PER_SECOND;
+        }
+        int maxSampleStep = Math.max(1, (int) Math.round(framesPerSecond * MAX_SAMPLE_INTERVAL_MILLIS / 1000));
+        LOGGER.debug("Processing video {} at {} fps", videoPath, framesPerSecond);
+
+        Mat frame = new Mat();
+        Mat scaledFrame = new Mat();
+        Mat trackingFrame = new Mat();
+        SceneChangeDetector sceneChangeDetector = new SceneChangeDetector();
+        FaceTracker faceTracker = new FaceTracker();
+        int frameIndex = 0;
+        try {
+            int nextSample = 0;
+            int sampleStep = 1;
+            long lastKeyframeMillis = -MAX_KEYFRAME_INTERVAL_MILLIS;
+            // Frames between samples are only grabbed, which skips their color conversion.
+            for (; capture.grab(); frameIndex++) {
+                if (frameIndex < nextSample) {
+                    continue;
+                }
+                if (!capture.retrieve(frame) || frame.empty()) {
+                    continue;
+                }
+                long timeMillis = Math.round(frameIndex * 1000 / framesPerSecond);
+
+                double trackingScale = Math.min(1, (double) TRACKING_WIDTH / frame.cols());
+                Imgproc.resize(frame, scaledFrame, new Size(Math.rint(frame.cols() * trackingScale),
+                        Math.rint(frame.rows() * trackingScale)), 0, 0, Imgproc.INTER_AREA);
+                Imgproc.cvtColor(scaledFrame, trackingFrame, (scaledFrame.channels() == 4) ?
+                        Imgproc.COLOR_BGRA2GRAY : Imgproc.COLOR_BGR2GRAY);
+                double change = sceneChangeDetector.measure(trackingFrame);
+
+                boolean keyframe = change >= SCENE_CHANGE_THRESHOLD ||
+                        timeMillis - lastKeyframeMillis >= MAX_KEYFRAME_INTERVAL_MILLIS;
+                List<VideoFaceSample.TrackedFace> faces;
+                if (keyframe) {
+                    lastKeyframeMillis = timeMillis;
+                    faces = detectFaces(frame, trackingFrame, trackingScale, faceTracker);
+                    KEYFRAMES_COUNTER.increment();
+                } else {
+                    long startTime = System.nanoTime();
+                    faceTracker.update(trackingFrame);
+                    TRACK_TIMER.recordSince(startTime);
+                    faces = trackedFaces(faceTracker, trackingScale, frame.size(), null);
+                }
+                SAMPLES_COUNTER.increment();
+                listener.onSample(new VideoFaceSample(frameIndex, timeMillis, keyframe, change, faces));
+
+                if (change >= MOTION_THRESHOLD) {
+                    sampleStep = 1;
+                } else if (change < STILL_THRESHOLD) {
+                    sampleStep = Math.min(2 * sampleStep, maxSampleStep);
+                }
+                nextSample = frameIndex + sampleStep;
+            }
+        } finally {
+            FRAMES_COUNTER.add(frameIndex);
+            faceTracker.close();
+            sceneChangeDetector.close();
+            trackingFrame.release();
+            scaledFrame.release();
+            frame.release();
+            capture.release();
+        }
+        return frameIndex;
+    }
+
+    /**
+     * Detects faces in a keyframe at the usual processing size, and restarts tracking from them.
+     */
+    private List<VideoFaceSample.TrackedFace> detectFaces(Mat frame, Mat trackingFrame, double trackingScale,
+                                                          FaceTracker faceTracker) throws Exception {
+        List<FeatureOfInterest> featureOfInterests;
+        try (DetectionFrame detectionFrame = preprocessingPipeline.process(frame, frame.size())) {
+            featureOfInterests = ProminentFeatureDetector.detectProminentFeatures(detectionFrame, options);
+        }
+        List<Rect> trackingRects = new ArrayList<>(featureOfInterests.size());
+        for (FeatureOfInterest featureOfInterest : featureOfInterests) {
+            trackingRects.add(MathUtils.resizeRect(featureOfInterest.getFeatureROI(), trackingScale));
+        }
+        faceTracker.reset(trackingFrame, trackingRects);
+        return trackedFaces(faceTracker, trackingScale, frame.size(), featureOfInterests);
+    }
+
+    /**
+     * @param detectedFaces Faces detected in this frame, in the order given to the tracker, null if tracked.
+     * @return Faces of all tracks, in frame coordinates.
+     */
+    private static List<VideoFaceSample.TrackedFace> trackedFaces(FaceTracker faceTracker, double trackingScale,
+                                                                  Size frameSize,
+                                                                  List<FeatureOfInterest> detectedFaces) {
+        List<FaceTracker.Track> tracks = faceTracker.getTracks();
+        List<VideoFaceSample.TrackedFace> faces = new ArrayList<>(tracks.size());
+        for (int i = 0; i < tracks.size(); i++) {
+            FaceTracker.Track track = tracks.get(i);
+            FeatureOfInterest featureOfInterest;
+            if (detectedFaces != null && tracks.size() == detectedFaces.size()) {
+                featureOfInterest = detectedFaces.get(i);
+            } else {
+                featureOfInterest = new FeatureOfInterest(MathUtils.resizeRect(track.getRect(), 1 / trackingScale),
+                        FeatureOfInterest.FeatureType.FACE, track.getMatchScore());
+                featureOfInterest.setImageSize(frameSize);
+            }
+            faces.add(new VideoFaceSample.TrackedFace(track.getId(), featureOfInterest));
+        }
+        return faces;
+    }
+}
@@ -1,16 +1,18 @@
 package main.java.utils;
 
-import com.tinkerpop.pipes.util.structures.Pair;
+import main.java.core.logging.Logger;
 import org.apache.commons.lang.StringUtils;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by tapansharma on 12/10/17.
  */
 public class BashUtils {
+    private static final Logger LOGGER = Logger.getLogger(BashUtils.class);
+
     private static final int BASH_COMMAND_TIMEOUT = 15 * 60;
 
     /**
@@ -26,83 +28,81 @@ public class BashUtils {
             commandRanSuccessfully = true;
         } catch (Exception e) {
             commandRanSuccessfully = false;
-            System.out.println("Bash Command execution failure: " + e);
+            LOGGER.warn("Bash Command execution failure", e);
         }
         return commandRanSuccessfully;
     }
 
     /**
+     * Runs command through /bin/bash. Prefer {@link #runCommand(String...)}, which needs no quoting and starts no
+     * shell.
+     *
      * @param command The Bash command to run.
      * @return the console output from the command.
      */
     public static String runBashCommand(String command) throws Exception {
         try {
-            Pair<Integer, String> cmdRet = getCmdResult(command);
-            if (cmdRet.getA() != 0) {
-                return cmdRet.getB();
-                //throw new Exception("Command " + command + " returned with failure status " + cmdRet.getA());
-            } else {
-                return cmdRet.getB();
-            }
+            return getCmdResult(Arrays.asList("/bin/bash", "-c", command)).getOutput();
         } catch (Exception e) {
             throw new Exception("Could not execute command: " + command, e);
         }
     }
 
     /**
-     * Get the result of a system command. Any output from command over 4 KB will cause the waitFor call to hang. The
-     * output can be either from InputStream or OutputStream.
+     * Runs a program directly, without a shell. Arguments are passed as is, so paths with spaces or quotes need no
+     * escaping.
      *
-     * @param command The command to execute
-     * @return Pair of exit status and message returned by command
-     * @throws IOException
-     * @throws InterruptedException
+     * @param command The program and its arguments.
+     * @return the console output from the command.
+     * @throws Exception If command could not be run or timed out.
      */
-    private static Pair<Integer, String> getCmdResult(String command)
-            throws IOException, InterruptedException {
-        System.out.println("Running image command: " + command);
-        String[] cmdArr = {"/bin/bash", "-c", command};
-        Process cmd = Runtime.getRuntime().exec(cmdArr);
-
-        String result;
-        {
-            // ToDo: The problem here is if any data is written to error stream over 4 KB, it will cause app to hang.
-            // Read Input Stream
-            BufferedReader reader = new BufferedReader(new InputStreamReader(cmd.getInputStream()));
-            String tmp = reader.readLine();
-            StringBuilder outputBuilder = new StringBuilder();
-            while (tmp != null) {
-                outputBuilder.append(tmp).append(System.lineSeparator());
-                tmp = reader.readLine();
-            }
-            result = outputBuilder.toString();
-            reader.close();
+    public static String runCommand(String... command) throws Exception {
+        try {
+            return getCmdResult(Arrays.asList(command)).getOutput();
+        } catch (Exception e) {
+            throw new Exception("Could not execute command: " + Arrays.toString(command), e);
         }
+    }
 
-        String err;
-        {
-            // Read Error Stream
-            BufferedReader errReader = new BufferedReader(new InputStreamReader(cmd.getErrorStream()));
-            err = errReader.readLine();
-            StringBuilder errorBuilder = new StringBuilder();
-            while (null != err) {
-                errorBuilder.append(err).append(System.lineSeparator());
-                err = errReader.readLine();
-            }
-            errReader.close();
+    /**
+     * Same as {@link #runCommand(String...)}, output is ignored.
+     *
+     * @return true if the command exited with status 0.
+     */
+    public static boolean runCommand0(String... command) {
+        try {
+            ProcessRunner.CommandResult result = getCmdResult(Arrays.asList(command));
+            return result.isSuccess();
+        } catch (Exception e) {
+            LOGGER.warn("Command execution failure", e);
+            return false;
+        }
+    }
 
-            // Do not always log, since a lot of library writes additional info(webp, jpeg-archive) to this stream.
-            err = errorBuilder.toString();
+    /**
+     * Get the result of a system command. Output and error streams are read at the same time, so the command never
+     * blocks on either one. Command is killed if it runs over {@link #BASH_COMMAND_TIMEOUT} seconds.
+     *
+     * @param command The command to execute
+     * @return exit status and message returned by command
+     * @throws Exception If command could not be started or timed out.
+     */
+    private static ProcessRunner.CommandResult getCmdResult(List<String> command) throws Exception {
+        LOGGER.debug("Running image command: {}", command);
+        ProcessRunner.CommandResult result = ProcessRunner.getInstance().run(command, BASH_COMMAND_TIMEOUT,
+                TimeUnit.SECONDS);
+        if (result.isTimedOut()) {
+            throw new Exception("Command timed out after " + BASH_COMMAND_TIMEOUT + " seconds");
         }
 
-        int exitValue = cmd.waitFor();
+        // Do not always log, since a lot of library writes additional info(webp, jpeg-archive) to this stream.
+        String err = result.getError();
         if (StringUtils.isNotBlank(err)) {
-            if (exitValue != 0) {
-                System.out.println("CMD_ERR: {}" + err);
-            } else {
-                System.out.println("CMD_ERR: {}" + err);
-            }
+            LOGGER.warn("CMD_ERR: {}", err);
         }
-        return new Pair<>(exitValue, result);
+        LOGGER.info("Command exited with {} in {} ms, waited {} ms for a free slot", result.getExitValue(),
+                TimeUnit.NANOSECONDS.toMillis(result.getDurationNanos()),
+                TimeUnit.NANOSECONDS.toMillis(result.getQueueNanos()));
+        return result;
     }
 }
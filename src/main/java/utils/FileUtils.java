@@ -3,11 +3,12 @@ package main.java.utils;
 import main.java.core.imageprocess.ImageProcessor;
 import org.apache.commons.io.IOUtils;
 import org.opencv.core.Mat;
-import org.opencv.imgcodecs.Imgcodecs;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -81,51 +82,25 @@ public class FileUtils {
     }
 
     /**
-     * This function loads an image from url and saves into disk. Then it auto-orients the image using imagemagick
-     * and reloads using Opencv.
+     * This function loads an image from url into memory, decodes it using Opencv and auto-orients it using its exif
+     * orientation.
      *
      * @param imageUrl The url of the image.
      * @return The Mat object of the auto-oriented image.
      * @throws Exception
      */
     public static Mat loadMatImageFromUrl(String imageUrl) throws Exception {
-        boolean imgOriented = false;
+        // Download Image to memory
+        byte[] imageBytes = loadImageBytesFromUrl(imageUrl);
 
-        // File download Path: s3Media/tmp/filename
-        String destinationPath = getLocalDestinationPath(imageUrl);
-
-        // Download Image to Disk
-        saveImageFromURL(imageUrl, destinationPath);
-
-        // Auto-Orient Image. If a file has exif metadata - "Orientation set to any value 2-8, re-orient it."
-        // ToDo: Check if auto-orientation is needed as we have already moved to opencv 3.1 which resolves the
-        // orientation issue.
-        if (ImageProcessor.shouldAutoOrientImage(ImageProcessor.imageOrientationValue(destinationPath))) {
-            System.out.println("Reorienting Image: " + imageUrl);
-            boolean succeeded = ImageProcessor.autoOrientImage(destinationPath, destinationPath);
-            if (succeeded) {
-                imgOriented = true;
-                System.out.println("Image Reoriented: " + imageUrl);
-            } else {
-                System.out.println("Failed to auto-orient an image, url is: " + imageUrl);
-                throw new Exception("Failed to auto-orient an image, url is: " + imageUrl);
-            }
-        }
-
-        // Load the image
-        Mat mat = Imgcodecs.imread(destinationPath);
-
-        // Delete the loaded image
-        deleteFile(destinationPath);
+        // Decode and auto-orient image. If a file has exif metadata - "Orientation set to any value 2-8, re-orient it."
+        Mat mat = ImageProcessor.decodeOrientedImage(imageBytes);
 
         // Check if image loaded properly
-        if (mat.dataAddr() == 0) {
-            String orientedLogStr = "Image loaded from disk is empty, url is: " + imageUrl;
-            if (imgOriented) {
-                orientedLogStr = "Reoriented " + orientedLogStr;
-            }
-            System.out.println(orientedLogStr);
-            throw new Exception(orientedLogStr);
+        if (mat.empty()) {
+            String logStr = "Image decoded from memory is empty, url is: " + imageUrl;
+            System.out.println(logStr);
+            throw new Exception(logStr);
         }
 
         return mat;
@@ -159,6 +134,42 @@ public class FileUtils {
         }
     }
 
+    /**
+     * This function downloads an image from a url into memory. Nothing is written to disk.
+     *
+     * @param imageUrl The url of the image.
+     * @return The encoded image bytes.
+     * @throws Exception
+     */
+    public static byte[] loadImageBytesFromUrl(String imageUrl) throws Exception {
+        InputStream is = null;
+        try {
+            is = new URL(imageUrl).openStream();
+            return IOUtils.toByteArray(is);
+        } catch (MalformedURLException e) {
+            throw new Exception(e);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * This function memory-maps a local file for reading. The mapping stays valid after the channel is closed.
+     *
+     * @param filePath The local path of the file.
+     * @return The read-only buffer over the complete file.
+     * @throws IOException
+     */
+    public static MappedByteBuffer mapFile(String filePath) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filePath, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+    }
+
     /**
      * This function downloads an image from a url and saves into disk and returns it File handle.
      *
@@ -205,6 +216,7 @@ public class FileUtils {
             public boolean accept(File dir, String name) {
                 String lowerCaseName = name.toLowerCase();
                 return lowerCaseName.endsWith(".jpeg") ||
+                        lowerCaseName.endsWith(".jpg") ||
                         lowerCaseName.endsWith(".png") ||
                         lowerCaseName.endsWith(".webp") ||
                         lowerCaseName.endsWith(".gif");
@@ -1,20 +1,23 @@
 package main.java.utils;
 
 import com.tinkerpop.pipes.util.structures.Pair;
-import main.java.core.featuredetection.dataSorting.SortByScore;
 import main.java.core.featuredetection.datapojo.FeatureOfInterest;
+import main.java.core.featuredetection.datapojo.FeatureRects;
+import main.java.core.logging.Logger;
 import org.opencv.core.Mat;
 import org.opencv.core.Rect;
 import org.opencv.core.Size;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Collections;
 
 /**
  * Created by tapansharma on 12/10/17.
  */
 public class MathUtils {
+
+    private static final Logger LOGGER = Logger.getLogger(MathUtils.class);
+
     public static Dimension computeCropAreaToClipToFixedAspectRatio(Dimension imageResolution,
                                                                     Dimension aspectRatioDimension) {
         int w = (int) imageResolution.getWidth(), h = (int) imageResolution.getHeight();
@@ -44,9 +47,9 @@ public class MathUtils {
                                               Dimension requiredCenter) {
         Dimension initialCenter = new Dimension((int) croppedAreaResolution.getWidth() / 2,
                 (int) croppedAreaResolution.getHeight() / 2);
-        // Find the degree of movement for cropped area
-        double deltaEastPossible = imageResolution.getWidth() - requiredCenter.getWidth();
-        double deltaSouthPossible = imageResolution.getHeight() - requiredCenter.getHeight();
+        // Find the degree of movement for cropped area, till its far edge meets the image edge
+        double deltaEastPossible = imageResolution.getWidth() - croppedAreaResolution.getWidth();
+        double deltaSouthPossible = imageResolution.getHeight() - croppedAreaResolution.getHeight();
 
         // Find distance between initialCenter and optimalCenter
         double deltaEastRequired = requiredCenter.getWidth() - initialCenter.getWidth(); // Here width and height represent x and y coordinate respectively.
@@ -135,86 +138,44 @@ public class MathUtils {
      * @return
      */
     public static Rect getIntersectionRect(Rect rect1, Rect rect2) {
-        Rectangle r1 = new Rectangle(rect1.x, rect1.y, rect1.width, rect1.height);
-        Rectangle r2 = new Rectangle(rect2.x, rect2.y, rect2.width, rect2.height);
-        if (!r1.intersects(r2))
+        if (rect1.width <= 0 || rect1.height <= 0 || rect2.width <= 0 || rect2.height <= 0)
+            return new Rect(0, 0, 0, 0);
+        int left = Math.max(rect1.x, rect2.x);
+        int top = Math.max(rect1.y, rect2.y);
+        int right = Math.min(rect1.x + rect1.width, rect2.x + rect2.width);
+        int bottom = Math.min(rect1.y + rect1.height, rect2.y + rect2.height);
+        if (right <= left || bottom <= top)
             return new Rect(0, 0, 0, 0);
-        Rectangle intersection = r1.intersection(r2);
-        return new Rect(intersection.x, intersection.y, intersection.width, intersection.height);
+        return new Rect(left, top, right - left, bottom - top);
     }
 
     /**
-     * This method finds if there is any rectangle in List A which has intersection with some rectangle in Rect B.
-     *
-     * @param rectList1
-     * @param rectList2
-     * @return
+     * @return Area of intersection of both rects divided by area of their union, 0 if either is empty.
      */
-    private static java.util.List<FeatureOfInterest> findIntersectingRects(java.util.List<FeatureOfInterest> rectList1,
-                                                                           java.util.List<FeatureOfInterest> rectList2) {
-        java.util.List<FeatureOfInterest> output = new ArrayList<>();
-
-        for (FeatureOfInterest featureOfInterest1 : rectList1) {
-            Rect rect1 = featureOfInterest1.getFeatureROI();
-            for (FeatureOfInterest featureOfInterest2 : rectList2) {
-                if (featureOfInterest1.getFeatureType() == featureOfInterest2.getFeatureType()) {
-                    Rect rect2 = featureOfInterest2.getFeatureROI();
-                    Rect intersectRect = getIntersectionRect(rect1, rect2);
-                    if (intersectRect.area() > 0) {
-                        // && intersectRect.area() > 0.5 * rect1.area() && intersectRect.area() > 0.5 * rect2.area())
-                        double featureScore = (featureOfInterest1.getFeatureScore() + featureOfInterest2
-                                .getFeatureScore());
-                        output.add(new FeatureOfInterest(intersectRect, featureOfInterest1.getFeatureType(),
-                                featureScore));
-                    }
-                }
-            }
+    public static double intersectionOverUnion(Rect rect1, Rect rect2) {
+        double intersectionArea = getIntersectionRect(rect1, rect2).area();
+        if (intersectionArea == 0) {
+            return 0;
         }
-
-        return output;
+        return intersectionArea / (rect1.area() + rect2.area() - intersectionArea);
     }
 
-    private static java.util.List<FeatureOfInterest> filterIntersectingRect(java.util.List<FeatureOfInterest> rects) {
-        java.util.List<FeatureOfInterest> output = new ArrayList<>();
-        boolean[] discardFeature = new boolean[rects.size()];
-        for (int i = 0; i < discardFeature.length; i++) {
-            discardFeature[i] = false;
-        }
-
-        // Sort in descending order of Score
-        Collections.sort(rects, new SortByScore());
-
-        // Discard the rectangle with lowest score
-        for (int i = 0; i < rects.size() - 1; i++) {
-            if (discardFeature[i]) {
-                continue;
-            }
-            FeatureOfInterest featureOfInterest1 = rects.get(i);
-            Rect rect1 = featureOfInterest1.getFeatureROI();
-            for (int j = i + 1; j < rects.size(); j++) {
-                if (discardFeature[j]) {
-                    continue;
-                }
-                FeatureOfInterest featureOfInterest2 = rects.get(j);
+    /**
+     * Suppression threshold which drops a rect overlapping a higher scored rect by any amount.
+     */
+    public static final double SUPPRESS_ANY_OVERLAP = 0;
 
-                if (featureOfInterest1.getFeatureType() == featureOfInterest2.getFeatureType()) {
-                    Rect rect2 = featureOfInterest2.getFeatureROI();
-                    Rect intersectRect = getIntersectionRect(rect1, rect2);
-                    if (intersectRect.area() > 0) {
-                        discardFeature[j] = true;
-                    }
-                }
-            }
-        }
+    private static final FeatureOfInterest.FeatureType[] FEATURE_TYPES = FeatureOfInterest.FeatureType.values();
 
-        for (int i = 0; i < discardFeature.length; i++) {
-            if (!discardFeature[i]) {
-                output.add(rects.get(i));
-            }
+    /**
+     * Voting buffers are reused by each detection thread.
+     */
+    private static final ThreadLocal<RectVotingEngine> RECT_VOTING_ENGINE = new ThreadLocal<RectVotingEngine>() {
+        @Override
+        protected RectVotingEngine initialValue() {
+            return new RectVotingEngine();
         }
-
-        return output;
-    }
+    };
 
     /**
      * This method takes list(A) of list(B) of Rects. It finds if there are
@@ -225,22 +186,68 @@ public class MathUtils {
      */
     public static java.util.List<FeatureOfInterest> findIntersectingRects(
             java.util.List<java.util.List<FeatureOfInterest>> rectsLists) {
-        java.util.List<FeatureOfInterest> output = new ArrayList<>();
+        return findIntersectingRects(rectsLists, SUPPRESS_ANY_OVERLAP);
+    }
 
-        if (rectsLists.size() >= 2) {
-            // Find common intersecting rectangles between every pair of lists possible
-            for (int i = 0; i < rectsLists.size() - 1; i++) {
-                for (int j = i + 1; j < rectsLists.size(); j++) {
-                    java.util.List<FeatureOfInterest> intersectingRects =
-                            findIntersectingRects(rectsLists.get(i), rectsLists.get(j));
-                    output.addAll(intersectingRects);
-                }
+    /**
+     * This method finds intersections of rects of same type between every pair of lists, scored by sum of both
+     * scores. Of intersections which overlap, only the highest scored is kept.
+     *
+     * @param rectsLists     One list of rects per detection technique.
+     * @param suppressionIoU An intersection is dropped if its IoU with a higher scored one is above this.
+     *                       {@link #SUPPRESS_ANY_OVERLAP} drops it on any overlap.
+     * @return The kept intersections, in descending order of score.
+     */
+    public static java.util.List<FeatureOfInterest> findIntersectingRects(
+            java.util.List<java.util.List<FeatureOfInterest>> rectsLists, double suppressionIoU) {
+        RectVotingEngine rectVotingEngine = RECT_VOTING_ENGINE.get();
+        rectVotingEngine.clear();
+        for (java.util.List<FeatureOfInterest> rects : rectsLists) {
+            rectVotingEngine.startList();
+            for (FeatureOfInterest featureOfInterest : rects) {
+                Rect rect = featureOfInterest.getFeatureROI();
+                rectVotingEngine.addRect(rect.x, rect.y, rect.width, rect.height,
+                        featureOfInterest.getFeatureType().ordinal(), featureOfInterest.getFeatureScore());
             }
         }
 
-        // Filter if 2 or more rectangles have common intersection and store only intersection.
-        output = filterIntersectingRect(output);
+        int numKept = rectVotingEngine.vote(suppressionIoU);
+        java.util.List<FeatureOfInterest> output = new ArrayList<>(numKept);
+        for (int i = 0; i < numKept; i++) {
+            output.add(new FeatureOfInterest(new Rect(rectVotingEngine.getX(i), rectVotingEngine.getY(i),
+                    rectVotingEngine.getWidth(i), rectVotingEngine.getHeight(i)),
+                    FEATURE_TYPES[rectVotingEngine.getType(i)], rectVotingEngine.getScore(i)));
+        }
+        return output;
+    }
+
+    /**
+     * Same as {@link #findIntersectingRects(java.util.List, double)}, for rects held in primitive arrays. Rects are
+     * copied to the engine and back without creating a FeatureOfInterest per rect.
+     *
+     * @param rectsLists     One set of rects per detection technique.
+     * @param suppressionIoU An intersection is dropped if its IoU with a higher scored one is above this.
+     * @return The kept intersections, in descending order of score.
+     */
+    public static FeatureRects voteOnRects(java.util.List<FeatureRects> rectsLists, double suppressionIoU) {
+        RectVotingEngine rectVotingEngine = RECT_VOTING_ENGINE.get();
+        rectVotingEngine.clear();
+        for (FeatureRects rects : rectsLists) {
+            rectVotingEngine.startList();
+            int numRects = rects.size();
+            for (int i = 0; i < numRects; i++) {
+                rectVotingEngine.addRect(rects.getX(i), rects.getY(i), rects.getWidth(i), rects.getHeight(i),
+                        rects.getFeatureType(i).ordinal(), rects.getScore(i));
+            }
+        }
 
+        int numKept = rectVotingEngine.vote(suppressionIoU);
+        FeatureRects output = new FeatureRects(numKept);
+        for (int i = 0; i < numKept; i++) {
+            output.add(rectVotingEngine.getX(i), rectVotingEngine.getY(i), rectVotingEngine.getWidth(i),
+                    rectVotingEngine.getHeight(i), FEATURE_TYPES[rectVotingEngine.getType(i)],
+                    rectVotingEngine.getScore(i));
+        }
         return output;
     }
 
@@ -256,12 +263,14 @@ public class MathUtils {
         double scaleFactor = 1.0;
         // ToDo: Compare number of total pixels to area of boundingRectSize, instead of below condition.
         if (originalMat.height() > boundingRectSize.height || originalMat.width() > boundingRectSize.width) {
-            System.out.println("Image Size: " + originalMat.size() + " greater than bounding rect: " + boundingRectSize);
             int originalHeight = originalMat.height();
             int originalWidth = originalMat.width();
             scaleFactor = Math.min(boundingRectSize.height / originalHeight, boundingRectSize.width / originalWidth);
-            System.out.println("Image resize size wil be: " + (int) (scaleFactor * originalWidth) + "x" + (int) (scaleFactor *
-                    originalHeight));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Image Size: {}x{} greater than bounding rect: {}, resize size will be: {}x{}",
+                        originalWidth, originalHeight, boundingRectSize, (int) (scaleFactor * originalWidth),
+                        (int) (scaleFactor * originalHeight));
+            }
         }
         return scaleFactor;
     }
@@ -0,0 +1,52 @@
+package main.java.utils;
+
+import java.io.File;
+
+/**
+ * Loads OPENCV native library shipped in libs directory. Loading is done once per JVM, later calls return at once.
+ */
+public class NativeLibraryLoader {
+
+    private static final String OPENCV_LIBRARY_NAME = "libopencv_java330";
+
+    private static boolean openCVLoaded = false;
+
+    /**
+     * Loads OPENCV native library from libs directory of the working directory.
+     *
+     * @throws UnsatisfiedLinkError If library could not be loaded.
+     */
+    public static void loadOpenCV() {
+        loadOpenCV(System.getProperty("user.dir"));
+    }
+
+    /**
+     * Loads OPENCV native library from libs directory of given directory.
+     *
+     * @param baseDirPath Directory which has libs directory.
+     * @throws UnsatisfiedLinkError If library could not be loaded or OS platform is unknown.
+     */
+    public static synchronized void loadOpenCV(String baseDirPath) {
+        if (openCVLoaded) {
+            return;
+        }
+        OSUtils.OS os = OSUtils.getOS();
+        if (os == null) {
+            throw new UnsatisfiedLinkError("Failed to determine OS Platform: " + System.getProperty("os.name"));
+        }
+        String nativeLibrarySuffix;
+        switch (os) {
+            case WINDOWS:
+                nativeLibrarySuffix = ".dll";
+                break;
+            case MAC:
+                nativeLibrarySuffix = ".dylib";
+                break;
+            default:
+                nativeLibrarySuffix = ".so";
+        }
+        System.load(new File(baseDirPath, "libs/" + OPENCV_LIBRARY_NAME + nativeLibrarySuffix).getAbsolutePath());
+        openCVLoaded = true;
+        System.out.println("OPENCV Native Library loaded.");
+    }
+}
@@ -0,0 +1,576 @@
+package main.java.utils;
+
+import main.java.core.logging.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs external commands(ImageMagick and the like) as an argument vector, without a shell. Both output streams are
+ * drained at the same time into bounded buffers, so a command writing a lot to either stream never blocks on a full
+ * pipe. A command which runs past its timeout is killed along with the processes it started. At most a fixed
+ * number of commands run at once, the rest wait for a free slot in arrival order.
+ * <p/>
+ * Configured by system properties:
+ * <ul>
+ * <li>serverlesscv.process.maxConcurrent - Commands run at once. Default 2 per processor.</li>
+ * <li>serverlesscv.process.maxOutputBytes - Bytes kept of each stream, rest is read and dropped. Default 1 MB.</li>
+ * </ul>
+ */
+public class ProcessRunner {
+
+    private static final Logger LOGGER = Logger.getLogger(ProcessRunner.class);
+
+    public static final String MAX_CONCURRENT_PROPERTY = "serverlesscv.process.maxConcurrent";
+
+    public static final String MAX_OUTPUT_BYTES_PROPERTY = "serverlesscv.process.maxOutputBytes";
+
+    private static final Charset OUTPUT_CHARSET = Charset.defaultCharset();
+
+    private static class InstanceHolder {
+        private static final ProcessRunner INSTANCE = new ProcessRunner(Integer.getInteger(MAX_CONCURRENT_PROPERTY,
+                2 * Runtime.getRuntime().availableProcessors()), Integer.getInteger(MAX_OUTPUT_BYTES_PROPERTY,
+                1024 * 1024));
+    }
+
+    /**
+     * Drains output streams and waits for exit, three threads per running command. Threads are created on demand
+     * and die when idle, the number of running commands is bounded by {@link #slots}.
+     */
+    private static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "process-io-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final int maxConcurrent;
+
+    private final int maxOutputBytes;
+
+    private final Semaphore slots;
+
+    private final ConcurrentMap<String, CommandStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxConcurrent  Commands run at once.
+     * @param maxOutputBytes Bytes kept of each output stream.
+     */
+    public ProcessRunner(int maxConcurrent, int maxOutputBytes) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxOutputBytes = Math.max(0, maxOutputBytes);
+        this.slots = new Semaphore(this.maxConcurrent, true);
+    }
+
+    public static ProcessRunner getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Runs a command and waits for it to exit.
+     *
+     * @param command Program and its arguments. Arguments are passed as is, nothing is expanded or split.
+     * @param timeout The maximum time for the command, including time waiting for a free slot.
+     * @param unit    The unit of timeout.
+     * @return The exit status and output. If timed out, the command has been killed.
+     * @throws IOException          If command could not be started.
+     * @throws InterruptedException If interrupted while waiting, the command is killed.
+     */
+    public CommandResult run(List<String> command, long timeout, TimeUnit unit) throws IOException,
+            InterruptedException {
+        if (command.isEmpty()) {
+            throw new IllegalArgumentException("Empty command");
+        }
+        CommandStats commandStats = statsOf(command.get(0));
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long queueStartTime = System.nanoTime();
+        if (!slots.tryAcquire(timeout, unit)) {
+            commandStats.record(0, System.nanoTime() - queueStartTime, false, true);
+            return new CommandResult(-1, "", "", true, false, 0, System.nanoTime() - queueStartTime);
+        }
+        long startTime = System.nanoTime();
+        long queueNanos = startTime - queueStartTime;
+        try {
+            return execute(command, deadline, queueNanos, commandStats);
+        } finally {
+            slots.release();
+        }
+    }
+
+    private CommandResult execute(List<String> command, long deadline, long queueNanos, CommandStats commandStats)
+            throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        final Process process = new ProcessBuilder(command).start();
+        process.getOutputStream().close();
+        Future<BoundedOutput> stdout = IO_EXECUTOR.submit(new Drain(process.getInputStream(), maxOutputBytes));
+        Future<BoundedOutput> stderr = IO_EXECUTOR.submit(new Drain(process.getErrorStream(), maxOutputBytes));
+        Future<Integer> exit = IO_EXECUTOR.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws InterruptedException {
+                return process.waitFor();
+            }
+        });
+
+        boolean timedOut = false;
+        int exitValue = -1;
+        try {
+            exitValue = exit.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timedOut = true;
+            LOGGER.warn("Command timed out, killing it: {}", command);
+            killProcessTree(process);
+            exit.cancel(true);
+        } catch (InterruptedException e) {
+            killProcessTree(process);
+            exit.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            killProcessTree(process);
+            throw new IOException("Failed waiting for command: " + command, e.getCause());
+        }
+
+        // Streams reach end of file once the process and its children have exited or been killed.
+        BoundedOutput out = awaitOutput(stdout, deadline, timedOut);
+        BoundedOutput err = awaitOutput(stderr, deadline, timedOut);
+        long durationNanos = System.nanoTime() - startTime;
+        commandStats.record(durationNanos, queueNanos, exitValue != 0 && !timedOut, timedOut);
+        return new CommandResult(exitValue, out.toString(), err.toString(), timedOut, out.truncated() ||
+                err.truncated(), durationNanos, queueNanos);
+    }
+
+    /**
+     * A child which keeps the pipe open(a daemon started by the command) must not hold the caller, so output is
+     * waited for only a short while past the deadline.
+     */
+    private static BoundedOutput awaitOutput(Future<BoundedOutput> output, long deadline, boolean timedOut)
+            throws InterruptedException {
+        long waitNanos = timedOut ? TimeUnit.SECONDS.toNanos(1) : Math.max(TimeUnit.SECONDS.toNanos(1),
+                deadline - System.nanoTime());
+        try {
+            return output.get(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            output.cancel(true);
+            return new BoundedOutput(0);
+        }
+    }
+
+    /**
+     * Kills the process and every process below it. The descendants are found from ps, since a process started by
+     * the command does not die with its parent.
+     */
+    static void killProcessTree(Process process) {
+        int pid = pidOf(process);
+        if (pid > 0) {
+            List<String> killCommand = new ArrayList<>();
+            killCommand.add("kill");
+            killCommand.add("-KILL");
+            for (int descendant : descendantsOf(pid)) {
+                killCommand.add(String.valueOf(descendant));
+            }
+            killCommand.add(String.valueOf(pid));
+            try {
+                Process kill = new ProcessBuilder(killCommand).redirectErrorStream(true).start();
+                drainQuietly(kill.getInputStream());
+                kill.waitFor();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to kill process tree of {}", pid, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        process.destroy();
+    }
+
+    private static List<Integer> descendantsOf(int pid) {
+        Map<Integer, List<Integer>> children = new HashMap<>();
+        try {
+            Process ps = new ProcessBuilder("ps", "-A", "-o", "pid=", "-o", "ppid=").start();
+            ps.getErrorStream().close();
+            String output = new String(readFully(ps.getInputStream()), OUTPUT_CHARSET);
+            ps.waitFor();
+            for (String line : output.split("\n")) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length != 2) {
+                    continue;
+                }
+                try {
+                    int childPid = Integer.parseInt(fields[0]);
+                    int parentPid = Integer.parseInt(fields[1]);
+                    List<Integer> siblings = children.get(parentPid);
+                    if (siblings == null) {
+                        siblings = new ArrayList<>();
+                        children.put(parentPid, siblings);
+                    }
+                    siblings.add(childPid);
+                } catch (NumberFormatException e) {
+                    // Header or garbage line.
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to list processes, only {} is killed", pid, e);
+            return Collections.emptyList();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+
+        List<Integer> descendants = new ArrayList<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.add(pid);
+        while (!pending.isEmpty()) {
+            List<Integer> directChildren = children.get(pending.poll());
+            if (directChildren != null) {
+                descendants.addAll(directChildren);
+                pending.addAll(directChildren);
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * @return Pid of process, -1 if it can't be found. Process has no pid accessor before Java 9, so it is read
+     * from the private field of the unix implementation there.
+     */
+    private static int pidOf(Process process) {
+        try {
+            Method pidMethod = Process.class.getMethod("pid");
+            return ((Number) pidMethod.invoke(process)).intValue();
+        } catch (Exception e) {
+            // Not on Java 9 and above.
+        }
+        try {
+            Field pidField = process.getClass().getDeclaredField("pid");
+            pidField.setAccessible(true);
+            return pidField.getInt(process);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static void drainQuietly(InputStream inputStream) {
+        try {
+            readFully(inputStream);
+        } catch (IOException e) {
+            // Nothing to do.
+        }
+    }
+
+    private CommandStats statsOf(String program) {
+        String name = program.substring(program.lastIndexOf('/') + 1);
+        CommandStats commandStats = stats.get(name);
+        if (commandStats == null) {
+            CommandStats newStats = new CommandStats();
+            commandStats = stats.putIfAbsent(name, newStats);
+            if (commandStats == null) {
+                commandStats = newStats;
+            }
+        }
+        return commandStats;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * @return Commands currently running.
+     */
+    public int getRunning() {
+        return maxConcurrent - slots.availablePermits();
+    }
+
+    /**
+     * @return Commands currently waiting for a free slot.
+     */
+    public int getQueued() {
+        return slots.getQueueLength();
+    }
+
+    /**
+     * @return Latency and failure counts per program, by program name.
+     */
+    public Map<String, CommandMetrics> getMetrics() {
+        Map<String, CommandMetrics> metrics = new TreeMap<>();
+        for (Map.Entry<String, CommandStats> entry : stats.entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return metrics;
+    }
+
+    /**
+     * Reads a stream to end of file, keeping up to a limit and dropping the rest.
+     */
+    private static class Drain implements Callable<BoundedOutput> {
+
+        private final InputStream inputStream;
+
+        private final int limit;
+
+        Drain(InputStream inputStream, int limit) {
+            this.inputStream = inputStream;
+            this.limit = limit;
+        }
+
+        @Override
+        public BoundedOutput call() throws IOException {
+            BoundedOutput output = new BoundedOutput(limit);
+            try (InputStream in = inputStream) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    output.write(buffer, read);
+                }
+            }
+            return output;
+        }
+    }
+
+    private static class BoundedOutput {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final int limit;
+
+        private long total;
+
+        BoundedOutput(int limit) {
+            this.limit = limit;
+        }
+
+        void write(byte[] buffer, int length) {
+            int kept = (int) Math.min(length, Math.max(0, limit - total));
+            bytes.write(buffer, 0, kept);
+            total += length;
+        }
+
+        boolean truncated() {
+            return total > limit;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes.toByteArray(), OUTPUT_CHARSET);
+        }
+    }
+
+    private static class CommandStats {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private final AtomicLong timeouts = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private final AtomicLong totalQueueNanos = new AtomicLong();
+
+        void record(long durationNanos, long queueNanos, boolean failed, boolean timedOut) {
+            count.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            if (timedOut) {
+                timeouts.incrementAndGet();
+            }
+            totalNanos.addAndGet(durationNanos);
+            totalQueueNanos.addAndGet(queueNanos);
+            long max = maxNanos.get();
+            while (durationNanos > max && !maxNanos.compareAndSet(max, durationNanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        CommandMetrics snapshot() {
+            return new CommandMetrics(count.get(), failures.get(), timeouts.get(), totalNanos.get(), maxNanos.get(),
+                    totalQueueNanos.get());
+        }
+    }
+
+    /**
+     * Exit status and output of a command.
+     */
+    public static class CommandResult {
+
+        private final int exitValue;
+
+        private final String output;
+
+        private final String error;
+
+        private final boolean timedOut;
+
+        private final boolean truncated;
+
+        private final long durationNanos;
+
+        private final long queueNanos;
+
+        CommandResult(int exitValue, String output, String error, boolean timedOut, boolean truncated,
+                      long durationNanos, long queueNanos) {
+            this.exitValue = exitValue;
+            this.output = output;
+            this.error = error;
+            this.timedOut = timedOut;
+            this.truncated = truncated;
+            this.durationNanos = durationNanos;
+            this.queueNanos = queueNanos;
+        }
+
+        /**
+         * @return Exit status, -1 if command timed out.
+         */
+        public int getExitValue() {
+            return exitValue;
+        }
+
+        /**
+         * @return True if command exited with status 0 within timeout.
+         */
+        public boolean isSuccess() {
+            return !timedOut && exitValue == 0;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @return True if either stream had more output than was kept.
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        /**
+         * @return Time from start of process till it exited or was killed.
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * @return Time spent waiting for a free slot.
+         */
+        public long getQueueNanos() {
+            return queueNanos;
+        }
+    }
+
+    /**
+     * Counts of one program since start.
+     */
+    public static class CommandMetrics {
+
+        private final long count;
+
+        private final long failures;
+
+        private final long timeouts;
+
+        private final long totalNanos;
+
+        private final long maxNanos;
+
+        private final long totalQueueNanos;
+
+        CommandMetrics(long count, long failures, long timeouts, long totalNanos, long maxNanos,
+                       long totalQueueNanos) {
+            this.count = count;
+            this.failures = failures;
+            this.timeouts = timeouts;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.totalQueueNanos = totalQueueNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return Runs which exited with a non zero status.
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return Runs killed on timeout or which found no free slot within timeout.
+         */
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getTotalQueueNanos() {
+            return totalQueueNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "CommandMetrics [count=" + count + ", failures=" + failures + ", timeouts=" + timeouts
+                    + ", averageMillis=" + ((count == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / count))
+                    + ", maxMillis=" + TimeUnit.NANOSECONDS.toMillis(maxNanos) + ", averageQueueMillis="
+                    + ((count == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(totalQueueNanos / count)) + "]";
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package main.java.utils;
+
+import java.util.Arrays;
+
+/**
+ * Votes on rects found by several detection techniques and suppresses overlapping results, over primitive arrays.
+ * <p/>
+ * Voting: every rect of a technique that overlaps a rect of same type of another technique gives a candidate, the
+ * intersection of both with sum of their scores. Suppression: candidates are taken in descending score order and a
+ * candidate is dropped if its IoU with an already kept candidate of same type is above the threshold.
+ * <p/>
+ * Overlapping pairs are found through a uniform grid with cells about the average rect size, so each rect is only
+ * tested against rects near it instead of all rects. Buffers are kept and reused across calls, so an engine does not
+ * allocate once it has grown to the input size. An engine is not thread safe, use one per thread.
+ */
+public class RectVotingEngine {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Upper bound on grid cells, cells are made larger if rects are spread too far apart for it.
+     */
+    private static final int MAX_GRID_CELLS = 4096;
+
+    // Input rects, grouped by list, in insertion order.
+    private int numInputs;
+    private int[] inputX = new int[INITIAL_CAPACITY];
+    private int[] inputY = new int[INITIAL_CAPACITY];
+    private int[] inputWidth = new int[INITIAL_CAPACITY];
+    private int[] inputHeight = new int[INITIAL_CAPACITY];
+    private int[] inputType = new int[INITIAL_CAPACITY];
+    private double[] inputScore = new double[INITIAL_CAPACITY];
+    private int[] inputStamp = new int[INITIAL_CAPACITY];
+
+    // Start offset of each list in inputs, listStart[numLists] is numInputs.
+    private int numLists;
+    private int[] listStart = new int[8];
+
+    // Candidates of voting, then kept candidates in score order.
+    private int numCandidates;
+    private int[] candidateX = new int[INITIAL_CAPACITY];
+    private int[] candidateY = new int[INITIAL_CAPACITY];
+    private int[] candidateWidth = new int[INITIAL_CAPACITY];
+    private int[] candidateHeight = new int[INITIAL_CAPACITY];
+    private int[] candidateType = new int[INITIAL_CAPACITY];
+    private double[] candidateScore = new double[INITIAL_CAPACITY];
+    private int[] candidateOrder = new int[INITIAL_CAPACITY];
+    private int[] sortBuffer = new int[INITIAL_CAPACITY];
+    private int numKept;
+    private int[] kept = new int[INITIAL_CAPACITY];
+
+    // Matches of one rect against the grid, sorted to keep insertion order of output.
+    private int numMatches;
+    private int[] matches = new int[INITIAL_CAPACITY];
+
+    // Grid as linked lists of entries per cell.
+    private int gridMinX;
+    private int gridMinY;
+    private int cellSize;
+    private int numColumns;
+    private int numRows;
+    private int[] cellHead = new int[MAX_GRID_CELLS];
+    private int numEntries;
+    private int[] entryNext = new int[4 * INITIAL_CAPACITY];
+    private int[] entryIndex = new int[4 * INITIAL_CAPACITY];
+    private int stamp;
+
+    public RectVotingEngine() {
+        clear();
+    }
+
+    /**
+     * Removes all rects, keeping buffers.
+     */
+    public void clear() {
+        numInputs = 0;
+        numLists = 0;
+        listStart[0] = 0;
+        numCandidates = 0;
+        numKept = 0;
+    }
+
+    /**
+     * Starts a new list, rects added after this belong to it.
+     */
+    public void startList() {
+        listStart[numLists] = numInputs;
+        numLists++;
+        if (numLists + 1 >= listStart.length) {
+            listStart = Arrays.copyOf(listStart, 2 * listStart.length);
+        }
+        listStart[numLists] = numInputs;
+    }
+
+    /**
+     * Adds a rect to the current list.
+     */
+    public void addRect(int x, int y, int width, int height, int type, double score) {
+        if (numLists == 0) {
+            startList();
+        }
+        if (numInputs == inputX.length) {
+            int capacity = 2 * inputX.length;
+            inputX = Arrays.copyOf(inputX, capacity);
+            inputY = Arrays.copyOf(inputY, capacity);
+            inputWidth = Arrays.copyOf(inputWidth, capacity);
+            inputHeight = Arrays.copyOf(inputHeight, capacity);
+            inputType = Arrays.copyOf(inputType, capacity);
+            inputScore = Arrays.copyOf(inputScore, capacity);
+            inputStamp = Arrays.copyOf(inputStamp, capacity);
+        }
+        inputX[numInputs] = x;
+        inputY[numInputs] = y;
+        inputWidth[numInputs] = width;
+        inputHeight[numInputs] = height;
+        inputType[numInputs] = type;
+        inputScore[numInputs] = score;
+        numInputs++;
+        listStart[numLists] = numInputs;
+    }
+
+    /**
+     * Votes between every pair of lists and suppresses overlapping candidates.
+     *
+     * @param suppressionIoU A candidate is dropped if its IoU with a kept candidate is above this. 0 drops any
+     *                       overlapping candidate.
+     * @return Number of kept rects, read them with the getters.
+     */
+    public int vote(double suppressionIoU) {
+        numCandidates = 0;
+        numKept = 0;
+        if (numLists < 2) {
+            return 0;
+        }
+        for (int i = 0; i < numLists - 1; i++) {
+            for (int j = i + 1; j < numLists; j++) {
+                voteBetween(listStart[i], listStart[i + 1], listStart[j], listStart[j + 1]);
+            }
+        }
+        suppress(suppressionIoU);
+        return numKept;
+    }
+
+    public int getX(int keptIndex) {
+        return candidateX[kept[keptIndex]];
+    }
+
+    public int getY(int keptIndex) {
+        return candidateY[kept[keptIndex]];
+    }
+
+    public int getWidth(int keptIndex) {
+        return candidateWidth[kept[keptIndex]];
+    }
+
+    public int getHeight(int keptIndex) {
+        return candidateHeight[kept[keptIndex]];
+    }
+
+    public int getType(int keptIndex) {
+        return candidateType[kept[keptIndex]];
+    }
+
+    public double getScore(int keptIndex) {
+        return candidateScore[kept[keptIndex]];
+    }
+
+    /**
+     * Adds a candidate for every overlapping pair of same type between two lists, in the order a nested loop over
+     * first and second list would.
+     */
+    private void voteBetween(int firstStart, int firstEnd, int secondStart, int secondEnd) {
+        if (firstStart == firstEnd || secondStart == secondEnd) {
+            return;
+        }
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        long sizeSum = 0;
+        for (int b = secondStart; b < secondEnd; b++) {
+            minX = Math.min(minX, inputX[b]);
+            minY = Math.min(minY, inputY[b]);
+            maxX = Math.max(maxX, inputX[b] + inputWidth[b]);
+            maxY = Math.max(maxY, inputY[b] + inputHeight[b]);
+            sizeSum += Math.max(inputWidth[b], inputHeight[b]);
+        }
+        resetGrid(minX, minY, maxX, maxY, (int) (sizeSum / (secondEnd - secondStart)));
+        for (int b = secondStart; b < secondEnd; b++) {
+            insertIntoGrid(b, inputX[b], inputY[b], inputWidth[b], inputHeight[b]);
+        }
+
+        for (int a = firstStart; a < firstEnd; a++) {
+            int ax = inputX[a], ay = inputY[a], aw = inputWidth[a], ah = inputHeight[a];
+            if (aw <= 0 || ah <= 0) {
+                continue;
+            }
+            // Collect matches of a, each rect once even if it spans several cells.
+            numMatches = 0;
+            stamp++;
+            int firstColumn = column(ax), lastColumn = column(ax + aw - 1);
+            int firstRow = row(ay), lastRow = row(ay + ah - 1);
+            for (int r = firstRow; r <= lastRow; r++) {
+                for (int c = firstColumn; c <= lastColumn; c++) {
+                    for (int e = cellHead[r * numColumns + c]; e != -1; e = entryNext[e]) {
+                        int b = entryIndex[e];
+                        if (inputStamp[b] == stamp) {
+                            continue;
+                        }
+                        inputStamp[b] = stamp;
+                        if (inputType[b] == inputType[a] && overlaps(ax, ay, aw, ah, inputX[b], inputY[b],
+                                inputWidth[b], inputHeight[b])) {
+                            if (numMatches == matches.length) {
+                                matches = Arrays.copyOf(matches, 2 * matches.length);
+                            }
+                            matches[numMatches++] = b;
+                        }
+                    }
+                }
+            }
+
+            Arrays.sort(matches, 0, numMatches);
+            for (int m = 0; m < numMatches; m++) {
+                int b = matches[m];
+                int left = Math.max(ax, inputX[b]);
+                int top = Math.max(ay, inputY[b]);
+                int right = Math.min(ax + aw, inputX[b] + inputWidth[b]);
+                int bottom = Math.min(ay + ah, inputY[b] + inputHeight[b]);
+                addCandidate(left, top, right - left, bottom - top, inputType[a], inputScore[a] + inputScore[b]);
+            }
+        }
+    }
+
+    /**
+     * Greedy suppression in descending score order. Ties keep candidate order, as a stable sort would.
+     */
+    private void suppress(double suppressionIoU) {
+        if (numCandidates == 0) {
+            return;
+        }
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        long sizeSum = 0;
+        for (int c = 0; c < numCandidates; c++) {
+            candidateOrder[c] = c;
+            minX = Math.min(minX, candidateX[c]);
+            minY = Math.min(minY, candidateY[c]);
+            maxX = Math.max(maxX, candidateX[c] + candidateWidth[c]);
+            maxY = Math.max(maxY, candidateY[c] + candidateHeight[c]);
+            sizeSum += Math.max(candidateWidth[c], candidateHeight[c]);
+        }
+        sortByScoreDescending(0, numCandidates);
+        resetGrid(minX, minY, maxX, maxY, (int) (sizeSum / numCandidates));
+
+        for (int o = 0; o < numCandidates; o++) {
+            int c = candidateOrder[o];
+            int cx = candidateX[c], cy = candidateY[c], cw = candidateWidth[c], ch = candidateHeight[c];
+            if (!isSuppressed(c, cx, cy, cw, ch, suppressionIoU)) {
+                if (numKept == kept.length) {
+                    kept = Arrays.copyOf(kept, 2 * kept.length);
+                }
+                kept[numKept++] = c;
+                insertIntoGrid(c, cx, cy, cw, ch);
+            }
+        }
+    }
+
+    private boolean isSuppressed(int c, int cx, int cy, int cw, int ch, double suppressionIoU) {
+        int firstColumn = column(cx), lastColumn = column(cx + cw - 1);
+        int firstRow = row(cy), lastRow = row(cy + ch - 1);
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int col = firstColumn; col <= lastColumn; col++) {
+                for (int e = cellHead[r * numColumns + col]; e != -1; e = entryNext[e]) {
+                    int k = entryIndex[e];
+                    if (candidateType[k] != candidateType[c]) {
+                        continue;
+                    }
+                    int kx = candidateX[k], ky = candidateY[k], kw = candidateWidth[k], kh = candidateHeight[k];
+                    if (!overlaps(cx, cy, cw, ch, kx, ky, kw, kh)) {
+                        continue;
+                    }
+                    long intersectionArea = (long) (Math.min(cx + cw, kx + kw) - Math.max(cx, kx)) *
+                            (Math.min(cy + ch, ky + kh) - Math.max(cy, ky));
+                    long unionArea = (long) cw * ch + (long) kw * kh - intersectionArea;
+                    if (intersectionArea > suppressionIoU * unionArea) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stable merge sort of candidateOrder by descending score.
+     */
+    private void sortByScoreDescending(int from, int to) {
+        if (sortBuffer.length < candidateOrder.length) {
+            sortBuffer = new int[candidateOrder.length];
+        }
+        for (int width = 1; width < to - from; width *= 2) {
+            for (int left = from; left < to - width; left += 2 * width) {
+                int middle = left + width;
+                int right = Math.min(left + 2 * width, to);
+                int i = left, j = middle, k = left;
+                while (i < middle && j < right) {
+                    // Take from right only if strictly higher, so equal scores keep their order.
+                    sortBuffer[k++] = (candidateScore[candidateOrder[j]] > candidateScore[candidateOrder[i]]) ?
+                            candidateOrder[j++] : candidateOrder[i++];
+                }
+                while (i < middle) {
+                    sortBuffer[k++] = candidateOrder[i++];
+                }
+                while (j < right) {
+                    sortBuffer[k++] = candidateOrder[j++];
+                }
+                System.arraycopy(sortBuffer, left, candidateOrder, left, right - left);
+            }
+        }
+    }
+
+    private void addCandidate(int x, int y, int width, int height, int type, double score) {
+        if (numCandidates == candidateX.length) {
+            int capacity = 2 * candidateX.length;
+            candidateX = Arrays.copyOf(candidateX, capacity);
+            candidateY = Arrays.copyOf(candidateY, capacity);
+            candidateWidth = Arrays.copyOf(candidateWidth, capacity);
+            candidateHeight = Arrays.copyOf(candidateHeight, capacity);
+            candidateType = Arrays.copyOf(candidateType, capacity);
+            candidateScore = Arrays.copyOf(candidateScore, capacity);
+            candidateOrder = Arrays.copyOf(candidateOrder, capacity);
+        }
+        candidateX[numCandidates] = x;
+        candidateY[numCandidates] = y;
+        candidateWidth[numCandidates] = width;
+        candidateHeight[numCandidates] = height;
+        candidateType[numCandidates] = type;
+        candidateScore[numCandidates] = score;
+        numCandidates++;
+    }
+
+    private void resetGrid(int minX, int minY, int maxX, int maxY, int averageSize) {
+        gridMinX = minX;
+        gridMinY = minY;
+        long spanX = Math.max(1L, (long) maxX - minX);
+        long spanY = Math.max(1L, (long) maxY - minY);
+        long size = Math.max(1, averageSize);
+        while ((spanX / size + 1) * (spanY / size + 1) > MAX_GRID_CELLS) {
+            size *= 2;
+        }
+        cellSize = (int) size;
+        numColumns = (int) (spanX / size + 1);
+        numRows = (int) (spanY / size + 1);
+        Arrays.fill(cellHead, 0, numColumns * numRows, -1);
+        numEntries = 0;
+    }
+
+    private void insertIntoGrid(int index, int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int firstColumn = column(x), lastColumn = column(x + width - 1);
+        int firstRow = row(y), lastRow = row(y + height - 1);
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstColumn; c <= lastColumn; c++) {
+                if (numEntries == entryNext.length) {
+                    entryNext = Arrays.copyOf(entryNext, 2 * entryNext.length);
+                    entryIndex = Arrays.copyOf(entryIndex, 2 * entryIndex.length);
+                }
+                int cell = r * numColumns + c;
+                entryIndex[numEntries] = index;
+                entryNext[numEntries] = cellHead[cell];
+                cellHead[cell] = numEntries;
+                numEntries++;
+            }
+        }
+    }
+
+    private int column(int x) {
+        return MathUtils.clip((int) (((long) x - gridMinX) / cellSize), 0, numColumns - 1);
+    }
+
+    private int row(int y) {
+        return MathUtils.clip((int) (((long) y - gridMinY) / cellSize), 0, numRows - 1);
+    }
+
+    /**
+     * Same test as java.awt.Rectangle.intersects, rects with no area overlap nothing.
+     */
+    private static boolean overlaps(int x1, int y1, int w1, int h1, int x2, int y2, int w2, int h2) {
+        return w1 > 0 && h1 > 0 && w2 > 0 && h2 > 0 && x1 < x2 + w2 && x2 < x1 + w1 && y1 < y2 + h2 &&
+                y2 < y1 + h1;
+    }
+}